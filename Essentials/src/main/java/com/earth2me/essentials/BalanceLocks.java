@@ -0,0 +1,119 @@
+package com.earth2me.essentials;
+
+import java.util.Collection;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks guarding balance changes.
+ * <p>
+ * Every read-modify-write of a balance holds the lock of its account, so concurrent deposits and withdrawals
+ * from the main thread and from plugins calling the economy asynchronously can not overwrite each other.
+ * Transfers hold the locks of both accounts, always acquired in stripe order so they can not deadlock.
+ */
+public class BalanceLocks {
+    private final ReentrantLock[] stripes;
+    private final int mask;
+
+    /**
+     * @param stripes the amount of locks, rounded up to a power of two
+     */
+    public BalanceLocks(final int stripes) {
+        int size = 1;
+        while (size < stripes) {
+            size <<= 1;
+        }
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            this.stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+    }
+
+    private int stripe(final UUID account) {
+        int hash = account.hashCode();
+        hash ^= (hash >>> 16);
+        return hash & mask;
+    }
+
+    /**
+     * Locks the balance of the given account until the returned hold is closed.
+     *
+     * @param account the UUID of the account
+     * @return the hold, to be closed in a try-with-resources block
+     */
+    public Hold lock(final UUID account) {
+        final ReentrantLock lock = stripes[stripe(account)];
+        lock.lock();
+        return new Hold(lock);
+    }
+
+    /**
+     * Locks the balances of both given accounts until the returned hold is closed.
+     *
+     * @param first  the UUID of the first account
+     * @param second the UUID of the second account
+     * @return the hold, to be closed in a try-with-resources block
+     */
+    public Hold lock(final UUID first, final UUID second) {
+        final int firstStripe = stripe(first);
+        final int secondStripe = stripe(second);
+        if (firstStripe == secondStripe) {
+            return lock(first);
+        }
+        final ReentrantLock lower = stripes[Math.min(firstStripe, secondStripe)];
+        final ReentrantLock upper = stripes[Math.max(firstStripe, secondStripe)];
+        lower.lock();
+        try {
+            upper.lock();
+        } catch (final RuntimeException | Error e) {
+            lower.unlock();
+            throw e;
+        }
+        return new Hold(lower, upper);
+    }
+
+    /**
+     * Locks the balances of all given accounts until the returned hold is closed.
+     *
+     * @param accounts the UUIDs of the accounts
+     * @return the hold, to be closed in a try-with-resources block
+     */
+    public Hold lock(final Collection<UUID> accounts) {
+        final TreeSet<Integer> order = new TreeSet<>();
+        for (final UUID account : accounts) {
+            order.add(stripe(account));
+        }
+        final ReentrantLock[] locks = new ReentrantLock[order.size()];
+        int i = 0;
+        try {
+            for (final int stripe : order) {
+                stripes[stripe].lock();
+                locks[i++] = stripes[stripe];
+            }
+        } catch (final RuntimeException | Error e) {
+            // Release the locks acquired so far
+            while (i > 0) {
+                locks[--i].unlock();
+            }
+            throw e;
+        }
+        return new Hold(locks);
+    }
+
+    public static final class Hold implements AutoCloseable {
+        private final ReentrantLock[] locks;
+
+        private Hold(final ReentrantLock... locks) {
+            this.locks = locks;
+        }
+
+        @Override
+        public void close() {
+            for (int i = locks.length - 1; i >= 0; i--) {
+                locks[i].unlock();
+            }
+        }
+    }
+}
@@ -0,0 +1,247 @@
+package com.earth2me.essentials;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Continuously maintained balance leaderboard.
+ * <p>
+ * Every balance change moves a single entry inside a tree ordered by balance. Each node of the tree knows the
+ * size of its subtree, so updates, finding the entry at a position and counting the entries above a balance are
+ * all O(log n), and any page of the leaderboard can be read without loading any users or walking the entries
+ * before it. The total of all ranked balances is kept as a running sum.
+ */
+public class BalanceRanking {
+    private static final Comparator<Ranked> ORDER = Comparator.comparing((Ranked ranked) -> ranked.balance).reversed()
+        .thenComparing(ranked -> ranked.uuid);
+    private Node root;
+    private final Map<UUID, Ranked> entries = new ConcurrentHashMap<>();
+    private volatile BigDecimal total = BigDecimal.ZERO;
+    private volatile boolean seeded = false;
+
+    /**
+     * Updates the balance of the given user, removing them from the ranking if they are excluded from it.
+     *
+     * @param uuid     the UUID of the user
+     * @param name     the name to rank the user under
+     * @param balance  the new balance
+     * @param excluded whether the user should not be ranked
+     */
+    public synchronized void update(final UUID uuid, final String name, final BigDecimal balance, final boolean excluded) {
+        final Ranked previous = entries.get(uuid);
+        if (previous != null && !excluded && previous.balance.compareTo(balance) == 0 && previous.name.equals(name)) {
+            return;
+        }
+        remove(uuid);
+        if (!excluded && balance != null) {
+            final Ranked ranked = new Ranked(uuid, name == null ? uuid.toString() : name, balance);
+            entries.put(uuid, ranked);
+            root = insert(root, new Node(ranked));
+            total = total.add(balance);
+        }
+    }
+
+    /**
+     * Adds a user read while seeding the ranking, unless their balance already changed since.
+     */
+    synchronized void seed(final UUID uuid, final String name, final BigDecimal balance, final boolean excluded) {
+        if (!entries.containsKey(uuid)) {
+            update(uuid, name, balance, excluded);
+        }
+    }
+
+    public synchronized void remove(final UUID uuid) {
+        final Ranked previous = entries.remove(uuid);
+        if (previous != null) {
+            root = remove(root, previous);
+            total = total.subtract(previous.balance);
+        }
+    }
+
+    /**
+     * @return whether every known user has been added to the ranking.
+     */
+    public boolean isSeeded() {
+        return seeded;
+    }
+
+    void setSeeded() {
+        seeded = true;
+    }
+
+    public BigDecimal getTotal() {
+        return total;
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    /**
+     * Reads a page of the ranking, richest first.
+     *
+     * @param offset the amount of entries to skip
+     * @param limit  the maximum amount of entries to return
+     * @return the entries
+     */
+    public synchronized List<Ranked> getPage(final int offset, final int limit) {
+        final List<Ranked> page = new ArrayList<>(Math.min(limit, 64));
+        collect(root, Math.max(0, offset), limit, page);
+        return page;
+    }
+
+    /**
+     * @param balance the balance
+     * @return the amount of ranked users with a balance higher than the given one
+     */
+    public synchronized int countAbove(final BigDecimal balance) {
+        int count = 0;
+        Node node = root;
+        while (node != null) {
+            if (node.ranked.balance.compareTo(balance) > 0) {
+                count += size(node.left) + 1;
+                node = node.right;
+            } else {
+                node = node.left;
+            }
+        }
+        return count;
+    }
+
+    private static void collect(final Node node, final int skip, final int limit, final List<Ranked> page) {
+        if (node == null || page.size() >= limit) {
+            return;
+        }
+        final int leftSize = size(node.left);
+        if (skip < leftSize) {
+            collect(node.left, skip, limit, page);
+        }
+        if (skip <= leftSize && page.size() < limit) {
+            page.add(node.ranked);
+        }
+        collect(node.right, Math.max(0, skip - leftSize - 1), limit, page);
+    }
+
+    // The tree is a treap: ordered by ORDER, and heap ordered by a random priority to keep it balanced.
+    private static Node insert(final Node node, final Node added) {
+        if (node == null) {
+            return added;
+        }
+        if (added.priority > node.priority) {
+            split(node, added.ranked, added);
+            return added.update();
+        }
+        if (ORDER.compare(added.ranked, node.ranked) < 0) {
+            node.left = insert(node.left, added);
+        } else {
+            node.right = insert(node.right, added);
+        }
+        return node.update();
+    }
+
+    /**
+     * Splits the given subtree into the nodes before the key, which become the left child of the target, and the
+     * nodes after it, which become its right child.
+     */
+    private static void split(final Node node, final Ranked key, final Node target) {
+        if (node == null) {
+            target.left = null;
+            target.right = null;
+            return;
+        }
+        final Node parts = new Node(null);
+        if (ORDER.compare(node.ranked, key) < 0) {
+            split(node.right, key, parts);
+            node.right = parts.left;
+            target.left = node.update();
+            target.right = parts.right;
+        } else {
+            split(node.left, key, parts);
+            node.left = parts.right;
+            target.left = parts.left;
+            target.right = node.update();
+        }
+    }
+
+    private static Node remove(final Node node, final Ranked removed) {
+        if (node == null) {
+            return null;
+        }
+        final int compare = ORDER.compare(removed, node.ranked);
+        if (compare == 0) {
+            return merge(node.left, node.right);
+        }
+        if (compare < 0) {
+            node.left = remove(node.left, removed);
+        } else {
+            node.right = remove(node.right, removed);
+        }
+        return node.update();
+    }
+
+    private static Node merge(final Node left, final Node right) {
+        if (left == null) {
+            return right;
+        }
+        if (right == null) {
+            return left;
+        }
+        if (left.priority > right.priority) {
+            left.right = merge(left.right, right);
+            return left.update();
+        }
+        right.left = merge(left, right.left);
+        return right.update();
+    }
+
+    private static int size(final Node node) {
+        return node == null ? 0 : node.size;
+    }
+
+    private static final class Node {
+        private final Ranked ranked;
+        private final int priority = ThreadLocalRandom.current().nextInt();
+        private Node left;
+        private Node right;
+        private int size = 1;
+
+        private Node(final Ranked ranked) {
+            this.ranked = ranked;
+        }
+
+        private Node update() {
+            size = size(left) + size(right) + 1;
+            return this;
+        }
+    }
+
+    public static final class Ranked {
+        private final UUID uuid;
+        private final String name;
+        private final BigDecimal balance;
+
+        private Ranked(final UUID uuid, final String name, final BigDecimal balance) {
+            this.uuid = uuid;
+            this.name = name;
+            this.balance = balance;
+        }
+
+        public UUID getUuid() {
+            return uuid;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public BigDecimal getBalance() {
+            return balance;
+        }
+    }
+}
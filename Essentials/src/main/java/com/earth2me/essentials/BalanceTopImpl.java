@@ -1,7 +1,9 @@
 package com.earth2me.essentials;
 
+import com.earth2me.essentials.economy.EconomyLayers;
 import net.ess3.api.IEssentials;
 import net.essentialsx.api.v2.services.BalanceTop;
+import org.bukkit.entity.Player;
 import org.bukkit.plugin.ServicePriority;
 
 import java.math.BigDecimal;
@@ -15,7 +17,7 @@ import java.util.concurrent.CompletableFuture;
 
 public class BalanceTopImpl implements BalanceTop {
     private final IEssentials ess;
-    private LinkedHashMap<UUID, BalanceTop.Entry> topCache = new LinkedHashMap<>();
+    private volatile LinkedHashMap<UUID, BalanceTop.Entry> topCache = new LinkedHashMap<>();
     private BigDecimal balanceTopTotal = BigDecimal.ZERO;
     private long cacheAge = 0;
     private CompletableFuture<Void> cacheLock;
@@ -26,6 +28,59 @@ public class BalanceTopImpl implements BalanceTop {
     }
 
     private void calculateBalanceTopMap() {
+        // Balances held by another economy plugin can change without Essentials noticing, so they are read from every user.
+        if (EconomyLayers.isLayerSelected()) {
+            calculateFromUsers();
+        } else {
+            calculateFromRanking();
+        }
+        cacheAge = System.currentTimeMillis();
+        cacheLock.complete(null);
+        cacheLock = null;
+    }
+
+    private void calculateFromRanking() {
+        final BalanceRanking ranking = ess.getUserMap().getBalanceRanking();
+        if (!ranking.isSeeded()) {
+            final boolean npcsRanked = ess.getSettings().isNpcsInBalanceRanking();
+            for (final UUID u : ess.getUserMap().getAllUniqueUsers()) {
+                final UserSummary summary = ess.getUserMap().getSummary(u);
+                if (summary != null) {
+                    ranking.seed(u, summary.getName(), summary.getMoney(), summary.isBaltopExempt() || (summary.isNPC() && !npcsRanked));
+                }
+            }
+            ranking.setSeeded();
+        }
+
+        // Exemptions are permission based, refresh them for the players which are online.
+        for (final User user : ess.getOnlineUsers()) {
+            user.isBaltopExempt();
+        }
+
+        // /balancetop reads its pages from the ranking, the full map is only built once a plugin asks for it
+        topCache = null;
+        balanceTopTotal = ranking.getTotal();
+    }
+
+    private LinkedHashMap<UUID, Entry> buildFromRanking() {
+        final BalanceRanking ranking = ess.getUserMap().getBalanceRanking();
+        final LinkedHashMap<UUID, Entry> sortedMap = new LinkedHashMap<>();
+        for (final BalanceRanking.Ranked ranked : ranking.getPage(0, ranking.size())) {
+            sortedMap.put(ranked.getUuid(), new BalanceTop.Entry(ranked.getUuid(), getDisplayName(ranked), ranked.getBalance()));
+        }
+        return sortedMap;
+    }
+
+    private String getDisplayName(final BalanceRanking.Ranked ranked) {
+        final Player player = ess.getServer().getPlayer(ranked.getUuid());
+        if (player != null) {
+            final User user = ess.getUser(player);
+            return user.isHidden() ? user.getName() : user.getDisplayName();
+        }
+        return ranked.getName();
+    }
+
+    private void calculateFromUsers() {
         final List<Entry> entries = new LinkedList<>();
         BigDecimal newTotal = BigDecimal.ZERO;
         for (UUID u : ess.getUserMap().getAllUniqueUsers()) {
@@ -58,9 +113,6 @@ public class BalanceTopImpl implements BalanceTop {
         }
         topCache = sortedMap;
         balanceTopTotal = newTotal;
-        cacheAge = System.currentTimeMillis();
-        cacheLock.complete(null);
-        cacheLock = null;
     }
 
     @Override
@@ -75,7 +127,12 @@ public class BalanceTopImpl implements BalanceTop {
 
     @Override
     public Map<UUID, Entry> getBalanceTopCache() {
-        return Collections.unmodifiableMap(topCache);
+        LinkedHashMap<UUID, Entry> cache = topCache;
+        if (cache == null) {
+            cache = buildFromRanking();
+            topCache = cache;
+        }
+        return Collections.unmodifiableMap(cache);
     }
 
     @Override
@@ -85,6 +142,10 @@ public class BalanceTopImpl implements BalanceTop {
 
     @Override
     public BigDecimal getBalanceTopTotal() {
+        final BalanceRanking ranking = ess.getUserMap().getBalanceRanking();
+        if (ranking.isSeeded() && !EconomyLayers.isLayerSelected()) {
+            return ranking.getTotal();
+        }
         return balanceTopTotal;
     }
 
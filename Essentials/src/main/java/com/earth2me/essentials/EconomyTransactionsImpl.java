@@ -0,0 +1,154 @@
+package com.earth2me.essentials;
+
+import com.earth2me.essentials.api.Economy;
+import com.earth2me.essentials.api.NoLoanPermittedException;
+import com.earth2me.essentials.api.UserDoesNotExistException;
+import net.ess3.api.IEssentials;
+import net.ess3.api.MaxMoneyException;
+import net.ess3.api.events.UserBalanceUpdateEvent;
+import net.essentialsx.api.v2.services.EconomyTransactions;
+import org.bukkit.plugin.ServicePriority;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.logging.Level;
+
+public class EconomyTransactionsImpl implements EconomyTransactions {
+    private final IEssentials ess;
+
+    public EconomyTransactionsImpl(final IEssentials ess) {
+        this.ess = ess;
+        ess.getServer().getServicesManager().register(EconomyTransactions.class, this, ess, ServicePriority.Normal);
+    }
+
+    @Override
+    public Batch newBatch() {
+        return new BatchImpl();
+    }
+
+    private final class BatchImpl implements Batch {
+        private final Map<UUID, BigDecimal> changes = new LinkedHashMap<>();
+        private boolean committed = false;
+
+        @Override
+        public synchronized Batch add(final UUID uuid, final BigDecimal amount) {
+            if (committed) {
+                throw new IllegalStateException("Batch has already been committed");
+            }
+            if (uuid == null || amount == null) {
+                throw new IllegalArgumentException("Economy uuid and amount cannot be null");
+            }
+            changes.merge(uuid, amount, (previous, added) -> previous.add(added, Economy.MATH_CONTEXT));
+            return this;
+        }
+
+        @Override
+        public Batch subtract(final UUID uuid, final BigDecimal amount) {
+            if (amount == null) {
+                throw new IllegalArgumentException("Economy uuid and amount cannot be null");
+            }
+            return add(uuid, amount.negate());
+        }
+
+        @Override
+        public synchronized Map<UUID, BigDecimal> commit() throws UserDoesNotExistException, NoLoanPermittedException, MaxMoneyException {
+            if (committed) {
+                throw new IllegalStateException("Batch has already been committed");
+            }
+            committed = true;
+
+            final Map<UUID, User> users = new LinkedHashMap<>();
+            for (final UUID uuid : changes.keySet()) {
+                final User user = ess.getUser(uuid);
+                if (user == null) {
+                    throw new UserDoesNotExistException(uuid);
+                }
+                users.put(uuid, user);
+            }
+
+            // Every new balance is checked before any event is fired, so a failing batch fires nothing
+            final Map<UUID, BigDecimal> previous = new LinkedHashMap<>();
+            final Map<UUID, BigDecimal> balances = new LinkedHashMap<>();
+            for (final Map.Entry<UUID, BigDecimal> change : changes.entrySet()) {
+                final User user = users.get(change.getKey());
+                final BigDecimal current = Economy.getMoneyExact(user);
+                final BigDecimal balance = current.add(change.getValue(), Economy.MATH_CONTEXT);
+                check(user, balance);
+                previous.put(change.getKey(), current);
+                balances.put(change.getKey(), balance);
+            }
+
+            // As in User#updateMoney, the events are fired once before the batch is applied and without holding the locks
+            final Map<UUID, UserBalanceUpdateEvent> events = new LinkedHashMap<>();
+            for (final Map.Entry<UUID, BigDecimal> balance : balances.entrySet()) {
+                final UserBalanceUpdateEvent updateEvent = new UserBalanceUpdateEvent(users.get(balance.getKey()).getBase(), previous.get(balance.getKey()), balance.getValue(),
+                    UserBalanceUpdateEvent.Cause.API);
+                ess.getServer().getPluginManager().callEvent(updateEvent);
+                events.put(balance.getKey(), updateEvent);
+            }
+
+            try (BalanceLocks.Hold ignored = ess.getUserMap().getBalanceLocks().lock(changes.keySet())) {
+                // A balance changed while the events were fired gets its change added to the current balance instead,
+                // unless a listener replaced it, and every new balance is checked again before any of them is applied
+                final Map<UUID, BigDecimal> current = new LinkedHashMap<>();
+                final Map<UUID, BigDecimal> results = new LinkedHashMap<>();
+                for (final Map.Entry<UUID, UserBalanceUpdateEvent> event : events.entrySet()) {
+                    final UUID uuid = event.getKey();
+                    final User user = users.get(uuid);
+                    final BigDecimal balance = Economy.getMoneyExact(user);
+                    BigDecimal result = event.getValue().getNewBalance();
+                    if (result.compareTo(balances.get(uuid)) == 0 && balance.compareTo(previous.get(uuid)) != 0) {
+                        result = balance.add(changes.get(uuid), Economy.MATH_CONTEXT);
+                        check(user, result);
+                    } else if (result.compareTo(ess.getSettings().getMaxMoney()) > 0) {
+                        throw new MaxMoneyException();
+                    }
+                    current.put(uuid, balance);
+                    results.put(uuid, result);
+                }
+
+                final List<UUID> applied = new ArrayList<>();
+                try {
+                    for (final Map.Entry<UUID, BigDecimal> result : results.entrySet()) {
+                        users.get(result.getKey()).applyMoney(result.getValue(), true);
+                        applied.add(result.getKey());
+                    }
+                } catch (final MaxMoneyException e) {
+                    // A reload lowering max-money may still push a balance over it, so undo the changes already made
+                    for (final UUID uuid : applied) {
+                        try {
+                            users.get(uuid).applyMoney(current.get(uuid), false);
+                        } catch (final MaxMoneyException ex) {
+                            ess.getLogger().log(Level.WARNING, "Failed to roll back the balance of " + uuid + " after a failed batch", ex);
+                        }
+                    }
+                    throw e;
+                }
+
+                for (final Map.Entry<UUID, BigDecimal> result : results.entrySet()) {
+                    final User user = users.get(result.getKey());
+                    final BigDecimal change = changes.get(result.getKey());
+                    user.recordBalanceUpdate(current.get(result.getKey()), result.getValue(), UserBalanceUpdateEvent.Cause.API);
+                    Trade.log("API", change.signum() < 0 ? "Subtract" : "Add", "API", user.getName(), new Trade(change.abs(), ess), null, null, null, result.getValue(), ess);
+                }
+                return results;
+            }
+        }
+
+        private void check(final User user, final BigDecimal balance) throws NoLoanPermittedException, MaxMoneyException {
+            if (balance.compareTo(ess.getSettings().getMinMoney()) < 0) {
+                throw new NoLoanPermittedException();
+            }
+            if (balance.signum() < 0 && !user.isAuthorized("essentials.eco.loan")) {
+                throw new NoLoanPermittedException();
+            }
+            if (balance.compareTo(ess.getSettings().getMaxMoney()) > 0) {
+                throw new MaxMoneyException();
+            }
+        }
+    }
+}
@@ -23,7 +23,10 @@ import com.earth2me.essentials.commands.NoChargeException;
 import com.earth2me.essentials.commands.NotEnoughArgumentsException;
 import com.earth2me.essentials.commands.PlayerNotFoundException;
 import com.earth2me.essentials.commands.QuietAbortException;
+import com.earth2me.essentials.config.EssentialsConfiguration;
+import com.earth2me.essentials.economy.EconomyJobScheduler;
 import com.earth2me.essentials.economy.EconomyLayers;
+import com.earth2me.essentials.economy.TransactionHistory;
 import com.earth2me.essentials.economy.vault.VaultEconomyProvider;
 import com.earth2me.essentials.items.AbstractItemDb;
 import com.earth2me.essentials.items.CustomItemResolver;
@@ -35,8 +38,8 @@ import com.earth2me.essentials.perm.PermissionsHandler;
 import com.earth2me.essentials.signs.SignBlockListener;
 import com.earth2me.essentials.signs.SignEntityListener;
 import com.earth2me.essentials.signs.SignPlayerListener;
+import com.earth2me.essentials.textreader.BroadcastText;
 import com.earth2me.essentials.textreader.IText;
-import com.earth2me.essentials.textreader.KeywordReplacer;
 import com.earth2me.essentials.textreader.SimpleTextInput;
 import com.earth2me.essentials.updatecheck.UpdateChecker;
 import com.earth2me.essentials.utils.FormatUtil;
@@ -82,6 +85,7 @@ import net.ess3.provider.providers.PaperRecipeBookListener;
 import net.ess3.provider.providers.PaperSerializationProvider;
 import net.ess3.provider.providers.PaperServerStateProvider;
 import net.essentialsx.api.v2.services.BalanceTop;
+import net.essentialsx.api.v2.services.EconomyTransactions;
 import net.essentialsx.api.v2.services.mail.MailService;
 import org.bukkit.Bukkit;
 import org.bukkit.Server;
@@ -134,6 +138,8 @@ import static com.earth2me.essentials.I18n.tl;
 public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
     private static final Logger LOGGER = Logger.getLogger("Essentials");
     private final transient TNTExplodeListener tntListener = new TNTExplodeListener(this);
+    private final transient PlayerGrid playerGrid = new PlayerGrid();
+    private final transient SpyRegistry spyRegistry = new SpyRegistry(this);
     private final transient Set<String> vanishedPlayers = new LinkedHashSet<>();
     private transient ISettings settings;
     private transient Jails jails;
@@ -147,6 +153,9 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
     private transient AlternativeCommandsHandler alternativeCommandsHandler;
     private transient UserMap userMap;
     private transient BalanceTopImpl balanceTop;
+    private transient EconomyTransactionsImpl economyTransactions;
+    private transient TransactionHistory transactionHistory;
+    private transient EconomyJobScheduler economyJobScheduler;
     private transient ExecuteTimer execTimer;
     private transient MailService mail;
     private transient I18n i18n;
@@ -209,6 +218,7 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
         mail = new MailServiceImpl(this);
         userMap = new UserMap(this);
         balanceTop = new BalanceTopImpl(this);
+        economyTransactions = new EconomyTransactionsImpl(this);
         permissionsHandler = new PermissionsHandler(this, false);
         Economy.setEss(this);
         confList = new ArrayList<>();
@@ -271,6 +281,9 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
                 }
             }
 
+            // Scheduled saves copy the data on the main thread, which owns it
+            EssentialsConfiguration.getSaveQueue().setSnapshotExecutor(this::scheduleSyncDelayedTask);
+
             final EssentialsUpgrade upgrade = new EssentialsUpgrade(this);
             upgrade.beforeSettings();
             execTimer.mark("Upgrade");
@@ -290,6 +303,18 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
             balanceTop = new BalanceTopImpl(this);
             execTimer.mark("Init(BalanceTop)");
 
+            economyTransactions = new EconomyTransactionsImpl(this);
+            execTimer.mark("Init(EconomyTransactions)");
+
+            if (settings.isTransactionHistoryEnabled()) {
+                try {
+                    transactionHistory = new TransactionHistory(new File(getDataFolder(), "history"));
+                } catch (final IOException e) {
+                    LOGGER.log(Level.SEVERE, "Failed to open the transaction history, transactions will not be recorded", e);
+                }
+                execTimer.mark("Init(TransactionHistory)");
+            }
+
             kits = new Kits(this);
             confList.add(kits);
             upgrade.convertKits();
@@ -491,8 +516,17 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
         final EssentialsServerListener serverListener = new EssentialsServerListener(this);
         pm.registerEvents(serverListener, this);
 
+        final EssentialsEconomyListener economyListener = new EssentialsEconomyListener(this);
+        pm.registerEvents(economyListener, this);
+
         pm.registerEvents(tntListener, this);
 
+        playerGrid.reset(getOnlinePlayers());
+        pm.registerEvents(playerGrid, this);
+
+        spyRegistry.reset(getOnlinePlayers());
+        pm.registerEvents(spyRegistry, this);
+
         if (recipeBookEventProvider != null) {
             pm.registerEvents(recipeBookEventProvider, this);
         }
@@ -507,6 +541,10 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
             LOGGER.log(Level.SEVERE, tl("serverReloading"));
         }
         getBackup().setPendingShutdown(true);
+        if (economyJobScheduler != null) {
+            economyJobScheduler.stop();
+            economyJobScheduler = null;
+        }
         for (final User user : getOnlineUsers()) {
             if (user.isVanished()) {
                 user.setVanished(false);
@@ -517,10 +555,9 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
                 if (!user.isHidden()) {
                     user.setLastLogout(System.currentTimeMillis());
                 }
-                user.cleanup();
-            } else {
-                user.stopTransaction();
             }
+            // Written concurrently when the save queue is drained below
+            user.stopTransaction();
         }
         cleanupOpenInventories();
         if (getBackup().getTaskLock() != null && !getBackup().getTaskLock().isDone()) {
@@ -538,7 +575,14 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
 
         Economy.setEss(null);
         Trade.closeLog();
+        if (transactionHistory != null) {
+            transactionHistory.close();
+            transactionHistory = null;
+        }
         getUserMap().getUUIDMap().shutdown();
+        EssentialsConfiguration.getSaveQueue().shutdown();
+        getUserMap().saveFieldIndex();
+        getUserMap().getStorage().close();
 
         HandlerList.unregisterAll(this);
     }
@@ -552,6 +596,18 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
             execTimer.mark("Reload(" + iConf.getClass().getSimpleName() + ")");
         }
 
+        // Started or stopped here rather than on enable, so adding or removing every economy job applies on reload
+        if (!settings.getEconomyJobs().isEmpty()) {
+            if (economyJobScheduler == null) {
+                economyJobScheduler = new EconomyJobScheduler(this);
+                economyJobScheduler.start();
+            }
+        } else if (economyJobScheduler != null) {
+            economyJobScheduler.stop();
+            economyJobScheduler = null;
+        }
+        execTimer.mark("Reload(EconomyJobs)");
+
         i18n.updateLocale(settings.getLocale());
         for (final String commandName : this.getDescription().getCommands().keySet()) {
             final Command command = this.getCommand(commandName);
@@ -1076,27 +1132,43 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
             return 0;
         }
 
-        IText broadcast = new SimpleTextInput(message);
+        final IText input = new SimpleTextInput(message);
+        final BroadcastText broadcast = keywords ? new BroadcastText(input, this, false) : null;
 
         final Collection<Player> players = getOnlinePlayers();
+        final List<User> recipients = new ArrayList<>(players.size());
         for (final Player player : players) {
             final User user = getUser(player);
             if ((permission == null && (sender == null || !user.isIgnoredPlayer(sender))) || (permission != null && user.isAuthorized(permission))) {
                 if (shouldExclude.test(user)) {
                     continue;
                 }
-                if (keywords) {
-                    broadcast = new KeywordReplacer(broadcast, new CommandSource(player), this, false);
-                }
-                for (final String messageText : broadcast.getLines()) {
-                    user.sendMessage(messageText);
-                }
+                recipients.add(user);
             }
         }
+        sendBroadcast(recipients, 0, input, broadcast);
 
         return players.size();
     }
 
+    // Large broadcasts are sent in batches over several ticks, see broadcast-batch-size
+    private void sendBroadcast(final List<User> recipients, final int start, final IText input, final BroadcastText broadcast) {
+        final int batchSize = settings.getBroadcastBatchSize();
+        final int end = batchSize > 0 ? Math.min(start + batchSize, recipients.size()) : recipients.size();
+        for (int i = start; i < end; i++) {
+            final User user = recipients.get(i);
+            if (start > 0 && !user.getBase().isOnline()) {
+                continue;
+            }
+            for (final String messageText : broadcast == null ? input.getLines() : broadcast.getLines(user)) {
+                user.sendMessage(messageText);
+            }
+        }
+        if (end < recipients.size()) {
+            scheduleSyncDelayedTask(() -> sendBroadcast(recipients, end, input, broadcast), 1);
+        }
+    }
+
     @Override
     public BukkitTask runTaskAsynchronously(final Runnable run) {
         return this.getScheduler().runTaskAsynchronously(this, run);
@@ -1152,11 +1224,31 @@ public class Essentials extends JavaPlugin implements net.ess3.api.IEssentials {
         return userMap;
     }
 
+    @Override
+    public PlayerGrid getPlayerGrid() {
+        return playerGrid;
+    }
+
+    @Override
+    public SpyRegistry getSpyRegistry() {
+        return spyRegistry;
+    }
+
     @Override
     public BalanceTop getBalanceTop() {
         return balanceTop;
     }
 
+    @Override
+    public EconomyTransactions getEconomyTransactions() {
+        return economyTransactions;
+    }
+
+    @Override
+    public TransactionHistory getTransactionHistory() {
+        return transactionHistory;
+    }
+
     @Override
     public I18n getI18n() {
         return i18n;
@@ -0,0 +1,37 @@
+package com.earth2me.essentials;
+
+import com.earth2me.essentials.economy.TransactionHistory;
+import net.ess3.api.IEssentials;
+import net.ess3.api.IUser;
+import net.essentialsx.api.v2.events.TransactionEvent;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+
+import java.util.UUID;
+
+public class EssentialsEconomyListener implements Listener {
+    private final transient IEssentials ess;
+
+    public EssentialsEconomyListener(final IEssentials ess) {
+        this.ess = ess;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onTransaction(final TransactionEvent event) {
+        final TransactionHistory history = ess.getTransactionHistory();
+        if (history == null) {
+            return;
+        }
+        final long time = System.currentTimeMillis();
+        final Player requester = event.getRequester().getPlayer();
+        final UUID sender = requester == null ? null : requester.getUniqueId();
+        final IUser target = event.getTarget();
+        final UUID receiver = target.getBase().getUniqueId();
+        if (sender != null) {
+            history.record(new TransactionHistory.Record(time, sender, TransactionHistory.Type.SENT, receiver, target.getName(), event.getAmount(), null));
+        }
+        history.record(new TransactionHistory.Record(time, receiver, TransactionHistory.Type.RECEIVED, sender, event.getRequester().getSender().getName(), event.getAmount(), null));
+    }
+}
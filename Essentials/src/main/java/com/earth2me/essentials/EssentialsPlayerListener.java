@@ -34,6 +34,7 @@ import org.bukkit.event.inventory.InventoryClickEvent;
 import org.bukkit.event.inventory.InventoryCloseEvent;
 import org.bukkit.event.inventory.InventoryType;
 import org.bukkit.event.player.AsyncPlayerChatEvent;
+import org.bukkit.event.player.AsyncPlayerPreLoginEvent;
 import org.bukkit.event.player.PlayerBucketEmptyEvent;
 import org.bukkit.event.player.PlayerChangedWorldEvent;
 import org.bukkit.event.player.PlayerCommandPreprocessEvent;
@@ -260,11 +261,13 @@ public class EssentialsPlayerListener implements Listener {
         user.stopTransaction();
 
         user.dispose();
+        ess.getUserMap().unpinUser(user.getBase().getUniqueId());
     }
 
     @EventHandler(priority = EventPriority.HIGHEST)
     public void onPlayerJoin(final PlayerJoinEvent event) {
         final String joinMessage = event.getJoinMessage();
+        ess.getUserMap().pinUser(ess.getUser(event.getPlayer()));
         ess.runTaskAsynchronously(() -> delayedJoin(event.getPlayer(), joinMessage));
 
         if (hideJoinQuitMessages() || ess.getSettings().allowSilentJoinQuit() || ess.getSettings().isCustomJoinMessage()) {
@@ -472,6 +475,13 @@ public class EssentialsPlayerListener implements Listener {
         user.getBase().setCompassTarget(loc);
     }
 
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onAsyncPlayerPreLogin(final AsyncPlayerPreLoginEvent event) {
+        if (ess.getSettings().isUserWarmupEnabled() && event.getLoginResult() == AsyncPlayerPreLoginEvent.Result.ALLOWED) {
+            ess.getUserMap().warmUser(event.getUniqueId(), ess.getSettings().getUserWarmupTimeout(), ess.getSettings().getUserWarmupWarnThreshold());
+        }
+    }
+
     @EventHandler(priority = EventPriority.LOW)
     public void onPlayerLoginBanned(final PlayerLoginEvent event) {
         if (event.getResult() == Result.KICK_BANNED) {
@@ -579,8 +589,8 @@ public class EssentialsPlayerListener implements Listener {
                 || (!pluginCommand.getName().equals("msg") && !pluginCommand.getName().equals("r"))) { // /msg and /r are handled in SimpleMessageRecipient
                 final User user = ess.getUser(player);
                 if (!user.isAuthorized("essentials.chat.spy.exempt")) {
-                    for (final User spyer : ess.getOnlineUsers()) {
-                        if (spyer.isSocialSpyEnabled() && !player.equals(spyer.getBase())) {
+                    for (final User spyer : ess.getSpyRegistry().getSocialSpies()) {
+                        if (!player.equals(spyer.getBase())) {
                             if (user.isMuted() && ess.getSettings().getSocialSpyListenMutedPlayers()) {
                                 spyer.sendMessage(tl("socialSpyMutedPrefix") + player.getDisplayName() + ": " + event.getMessage());
                             } else {
@@ -62,6 +62,7 @@ public class EssentialsTimer implements Runnable {
                 onlineUsers.add(user.getBase().getUniqueId());
                 user.setLastOnlineActivity(currentTime);
                 user.checkActivity();
+                ess.getSpyRegistry().update(user);
             } catch (final Exception e) {
                 ess.getLogger().log(Level.WARNING, "EssentialsTimer Error:", e);
             }
@@ -88,7 +88,6 @@ public class EssentialsUpgrade {
             final int showProgress = countFiles % 250;
 
             if (showProgress == 0) {
-                ess.getUserMap().getUUIDMap().forceWriteUUIDMap();
                 ess.getLogger().info("Converted " + countFiles + "/" + userdir.list().length);
             }
 
@@ -834,7 +833,10 @@ public class EssentialsUpgrade {
             }
         }
 
-        ess.getUserMap().getNames().putAll(names);
+        final UserIndex index = ess.getUserMap().getIndex();
+        for (final Map.Entry<String, UUID> entry : names.entrySet()) {
+            index.putName(entry.getKey(), entry.getValue());
+        }
         ess.getUserMap().reloadConfig();
 
         doneFile.setProperty("userMapRepaired", true);
@@ -5,6 +5,7 @@ import com.earth2me.essentials.api.IJails;
 import com.earth2me.essentials.api.IWarps;
 import com.earth2me.essentials.commands.IEssentialsCommand;
 import com.earth2me.essentials.commands.PlayerNotFoundException;
+import com.earth2me.essentials.economy.TransactionHistory;
 import com.earth2me.essentials.perm.PermissionsHandler;
 import com.earth2me.essentials.updatecheck.UpdateChecker;
 import net.ess3.provider.ContainerProvider;
@@ -18,6 +19,7 @@ import net.ess3.provider.SpawnerBlockProvider;
 import net.ess3.provider.SpawnerItemProvider;
 import net.ess3.provider.SyncCommandsProvider;
 import net.essentialsx.api.v2.services.BalanceTop;
+import net.essentialsx.api.v2.services.EconomyTransactions;
 import net.essentialsx.api.v2.services.mail.MailService;
 import org.bukkit.Server;
 import org.bukkit.World;
@@ -117,8 +119,19 @@ public interface IEssentials extends Plugin {
 
     UserMap getUserMap();
 
+    PlayerGrid getPlayerGrid();
+
+    SpyRegistry getSpyRegistry();
+
     BalanceTop getBalanceTop();
 
+    EconomyTransactions getEconomyTransactions();
+
+    /**
+     * @return the economy transaction history, or null if it is disabled.
+     */
+    TransactionHistory getTransactionHistory();
+
     EssentialsTimer getTimer();
 
     MailService getMail();
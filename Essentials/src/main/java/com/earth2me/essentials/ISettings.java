@@ -1,6 +1,8 @@
 package com.earth2me.essentials;
 
 import com.earth2me.essentials.commands.IEssentialsCommand;
+import com.earth2me.essentials.economy.EconomyJob;
+import com.earth2me.essentials.economy.FixedPointMoney;
 import com.earth2me.essentials.signs.EssentialsSign;
 import com.earth2me.essentials.textreader.IText;
 import org.bukkit.Material;
@@ -35,6 +37,14 @@ public interface ISettings extends IConf {
 
     String getWorldAlias(String world);
 
+    int getCurrencyCount();
+
+    String getCurrencyName(int currency);
+
+    int getCurrencyId(String name);
+
+    int getWorldCurrency(String world);
+
     int getChatRadius();
 
     int getNearRadius();
@@ -155,10 +165,24 @@ public interface ISettings extends IConf {
 
     BigDecimal getMinMoney();
 
+    FixedPointMoney getFixedPointMoney();
+
+    List<EconomyJob> getEconomyJobs();
+
     boolean isEcoLogEnabled();
 
     boolean isEcoLogUpdateEnabled();
 
+    boolean isTransactionHistoryEnabled();
+
+    String getEcoLogFormat();
+
+    long getEcoLogMaxSize();
+
+    long getEcoLogRotateInterval();
+
+    boolean isEcoLogCompressed();
+
     boolean realNamesOnList();
 
     boolean removeGodOnDisconnect();
@@ -265,6 +289,8 @@ public interface ISettings extends IConf {
 
     int getMaxUserCacheCount();
 
+    long getMaxUserCacheWeight();
+
     boolean allowSilentJoinQuit();
 
     boolean isCustomJoinMessage();
@@ -359,6 +385,8 @@ public interface ISettings extends IConf {
 
     boolean isAllowWorldInBroadcastworld();
 
+    int getBroadcastBatchSize();
+
     String getItemDbType();
 
     boolean allowOldIdSigns();
@@ -367,6 +395,16 @@ public interface ISettings extends IConf {
 
     boolean isSafeUsermap();
 
+    String getUserStorageType();
+
+    boolean isUserIndexMapped();
+
+    boolean isUserWarmupEnabled();
+
+    long getUserWarmupTimeout();
+
+    long getUserWarmupWarnThreshold();
+
     boolean logCommandBlockCommands();
 
     Set<Predicate<String>> getNickBlacklist();
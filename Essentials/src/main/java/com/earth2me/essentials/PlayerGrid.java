@@ -0,0 +1,292 @@
+package com.earth2me.essentials;
+
+import org.bukkit.Location;
+import org.bukkit.entity.Entity;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerMoveEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.event.player.PlayerRespawnEvent;
+import org.bukkit.event.player.PlayerTeleportEvent;
+import org.bukkit.event.vehicle.VehicleMoveEvent;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * A grid of the online players in each world, so features like local chat and /near only look at the players
+ * close to a location instead of every player on the server.
+ * <p>
+ * Players are sorted into cells of 16 by 16 blocks, ignoring height. The grid is kept up to date from player
+ * events on the main thread, and can be queried from any thread.
+ */
+public class PlayerGrid implements Listener {
+    private static final int CELL_SHIFT = 4;
+    private final Map<UUID, Position> positions = new ConcurrentHashMap<>();
+    private final Map<UUID, WorldGrid> worlds = new ConcurrentHashMap<>();
+
+    /**
+     * Clears the grid and adds the given players at their current location.
+     */
+    public void reset(final Collection<? extends Player> players) {
+        positions.clear();
+        worlds.clear();
+        for (final Player player : players) {
+            update(player, player.getLocation());
+        }
+    }
+
+    /**
+     * Returns the players within the given radius of a location, including players exactly at the radius, in no
+     * particular order.
+     */
+    public List<Player> getPlayersInRadius(final Location center, final double radius) {
+        final List<Found> found = find(center, radius, true);
+        final List<Player> players = new ArrayList<>(found.size());
+        for (final Found candidate : found) {
+            players.add(candidate.player);
+        }
+        return players;
+    }
+
+    /**
+     * Returns the players closer to a location than the given radius, nearest first. Only the nearest players
+     * accepted by the filter are kept while searching, so a small limit only orders that many players.
+     *
+     * @param limit  the maximum amount of players to return
+     * @param filter the players to consider
+     */
+    public List<Player> getNearestPlayers(final Location center, final double radius, final int limit, final Predicate<Player> filter) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        final Comparator<Found> nearest = Comparator.comparingDouble(candidate -> candidate.distanceSquared);
+        // The farthest of the nearest players found so far is on top, so it is the one replaced by a nearer player
+        final PriorityQueue<Found> heap = new PriorityQueue<>(nearest.reversed());
+        for (final Found candidate : find(center, radius, false)) {
+            if (!filter.test(candidate.player)) {
+                continue;
+            }
+            if (heap.size() < limit) {
+                heap.add(candidate);
+            } else if (nearest.compare(candidate, heap.peek()) < 0) {
+                heap.poll();
+                heap.add(candidate);
+            }
+        }
+        final Player[] players = new Player[heap.size()];
+        for (int i = players.length - 1; i >= 0; i--) {
+            players[i] = heap.poll().player;
+        }
+        return Arrays.asList(players);
+    }
+
+    private List<Found> find(final Location center, final double radius, final boolean inclusive) {
+        if (center.getWorld() == null) {
+            return new ArrayList<>();
+        }
+        final UUID world = center.getWorld().getUID();
+        final WorldGrid grid = worlds.get(world);
+        if (grid == null) {
+            return new ArrayList<>();
+        }
+        final double radiusSquared = radius * radius;
+        final List<Found> found = new ArrayList<>();
+
+        final int minX = (int) Math.floor(center.getX() - radius) >> CELL_SHIFT;
+        final int maxX = (int) Math.floor(center.getX() + radius) >> CELL_SHIFT;
+        final int minZ = (int) Math.floor(center.getZ() - radius) >> CELL_SHIFT;
+        final int maxZ = (int) Math.floor(center.getZ() + radius) >> CELL_SHIFT;
+        final long cells = (long) (maxX - minX + 1) * (maxZ - minZ + 1);
+        // For a radius covering more cells than there are players in the world, checking every player is cheaper
+        final Collection<Set<UUID>> candidates;
+        if (cells > grid.players.size()) {
+            candidates = Collections.singleton(grid.players);
+        } else {
+            candidates = new ArrayList<>();
+            for (int x = minX; x <= maxX; x++) {
+                for (int z = minZ; z <= maxZ; z++) {
+                    final Set<UUID> cell = grid.cells.get(cellKey(x, z));
+                    if (cell != null) {
+                        candidates.add(cell);
+                    }
+                }
+            }
+        }
+
+        for (final Set<UUID> cell : candidates) {
+            for (final UUID uuid : cell) {
+                final Position position = positions.get(uuid);
+                // The player may have moved to another world since the cell was read
+                if (position == null || !position.world.equals(world)) {
+                    continue;
+                }
+                final double distanceSquared = position.distanceSquared(center);
+                if (inclusive ? distanceSquared <= radiusSquared : distanceSquared < radiusSquared) {
+                    found.add(new Found(position.player, distanceSquared));
+                }
+            }
+        }
+        return found;
+    }
+
+    private void update(final Player player, final Location location) {
+        if (location == null || location.getWorld() == null) {
+            return;
+        }
+        final UUID uuid = player.getUniqueId();
+        final Position current = positions.get(uuid);
+        // Most moves stay inside the same cell, which only changes the coordinates of the stored position
+        if (current != null && current.player == player && current.isInCell(location)) {
+            current.moveTo(location);
+            return;
+        }
+        final Position position = new Position(player, location);
+        final Position previous = positions.put(uuid, position);
+        if (previous != null) {
+            if (previous.world.equals(position.world) && previous.cell == position.cell) {
+                return;
+            }
+            removeFromGrid(uuid, previous, !previous.world.equals(position.world));
+        }
+        final WorldGrid grid = worlds.computeIfAbsent(position.world, k -> new WorldGrid());
+        grid.cells.computeIfAbsent(position.cell, k -> ConcurrentHashMap.newKeySet()).add(uuid);
+        grid.players.add(uuid);
+    }
+
+    private void remove(final Player player) {
+        final Position previous = positions.remove(player.getUniqueId());
+        if (previous != null) {
+            removeFromGrid(player.getUniqueId(), previous, true);
+        }
+    }
+
+    private void removeFromGrid(final UUID uuid, final Position position, final boolean leftWorld) {
+        final WorldGrid grid = worlds.get(position.world);
+        if (grid == null) {
+            return;
+        }
+        final Set<UUID> cell = grid.cells.get(position.cell);
+        if (cell != null) {
+            cell.remove(uuid);
+            if (cell.isEmpty()) {
+                grid.cells.remove(position.cell, cell);
+            }
+        }
+        if (leftWorld) {
+            grid.players.remove(uuid);
+        }
+    }
+
+    private static long cellKey(final int x, final int z) {
+        return ((long) x << 32) | (z & 0xFFFFFFFFL);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(final PlayerJoinEvent event) {
+        update(event.getPlayer(), event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(final PlayerQuitEvent event) {
+        remove(event.getPlayer());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerMove(final PlayerMoveEvent event) {
+        final Location from = event.getFrom();
+        final Location to = event.getTo();
+        if (to != null && (from.getX() != to.getX() || from.getY() != to.getY() || from.getZ() != to.getZ())) {
+            update(event.getPlayer(), to);
+        }
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR, ignoreCancelled = true)
+    public void onPlayerTeleport(final PlayerTeleportEvent event) {
+        update(event.getPlayer(), event.getTo());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(final PlayerChangedWorldEvent event) {
+        update(event.getPlayer(), event.getPlayer().getLocation());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerRespawn(final PlayerRespawnEvent event) {
+        update(event.getPlayer(), event.getRespawnLocation());
+    }
+
+    // Players riding a vehicle do not fire move events. getPassengers() does not exist on 1.8.
+    @SuppressWarnings("deprecation")
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onVehicleMove(final VehicleMoveEvent event) {
+        final Entity passenger = event.getVehicle().getPassenger();
+        if (passenger instanceof Player) {
+            update((Player) passenger, event.getTo());
+        }
+    }
+
+    private static final class WorldGrid {
+        private final Map<Long, Set<UUID>> cells = new ConcurrentHashMap<>();
+        private final Set<UUID> players = ConcurrentHashMap.newKeySet();
+    }
+
+    // The distance is taken once, as the position of a player may change while the results are sorted
+    private static final class Found {
+        private final Player player;
+        private final double distanceSquared;
+
+        private Found(final Player player, final double distanceSquared) {
+            this.player = player;
+            this.distanceSquared = distanceSquared;
+        }
+    }
+
+    private static final class Position {
+        private final Player player;
+        private final UUID world;
+        private final long cell;
+        // Updated in place while the player stays in the cell; a reader may see a mix of two consecutive moves
+        private volatile double x;
+        private volatile double y;
+        private volatile double z;
+
+        private Position(final Player player, final Location location) {
+            this.player = player;
+            this.world = location.getWorld().getUID();
+            this.cell = cellKey(location.getBlockX() >> CELL_SHIFT, location.getBlockZ() >> CELL_SHIFT);
+            moveTo(location);
+        }
+
+        private boolean isInCell(final Location location) {
+            return cell == cellKey(location.getBlockX() >> CELL_SHIFT, location.getBlockZ() >> CELL_SHIFT) && world.equals(location.getWorld().getUID());
+        }
+
+        private void moveTo(final Location location) {
+            this.x = location.getX();
+            this.y = location.getY();
+            this.z = location.getZ();
+        }
+
+        private double distanceSquared(final Location location) {
+            final double dx = x - location.getX();
+            final double dy = y - location.getY();
+            final double dz = z - location.getZ();
+            return dx * dx + dy * dy + dz * dz;
+        }
+    }
+}
@@ -4,6 +4,8 @@ import com.earth2me.essentials.api.IItemDb;
 import com.earth2me.essentials.commands.IEssentialsCommand;
 import com.earth2me.essentials.config.ConfigurateUtil;
 import com.earth2me.essentials.config.EssentialsConfiguration;
+import com.earth2me.essentials.economy.EconomyJob;
+import com.earth2me.essentials.economy.FixedPointMoney;
 import com.earth2me.essentials.signs.EssentialsSign;
 import com.earth2me.essentials.signs.Signs;
 import com.earth2me.essentials.textreader.IText;
@@ -37,6 +39,7 @@ import java.util.Locale;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Predicate;
 import java.util.logging.Level;
@@ -80,6 +83,7 @@ public class Settings implements net.ess3.api.ISettings {
     private boolean economyDisabled = false;
     private BigDecimal maxMoney = DEFAULT_MAX_MONEY;
     private BigDecimal minMoney = DEFAULT_MIN_MONEY;
+    private FixedPointMoney fixedPointMoney;
     private boolean economyLog = false;
     // #easteregg
     private boolean economyLogUpdate = false;
@@ -129,6 +133,7 @@ public class Settings implements net.ess3.api.ISettings {
     private TeleportWhenFreePolicy teleportWhenFreePolicy;
     private boolean isCompassTowardsHomePerm;
     private boolean isAllowWorldInBroadcastworld;
+    private int broadcastBatchSize;
     private String itemDbType; // #EasterEgg - admins can manually switch items provider if they want
     private boolean allowOldIdSigns;
     private boolean isWaterSafe;
@@ -138,6 +143,9 @@ public class Settings implements net.ess3.api.ISettings {
     private double maxProjectileSpeed;
     private boolean removeEffectsOnHeal;
     private Map<String, String> worldAliases;
+    private List<String> currencies;
+    private Map<String, Integer> worldCurrencies;
+    private List<EconomyJob> economyJobs;
 
     public Settings(final IEssentials ess) {
         this.ess = ess;
@@ -586,6 +594,49 @@ public class Settings implements net.ess3.api.ISettings {
         return map;
     }
 
+    @Override
+    public int getCurrencyCount() {
+        return currencies.size();
+    }
+
+    @Override
+    public String getCurrencyName(final int currency) {
+        return currency < 1 || currency > currencies.size() ? null : currencies.get(currency - 1);
+    }
+
+    @Override
+    public int getCurrencyId(final String name) {
+        return currencies.indexOf(name.toLowerCase(Locale.ENGLISH)) + 1;
+    }
+
+    @Override
+    public int getWorldCurrency(final String world) {
+        return worldCurrencies.getOrDefault(world, 0);
+    }
+
+    private List<String> _getCurrencies() {
+        final List<String> list = new ArrayList<>();
+        for (final String currency : ConfigurateUtil.getKeys(config.getSection("currencies"))) {
+            list.add(currency.toLowerCase(Locale.ENGLISH));
+        }
+        return list;
+    }
+
+    private Map<String, Integer> _getWorldCurrencies() {
+        final Map<String, Integer> map = new HashMap<>();
+        for (final Map.Entry<String, CommentedConfigurationNode> entry : ConfigurateUtil.getMap(config.getSection("currencies")).entrySet()) {
+            final int currency = getCurrencyId(entry.getKey());
+            for (final String world : config.getList("currencies." + entry.getKey() + ".worlds", String.class)) {
+                if (map.containsKey(world)) {
+                    logger.warning("World " + world + " is listed under more than one currency, using " + getCurrencyName(map.get(world)));
+                    continue;
+                }
+                map.put(world, currency);
+            }
+        }
+        return map;
+    }
+
     @Override
     public boolean getAnnounceNewPlayers() {
         return !config.getString("newbies.announce-format", "-").isEmpty();
@@ -721,6 +772,7 @@ public class Settings implements net.ess3.api.ISettings {
         mailsPerMinute = _getMailsPerMinute();
         maxMoney = _getMaxMoney();
         minMoney = _getMinMoney();
+        fixedPointMoney = _getFixedPointMoney();
         permissionsLagWarning = _getPermissionsLagWarning();
         economyLagWarning = _getEconomyLagWarning();
         economyLog = _isEcoLogEnabled();
@@ -743,6 +795,7 @@ public class Settings implements net.ess3.api.ISettings {
         teleportWhenFreePolicy = _getTeleportWhenFreePolicy();
         isCompassTowardsHomePerm = _isCompassTowardsHomePerm();
         isAllowWorldInBroadcastworld = _isAllowWorldInBroadcastworld();
+        broadcastBatchSize = _getBroadcastBatchSize();
         itemDbType = _getItemDbType();
         allowOldIdSigns = _allowOldIdSigns();
         isWaterSafe = _isWaterSafe();
@@ -755,6 +808,16 @@ public class Settings implements net.ess3.api.ISettings {
         bindingItemPolicy = _getBindingItemsPolicy();
         currencySymbol = _getCurrencySymbol();
         worldAliases = _getWorldAliases();
+        final List<String> loadedCurrencies = _getCurrencies();
+        if (currencies == null) {
+            currencies = loadedCurrencies;
+        } else if (!currencies.equals(loadedCurrencies)) {
+            // Loaded users keep their balances by currency id, so the ids can not change until a restart
+            logger.warning("The list of currencies has changed, restart the server to apply the change");
+        }
+        worldCurrencies = _getWorldCurrencies();
+        economyJobs = _getEconomyJobs();
+        EssentialsConfiguration.getSaveQueue().configure(_getSaveDelay(), _getSaveQueueLimit(), _getSaveThreads());
 
         reloadCount.incrementAndGet();
     }
@@ -967,6 +1030,55 @@ public class Settings implements net.ess3.api.ISettings {
         return minMoney;
     }
 
+    private FixedPointMoney _getFixedPointMoney() {
+        final int decimals = config.getInt("economy-fixed-point-decimals", -1);
+        if (decimals < 0) {
+            return null;
+        }
+        if (decimals > 18) {
+            logger.warning("economy-fixed-point-decimals can not be more than 18, fixed point balances are disabled");
+            return null;
+        }
+        final FixedPointMoney fixedPoint = new FixedPointMoney(decimals, minMoney, maxMoney);
+        if (fixedPoint.getMaxUnits() == Long.MAX_VALUE || fixedPoint.getMinUnits() == Long.MIN_VALUE) {
+            logger.warning("max-money and min-money do not fit in " + decimals + " fixed point decimals, fixed point balances are disabled");
+            return null;
+        }
+        return fixedPoint;
+    }
+
+    @Override
+    public FixedPointMoney getFixedPointMoney() {
+        return fixedPointMoney;
+    }
+
+    // Lets tests switch fixed point balances on and off as a reload would
+    void setFixedPointMoney(final FixedPointMoney fixedPointMoney) {
+        this.fixedPointMoney = fixedPointMoney;
+    }
+
+    private List<EconomyJob> _getEconomyJobs() {
+        final List<EconomyJob> jobs = new ArrayList<>();
+        for (final String name : ConfigurateUtil.getKeys(config.getSection("economy-jobs"))) {
+            final String path = "economy-jobs." + name;
+            final long interval = (long) (config.getDouble(path + ".interval", 0) * 60 * 60 * 1000);
+            final BigDecimal percentage = config.getBigDecimal(path + ".percentage", null);
+            final BigDecimal amount = config.getBigDecimal(path + ".amount", null);
+            if (interval <= 0 || (percentage == null && amount == null)) {
+                logger.warning("Economy job " + name + " needs an interval and a percentage or an amount, skipping it");
+                continue;
+            }
+            jobs.add(new EconomyJob(name.toLowerCase(Locale.ENGLISH), interval, percentage, amount,
+                config.getBigDecimal(path + ".min-balance", null), config.getBigDecimal(path + ".max-balance", null)));
+        }
+        return Collections.unmodifiableList(jobs);
+    }
+
+    @Override
+    public List<EconomyJob> getEconomyJobs() {
+        return economyJobs;
+    }
+
     @Override
     public boolean isEcoLogEnabled() {
         return economyLog;
@@ -990,6 +1102,35 @@ public class Settings implements net.ess3.api.ISettings {
         return config.getBoolean("economy-log-update-enabled", false);
     }
 
+    @Override
+    public boolean isTransactionHistoryEnabled() {
+        return config.getBoolean("economy-history-enabled", false);
+    }
+
+    @Override
+    public String getEcoLogFormat() {
+        final String format = config.getString("economy-log-format", TradeLogWriter.FORMAT_CSV).toLowerCase(Locale.ENGLISH);
+        if (!format.equals(TradeLogWriter.FORMAT_JSON) && !format.equals(TradeLogWriter.FORMAT_BINARY)) {
+            return TradeLogWriter.FORMAT_CSV;
+        }
+        return format;
+    }
+
+    @Override
+    public long getEcoLogMaxSize() {
+        return Math.max(0, config.getLong("economy-log-max-size", 0)) * 1024 * 1024;
+    }
+
+    @Override
+    public long getEcoLogRotateInterval() {
+        return TimeUnit.HOURS.toMillis(Math.max(0, config.getLong("economy-log-rotate-interval", 0)));
+    }
+
+    @Override
+    public boolean isEcoLogCompressed() {
+        return config.getBoolean("economy-log-compress", true);
+    }
+
     @Override
     public boolean removeGodOnDisconnect() {
         return config.getBoolean("remove-god-on-disconnect", false);
@@ -1434,6 +1575,11 @@ public class Settings implements net.ess3.api.ISettings {
         return config.getInt("max-user-cache-count", (int) count);
     }
 
+    @Override
+    public long getMaxUserCacheWeight() {
+        return config.getLong("max-user-cache-weight", getMaxUserCacheCount() * 10L);
+    }
+
     @Override
     public boolean isLastMessageReplyRecipient() {
         return config.getBoolean("last-message-reply-recipient", false);
@@ -1784,6 +1930,15 @@ public class Settings implements net.ess3.api.ISettings {
         return isAllowWorldInBroadcastworld;
     }
 
+    private int _getBroadcastBatchSize() {
+        return Math.max(0, config.getInt("broadcast-batch-size", 0));
+    }
+
+    @Override
+    public int getBroadcastBatchSize() {
+        return broadcastBatchSize;
+    }
+
     private String _getItemDbType() {
         return config.getString("item-db-type", "auto");
     }
@@ -1823,6 +1978,43 @@ public class Settings implements net.ess3.api.ISettings {
         return isSafeUsermap;
     }
 
+    private long _getSaveDelay() {
+        return config.getLong("save-delay", 1000);
+    }
+
+    private int _getSaveQueueLimit() {
+        return config.getInt("save-queue-limit", 10000);
+    }
+
+    private int _getSaveThreads() {
+        return config.getInt("save-threads", 2);
+    }
+
+    @Override
+    public String getUserStorageType() {
+        return config.getString("user-storage", "yaml").toLowerCase(Locale.ENGLISH);
+    }
+
+    @Override
+    public boolean isUserWarmupEnabled() {
+        return config.getBoolean("user-warmup", true);
+    }
+
+    @Override
+    public long getUserWarmupTimeout() {
+        return config.getLong("user-warmup-timeout", 5000);
+    }
+
+    @Override
+    public long getUserWarmupWarnThreshold() {
+        return config.getLong("user-warmup-warn-threshold", 2000);
+    }
+
+    @Override
+    public boolean isUserIndexMapped() {
+        return config.getBoolean("memory-mapped-usermap", false);
+    }
+
     private boolean _logCommandBlockCommands() {
         return config.getBoolean("log-command-block-commands", true);
     }
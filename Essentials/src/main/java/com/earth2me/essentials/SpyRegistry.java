@@ -0,0 +1,93 @@
+package com.earth2me.essentials;
+
+import net.ess3.api.IEssentials;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerJoinEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The online players with social spy enabled, and the online players allowed to spy on local chat.
+ * <p>
+ * Private messages, spied commands and local chat only notify these players instead of checking every online
+ * player. Players are updated when they join, quit, change world or toggle social spy. The local chat spy
+ * permission is checked again by the {@link EssentialsTimer}, so permission changes apply within a few seconds.
+ */
+public class SpyRegistry implements Listener {
+    private final transient IEssentials ess;
+    private final transient Map<UUID, User> socialSpies = new ConcurrentHashMap<>();
+    private final transient Map<UUID, User> localChatSpies = new ConcurrentHashMap<>();
+
+    public SpyRegistry(final IEssentials ess) {
+        this.ess = ess;
+    }
+
+    public Collection<User> getSocialSpies() {
+        return Collections.unmodifiableCollection(socialSpies.values());
+    }
+
+    public Collection<User> getLocalChatSpies() {
+        return Collections.unmodifiableCollection(localChatSpies.values());
+    }
+
+    /**
+     * Clears the registry and adds the given players back.
+     */
+    public void reset(final Collection<? extends Player> players) {
+        socialSpies.clear();
+        localChatSpies.clear();
+        for (final Player player : players) {
+            update(ess.getUser(player));
+        }
+    }
+
+    public void update(final User user) {
+        if (user == null) {
+            return;
+        }
+        final UUID uuid = user.getBase().getUniqueId();
+        if (!user.getBase().isOnline()) {
+            remove(uuid);
+            return;
+        }
+        if (user.isSocialSpyEnabled()) {
+            socialSpies.put(uuid, user);
+        } else {
+            socialSpies.remove(uuid);
+        }
+        if (user.isAuthorized("essentials.chat.spy")) {
+            localChatSpies.put(uuid, user);
+        } else {
+            localChatSpies.remove(uuid);
+        }
+    }
+
+    private void remove(final UUID uuid) {
+        socialSpies.remove(uuid);
+        localChatSpies.remove(uuid);
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerJoin(final PlayerJoinEvent event) {
+        update(ess.getUser(event.getPlayer()));
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(final PlayerQuitEvent event) {
+        remove(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(final PlayerChangedWorldEvent event) {
+        update(ess.getUser(event.getPlayer()));
+    }
+}
@@ -10,14 +10,11 @@ import org.bukkit.Location;
 import org.bukkit.entity.Item;
 import org.bukkit.inventory.ItemStack;
 
-import java.io.File;
-import java.io.FileWriter;
-import java.io.IOException;
 import java.math.BigDecimal;
-import java.text.DateFormat;
-import java.util.Date;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.StringJoiner;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ExecutionException;
 import java.util.logging.Level;
@@ -26,7 +23,7 @@ import java.util.logging.Logger;
 import static com.earth2me.essentials.I18n.tl;
 
 public class Trade {
-    private static FileWriter fw = null;
+    private static volatile TradeLogWriter writer = null;
     private final transient String command;
     private final transient Trade fallbackTrade;
     private final transient BigDecimal money;
@@ -75,97 +72,62 @@ public class Trade {
         if ((loc == null && !ess.getSettings().isEcoLogUpdateEnabled()) || (loc != null && !ess.getSettings().isEcoLogEnabled())) {
             return;
         }
-        if (fw == null) {
-            try {
-                fw = new FileWriter(new File(ess.getDataFolder(), "trade.log"), true);
-            } catch (final IOException ex) {
-                Logger.getLogger("Essentials").log(Level.SEVERE, null, ex);
-            }
+        logEntry(type, subtype, event, sender, toLogValue(charge, ess), receiver, pay, loc, endBalance, ess);
+    }
+
+    /**
+     * Logs a trade which charged several kinds of items at once, such as a bulk sale, as a single entry.
+     * The charge is logged with the total amount of items and the type, durability and amount of each stack.
+     */
+    public static void logItems(final String type, final String subtype, final String event, final String sender, final List<ItemStack> charge, final String receiver, final Trade pay, final Location loc, final BigDecimal endBalance, final IEssentials ess) {
+        if ((loc == null && !ess.getSettings().isEcoLogUpdateEnabled()) || (loc != null && !ess.getSettings().isEcoLogEnabled())) {
+            return;
         }
-        final StringBuilder sb = new StringBuilder();
-        sb.append(type).append(",").append(subtype).append(",").append(event).append(",\"");
-        sb.append(DateFormat.getDateTimeInstance(DateFormat.FULL, DateFormat.FULL).format(new Date()));
-        sb.append("\",\"");
-        if (sender != null) {
-            sb.append(sender);
+        int amount = 0;
+        final StringJoiner detail = new StringJoiner(";");
+        for (final ItemStack stack : charge) {
+            amount += stack.getAmount();
+            detail.add(stack.getType() + ":" + stack.getDurability() + "*" + stack.getAmount());
         }
-        sb.append("\",");
-        if (charge == null) {
-            sb.append("\"\",\"\",\"\"");
-        } else {
-            if (charge.getItemStack() != null) {
-                sb.append(charge.getItemStack().getAmount()).append(",");
-                sb.append(charge.getItemStack().getType().toString()).append(",");
-                sb.append(charge.getItemStack().getDurability());
-            }
-            if (charge.getMoney() != null) {
-                sb.append(charge.getMoney()).append(",");
-                sb.append("money").append(",");
-                sb.append(ess.getSettings().getCurrencySymbol());
-            }
-            if (charge.getExperience() != null) {
-                sb.append(charge.getExperience()).append(",");
-                sb.append("exp").append(",");
-                sb.append("\"\"");
+        logEntry(type, subtype, event, sender, new TradeLogWriter.Value(String.valueOf(amount), "items", detail.toString()), receiver, pay, loc, endBalance, ess);
+    }
+
+    private static void logEntry(final String type, final String subtype, final String event, final String sender, final TradeLogWriter.Value charge, final String receiver, final Trade pay, final Location loc, final BigDecimal endBalance, final IEssentials ess) {
+        if (writer == null) {
+            synchronized (Trade.class) {
+                if (writer == null) {
+                    final ISettings settings = ess.getSettings();
+                    writer = new TradeLogWriter(ess.getDataFolder(), settings.getEcoLogFormat(), settings.getEcoLogMaxSize(), settings.getEcoLogRotateInterval(), settings.isEcoLogCompressed());
+                }
             }
         }
-        sb.append(",\"");
-        if (receiver != null) {
-            sb.append(receiver);
-        }
-        sb.append("\",");
-        if (pay == null) {
-            sb.append("\"\",\"\",\"\"");
-        } else {
-            if (pay.getItemStack() != null) {
-                sb.append(pay.getItemStack().getAmount()).append(",");
-                sb.append(pay.getItemStack().getType().toString()).append(",");
-                sb.append(pay.getItemStack().getDurability());
-            }
-            if (pay.getMoney() != null) {
-                sb.append(pay.getMoney()).append(",");
-                sb.append("money").append(",");
-                sb.append(ess.getSettings().getCurrencySymbol());
-            }
-            if (pay.getExperience() != null) {
-                sb.append(pay.getExperience()).append(",");
-                sb.append("exp").append(",");
-                sb.append("\"\"");
-            }
+        final String world = loc == null ? null : loc.getWorld().getName();
+        writer.log(new TradeLogWriter.Entry(System.currentTimeMillis(), type, subtype, event, sender, charge, receiver, toLogValue(pay, ess),
+            world, loc == null ? 0 : loc.getBlockX(), loc == null ? 0 : loc.getBlockY(), loc == null ? 0 : loc.getBlockZ(), endBalance == null ? null : endBalance.toString()));
+    }
+
+    private static TradeLogWriter.Value toLogValue(final Trade trade, final IEssentials ess) {
+        if (trade == null) {
+            return null;
         }
-        if (loc == null) {
-            sb.append(",\"\",\"\",\"\",\"\"");
-        } else {
-            sb.append(",\"");
-            sb.append(loc.getWorld().getName()).append("\",");
-            sb.append(loc.getBlockX()).append(",");
-            sb.append(loc.getBlockY()).append(",");
-            sb.append(loc.getBlockZ()).append(",");
+        if (trade.getItemStack() != null) {
+            return new TradeLogWriter.Value(String.valueOf(trade.getItemStack().getAmount()), trade.getItemStack().getType().toString(), String.valueOf(trade.getItemStack().getDurability()));
         }
-        
-        if (endBalance == null) {
-            sb.append(",");
-        } else {
-            sb.append(endBalance);
-            sb.append(",");
+        if (trade.getMoney() != null) {
+            return new TradeLogWriter.Value(trade.getMoney().toString(), "money", ess.getSettings().getCurrencySymbol());
         }
-        sb.append("\n");
-        try {
-            fw.write(sb.toString());
-            fw.flush();
-        } catch (final IOException ex) {
-            Logger.getLogger("Essentials").log(Level.SEVERE, null, ex);
+        if (trade.getExperience() != null) {
+            return new TradeLogWriter.Value(trade.getExperience().toString(), "exp", "");
         }
+        return null;
     }
 
     public static void closeLog() {
-        if (fw != null) {
-            try {
-                fw.close();
-            } catch (final IOException ex) {
-                Logger.getLogger("Essentials").log(Level.SEVERE, null, ex);
+        synchronized (Trade.class) {
+            if (writer != null) {
+                writer.close();
+                writer = null;
             }
-            fw = null;
         }
     }
 
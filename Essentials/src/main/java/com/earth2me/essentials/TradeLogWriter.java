@@ -0,0 +1,501 @@
+package com.earth2me.essentials;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.text.DateFormat;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Background writer for the economy log.
+ * <p>
+ * Threads logging a trade only enqueue the entry on a lock-free queue. A dedicated thread drains the queue in
+ * batches, formats the entries and writes each batch with a single flush, rotating the log once it grows too
+ * large or too old. Rotated logs are optionally compressed.
+ * <p>
+ * If a batch cannot be written, whatever part of it reached the log is cut off again and the whole batch is
+ * retried on the next flush. Only after {@link #MAX_FAILURES} failures in a row is the batch dropped, and the
+ * amount of dropped entries is logged.
+ * <p>
+ * When the writer has fallen far behind, logging waits at most {@link #MAX_WAIT} before dropping the entry, as
+ * the caller may be the main thread. Entries logged after {@link #close()} are written on the caller thread.
+ */
+public class TradeLogWriter {
+    public static final String FORMAT_CSV = "csv";
+    public static final String FORMAT_JSON = "jsonl";
+    public static final String FORMAT_BINARY = "binary";
+    private static final int MAGIC = 0x4553544C; // ESTL
+    private static final int VERSION = 1;
+    private static final int CAPACITY = 65536;
+    private static final long FLUSH_INTERVAL = TimeUnit.SECONDS.toNanos(1);
+    private static final int MAX_FAILURES = 5;
+    private static final long MAX_WAIT = TimeUnit.MILLISECONDS.toNanos(50);
+    private static final long CLOSE_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+    private static final Logger LOGGER = Logger.getLogger("Essentials");
+    private final Queue<Entry> queue = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicInteger dropped = new AtomicInteger();
+    private final List<Entry> batch = new ArrayList<>();
+    private final File folder;
+    private final String format;
+    private final long maxBytes;
+    private final long maxAgeMillis;
+    private final boolean compress;
+    private final Thread thread;
+    private final DateFormat dateFormat = DateFormat.getDateTimeInstance(DateFormat.FULL, DateFormat.FULL);
+    private volatile boolean running = true;
+    private OutputStream out;
+    private File file;
+    private long openedAt;
+    private long batchStart;
+    private int failures;
+
+    /**
+     * @param folder       the folder to write the log to
+     * @param format       one of {@link #FORMAT_CSV}, {@link #FORMAT_JSON} or {@link #FORMAT_BINARY}
+     * @param maxBytes     the size after which the log is rotated, or 0 to never rotate by size
+     * @param maxAgeMillis the age after which the log is rotated, or 0 to never rotate by age
+     * @param compress     whether rotated logs should be compressed
+     */
+    public TradeLogWriter(final File folder, final String format, final long maxBytes, final long maxAgeMillis, final boolean compress) {
+        this.folder = folder;
+        this.format = format;
+        this.maxBytes = maxBytes;
+        this.maxAgeMillis = maxAgeMillis;
+        this.compress = compress;
+        this.thread = new Thread(this::run, "Essentials Trade Log Writer");
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queues an entry to be written. If the writer has fallen far behind, this waits up to {@link #MAX_WAIT}
+     * for it to catch up and drops the entry otherwise. Once the writer is closed, the entry is written right away.
+     */
+    public void log(final Entry entry) {
+        final long deadline = System.nanoTime() + MAX_WAIT;
+        while (pending.get() >= CAPACITY && running) {
+            if (System.nanoTime() - deadline >= 0) {
+                dropped.incrementAndGet();
+                return;
+            }
+            LockSupport.unpark(thread);
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        // Counted before checking running, so the writer thread can not stop while this entry is being queued
+        pending.incrementAndGet();
+        if (!running) {
+            pending.decrementAndGet();
+            writeClosed(entry);
+            return;
+        }
+        queue.add(entry);
+    }
+
+    /**
+     * Writes every queued entry and stops the writer thread.
+     */
+    public void close() {
+        running = false;
+        LockSupport.unpark(thread);
+        try {
+            thread.join(CLOSE_TIMEOUT);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        logDropped();
+    }
+
+    /**
+     * Writes an entry logged after {@link #close()} on the caller thread, once the writer thread has stopped.
+     */
+    private synchronized void writeClosed(final Entry entry) {
+        try {
+            thread.join(CLOSE_TIMEOUT);
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (thread.isAlive()) {
+            // Still stuck writing the last batch, writing to the same log from here could corrupt it
+            LOGGER.warning("Dropped an economy log entry logged while the economy log was still closing");
+            return;
+        }
+        batch.add(entry);
+        try {
+            writeBatch();
+        } catch (final IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to write the economy log", e);
+            discardPartialBatch();
+            batch.clear();
+        } finally {
+            closeStream();
+        }
+    }
+
+    private void logDropped() {
+        final int count = dropped.getAndSet(0);
+        if (count > 0) {
+            LOGGER.warning("Dropped " + count + " economy log entries because the economy log could not be written fast enough");
+        }
+    }
+
+    private void run() {
+        while (running || pending.get() > 0 || !batch.isEmpty()) {
+            logDropped();
+            if (queue.isEmpty() && batch.isEmpty()) {
+                if (running) {
+                    LockSupport.parkNanos(this, FLUSH_INTERVAL);
+                } else {
+                    // An entry counted as pending is about to be queued
+                    Thread.yield();
+                }
+                continue;
+            }
+            try {
+                writeBatch();
+                if (shouldRotate()) {
+                    rotate();
+                }
+            } catch (final IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to write the economy log", e);
+                closeStream();
+                if (!batch.isEmpty()) {
+                    discardPartialBatch();
+                    if (++failures >= MAX_FAILURES) {
+                        // Entries are dropped rather than retried forever while the disk is unavailable.
+                        LOGGER.severe("Dropped " + batch.size() + " economy log entries after " + failures + " failed attempts to write them");
+                        batch.clear();
+                        failures = 0;
+                    }
+                }
+                LockSupport.parkNanos(this, FLUSH_INTERVAL);
+            }
+        }
+        closeStream();
+    }
+
+    private void writeBatch() throws IOException {
+        // Entries stay in the batch until they are flushed, so a failed write can be retried
+        Entry entry;
+        while (batch.size() < CAPACITY && (entry = queue.poll()) != null) {
+            pending.decrementAndGet();
+            batch.add(entry);
+        }
+        // Nothing of this batch can have reached the log until the log is open
+        batchStart = Long.MAX_VALUE;
+        if (out == null) {
+            open();
+        }
+        batchStart = file.length();
+        for (final Entry next : batch) {
+            switch (format) {
+                case FORMAT_BINARY:
+                    writeBinary((DataOutputStream) out, next);
+                    break;
+                case FORMAT_JSON:
+                    out.write(toJson(next).getBytes(StandardCharsets.UTF_8));
+                    break;
+                default:
+                    out.write(toCsv(next).getBytes(StandardCharsets.UTF_8));
+                    break;
+            }
+        }
+        out.flush();
+        batch.clear();
+        failures = 0;
+    }
+
+    /**
+     * Cuts off the part of a failed batch that reached the log, so retrying it neither duplicates entries nor
+     * leaves a half written binary entry behind.
+     */
+    private void discardPartialBatch() {
+        if (file == null || !file.exists() || file.length() <= batchStart) {
+            return;
+        }
+        try (final RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+            raf.setLength(batchStart);
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to discard a partially written batch from the economy log, entries may be logged twice", e);
+        }
+    }
+
+    private String getFileName() {
+        switch (format) {
+            case FORMAT_BINARY:
+                return "trade.bin";
+            case FORMAT_JSON:
+                return "trade.jsonl";
+            default:
+                return "trade.log";
+        }
+    }
+
+    private void open() throws IOException {
+        file = new File(folder, getFileName());
+        final boolean empty = !file.exists() || file.length() == 0;
+        openedAt = System.currentTimeMillis();
+        if (FORMAT_BINARY.equals(format)) {
+            final DataOutputStream data = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+            if (empty) {
+                data.writeInt(MAGIC);
+                data.writeInt(VERSION);
+            }
+            out = data;
+        } else {
+            out = new BufferedOutputStream(new FileOutputStream(file, true));
+        }
+    }
+
+    private void closeStream() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (final IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to close the economy log", e);
+            }
+            out = null;
+        }
+    }
+
+    private boolean shouldRotate() {
+        return (maxBytes > 0 && file.length() >= maxBytes) || (maxAgeMillis > 0 && System.currentTimeMillis() - openedAt >= maxAgeMillis);
+    }
+
+    private void rotate() throws IOException {
+        closeStream();
+        final String name = getFileName();
+        final int dot = name.lastIndexOf('.');
+        final String stamp = new SimpleDateFormat("yyyy-MM-dd_HH-mm-ss").format(new Date());
+        File rotated = new File(folder, name.substring(0, dot) + "-" + stamp + name.substring(dot));
+        for (int i = 1; rotated.exists() || new File(rotated.getPath() + ".gz").exists(); i++) {
+            rotated = new File(folder, name.substring(0, dot) + "-" + stamp + "-" + i + name.substring(dot));
+        }
+        if (!file.renameTo(rotated)) {
+            throw new IOException("Unable to rotate " + file + " to " + rotated);
+        }
+        if (compress) {
+            final File compressed = new File(rotated.getPath() + ".gz");
+            try (final InputStream in = new FileInputStream(rotated);
+                 final OutputStream gzip = new GZIPOutputStream(new FileOutputStream(compressed))) {
+                final byte[] buffer = new byte[8192];
+                int read;
+                while ((read = in.read(buffer)) != -1) {
+                    gzip.write(buffer, 0, read);
+                }
+            }
+            if (!rotated.delete()) {
+                LOGGER.warning("Unable to delete " + rotated + " after compressing it");
+            }
+        }
+    }
+
+    private String toCsv(final Entry entry) {
+        final StringBuilder sb = new StringBuilder(160);
+        sb.append(entry.type).append(",").append(entry.subtype).append(",").append(entry.event).append(",\"");
+        sb.append(dateFormat.format(new Date(entry.time)));
+        sb.append("\",\"");
+        if (entry.sender != null) {
+            sb.append(entry.sender);
+        }
+        sb.append("\",");
+        appendCsv(sb, entry.charge);
+        sb.append(",\"");
+        if (entry.receiver != null) {
+            sb.append(entry.receiver);
+        }
+        sb.append("\",");
+        appendCsv(sb, entry.pay);
+        if (entry.world == null) {
+            sb.append(",\"\",\"\",\"\",\"\"");
+        } else {
+            sb.append(",\"");
+            sb.append(entry.world).append("\",");
+            sb.append(entry.x).append(",");
+            sb.append(entry.y).append(",");
+            sb.append(entry.z).append(",");
+        }
+        if (entry.endBalance != null) {
+            sb.append(entry.endBalance);
+        }
+        sb.append(",\n");
+        return sb.toString();
+    }
+
+    private static void appendCsv(final StringBuilder sb, final Value value) {
+        if (value == null) {
+            sb.append("\"\",\"\",\"\"");
+        } else {
+            sb.append(value.amount).append(",").append(value.kind).append(",").append(value.detail.isEmpty() ? "\"\"" : value.detail);
+        }
+    }
+
+    private static String toJson(final Entry entry) {
+        final StringBuilder sb = new StringBuilder(256);
+        sb.append("{\"time\":").append(entry.time);
+        appendJson(sb, "type", entry.type);
+        appendJson(sb, "subtype", entry.subtype);
+        appendJson(sb, "event", entry.event);
+        appendJson(sb, "sender", entry.sender);
+        appendJson(sb, "charge", entry.charge);
+        appendJson(sb, "receiver", entry.receiver);
+        appendJson(sb, "pay", entry.pay);
+        if (entry.world != null) {
+            appendJson(sb, "world", entry.world);
+            sb.append(",\"x\":").append(entry.x).append(",\"y\":").append(entry.y).append(",\"z\":").append(entry.z);
+        }
+        if (entry.endBalance != null) {
+            sb.append(",\"balance\":").append(entry.endBalance);
+        }
+        return sb.append("}\n").toString();
+    }
+
+    private static void appendJson(final StringBuilder sb, final String key, final Value value) {
+        if (value == null) {
+            return;
+        }
+        sb.append(",\"").append(key).append("\":{\"amount\":").append(value.amount);
+        appendJson(sb, "kind", value.kind);
+        appendJson(sb, "detail", value.detail);
+        sb.append("}");
+    }
+
+    private static void appendJson(final StringBuilder sb, final String key, final String value) {
+        if (value == null) {
+            return;
+        }
+        sb.append(",\"").append(key).append("\":\"");
+        for (int i = 0; i < value.length(); i++) {
+            final char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    sb.append("\\\"");
+                    break;
+                case '\\':
+                    sb.append("\\\\");
+                    break;
+                case '\n':
+                    sb.append("\\n");
+                    break;
+                case '\r':
+                    sb.append("\\r");
+                    break;
+                case '\t':
+                    sb.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        sb.append(String.format("\\u%04x", (int) c));
+                    } else {
+                        sb.append(c);
+                    }
+            }
+        }
+        sb.append("\"");
+    }
+
+    private static void writeBinary(final DataOutputStream data, final Entry entry) throws IOException {
+        data.writeLong(entry.time);
+        data.writeUTF(entry.type);
+        data.writeUTF(entry.subtype);
+        data.writeUTF(entry.event);
+        writeNullable(data, entry.sender);
+        writeBinary(data, entry.charge);
+        writeNullable(data, entry.receiver);
+        writeBinary(data, entry.pay);
+        data.writeBoolean(entry.world != null);
+        if (entry.world != null) {
+            data.writeUTF(entry.world);
+            data.writeInt(entry.x);
+            data.writeInt(entry.y);
+            data.writeInt(entry.z);
+        }
+        writeNullable(data, entry.endBalance);
+    }
+
+    private static void writeBinary(final DataOutputStream data, final Value value) throws IOException {
+        data.writeBoolean(value != null);
+        if (value != null) {
+            data.writeUTF(value.amount);
+            data.writeUTF(value.kind);
+            data.writeUTF(value.detail);
+        }
+    }
+
+    private static void writeNullable(final DataOutputStream data, final String value) throws IOException {
+        data.writeBoolean(value != null);
+        if (value != null) {
+            data.writeUTF(value);
+        }
+    }
+
+    /**
+     * A single logged trade. Values are captured when the trade happens and formatted by the writer thread.
+     */
+    public static final class Entry {
+        private final long time;
+        private final String type;
+        private final String subtype;
+        private final String event;
+        private final String sender;
+        private final Value charge;
+        private final String receiver;
+        private final Value pay;
+        private final String world;
+        private final int x;
+        private final int y;
+        private final int z;
+        private final String endBalance;
+
+        public Entry(final long time, final String type, final String subtype, final String event, final String sender, final Value charge, final String receiver,
+                     final Value pay, final String world, final int x, final int y, final int z, final String endBalance) {
+            this.time = time;
+            this.type = type;
+            this.subtype = subtype;
+            this.event = event;
+            this.sender = sender;
+            this.charge = charge;
+            this.receiver = receiver;
+            this.pay = pay;
+            this.world = world;
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.endBalance = endBalance;
+        }
+    }
+
+    /**
+     * The money, items or experience on one side of a trade: the amount, what it is and a detail such as the
+     * currency symbol or item durability.
+     */
+    public static final class Value {
+        private final String amount;
+        private final String kind;
+        private final String detail;
+
+        public Value(final String amount, final String kind, final String detail) {
+            this.amount = amount;
+            this.kind = kind;
+            this.detail = detail;
+        }
+    }
+}
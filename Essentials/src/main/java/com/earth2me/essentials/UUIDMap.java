@@ -3,153 +3,283 @@ package com.earth2me.essentials;
 import com.google.common.io.Files;
 import org.bukkit.Bukkit;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.FileReader;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.Queue;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 import java.util.logging.Level;
-import java.util.regex.Pattern;
 
+/**
+ * Persists the name to UUID map as an append-only binary journal.
+ * <p>
+ * Every tracked or removed name appends a single record, and the journal is only rewritten from the
+ * in-memory map once it contains considerably more records than live entries.
+ */
 public class UUIDMap {
     private static final ScheduledExecutorService writeScheduler = Executors.newScheduledThreadPool(1);
-    private static boolean pendingWrite;
+    private static final int MAGIC = 0x45535355; // ESSU
+    private static final int VERSION = 1;
+    private static final byte OP_PUT = 'P';
+    private static final byte OP_REMOVE = 'R';
+    private static final int COMPACT_SLACK = 1000;
     private static boolean loading = false;
     private final transient net.ess3.api.IEssentials ess;
-    private final File userList;
-    private final transient Pattern splitPattern = Pattern.compile(",");
+    private final File journal;
+    private final File legacyUserList;
+    private final Queue<Record> pending = new ConcurrentLinkedQueue<>();
     private final Runnable writeTaskRunnable;
+    private volatile boolean loaded = false;
+    private long journalRecords = 0;
 
     public UUIDMap(final net.ess3.api.IEssentials ess) {
         this.ess = ess;
-        userList = new File(ess.getDataFolder(), "usermap.csv");
-        pendingWrite = false;
+        journal = new File(ess.getDataFolder(), "usermap.bin");
+        legacyUserList = new File(ess.getDataFolder(), "usermap.csv");
         writeTaskRunnable = () -> {
-            if (pendingWrite) {
-                try {
-                    new WriteRunner(ess.getDataFolder(), userList, ess.getUserMap().getNames()).run();
-                } catch (final Throwable t) { // bad code to prevent task from being suppressed
-                    t.printStackTrace();
-                }
+            try {
+                writePending();
+            } catch (final Throwable t) { // bad code to prevent task from being suppressed
+                t.printStackTrace();
             }
         };
         writeScheduler.scheduleWithFixedDelay(writeTaskRunnable, 5, 5, TimeUnit.SECONDS);
     }
 
-    public void loadAllUsers(final ConcurrentSkipListMap<String, UUID> names, final ConcurrentSkipListMap<UUID, ArrayList<String>> history) {
-        try {
-            if (!userList.exists()) {
-                userList.createNewFile();
-            }
-
-            if (ess.getSettings().isDebug()) {
-                ess.getLogger().log(Level.INFO, "Reading usermap from disk");
-            }
+    public void loadAllUsers(final UserIndex index) {
+        if (ess.getSettings().isDebug()) {
+            ess.getLogger().log(Level.INFO, "Reading usermap from disk");
+        }
 
-            if (loading) {
-                return;
-            }
+        if (loading) {
+            return;
+        }
 
-            names.clear();
-            history.clear();
+        synchronized (this) {
+            pending.clear();
             loading = true;
+            try {
+                if (journal.exists()) {
+                    if (!replayJournal(index)) {
+                        Bukkit.getLogger().log(Level.WARNING, "The usermap journal ends with an incomplete record, compacting it.");
+                        compact(index);
+                    }
+                } else if (legacyUserList.exists()) {
+                    loadLegacyUserList(index);
+                    compact(index);
+                    if (legacyUserList.renameTo(new File(legacyUserList.getParentFile(), "usermap.csv.old"))) {
+                        Bukkit.getLogger().log(Level.INFO, "Converted usermap.csv to usermap.bin, the old file has been renamed to usermap.csv.old.");
+                    }
+                } else {
+                    compact(index);
+                }
+                loaded = true;
+            } catch (final IOException ex) {
+                Bukkit.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
+                // Keep the unreadable journal around and start a fresh one rather than never persisting again.
+                if (journal.exists() && journal.renameTo(new File(journal.getParentFile(), "usermap.bin.broken"))) {
+                    loaded = true;
+                    try {
+                        compact(index);
+                    } catch (final IOException e) {
+                        // The next write starts the new journal instead
+                        Bukkit.getLogger().log(Level.SEVERE, e.getMessage(), e);
+                    }
+                }
+            } finally {
+                loading = false;
+            }
+        }
+    }
 
-            try (final BufferedReader reader = new BufferedReader(new FileReader(userList))) {
-                while (true) {
-                    final String line = reader.readLine();
-                    if (line == null) {
-                        break;
+    /**
+     * Replays the journal into the given index.
+     *
+     * @return false if the journal ended with a truncated record
+     */
+    private boolean replayJournal(final UserIndex index) throws IOException {
+        journalRecords = 0;
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journal)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("usermap.bin is not a valid usermap journal");
+            }
+            while (true) {
+                final int op;
+                try {
+                    op = in.read();
+                    if (op == -1) {
+                        return true;
+                    }
+                    final String name = in.readUTF();
+                    if (op == OP_PUT) {
+                        index.putName(name, new UUID(in.readLong(), in.readLong()));
+                    } else if (op == OP_REMOVE) {
+                        index.removeName(name);
                     } else {
-                        final String[] values = splitPattern.split(line);
-                        if (values.length == 2) {
-                            final String name = values[0];
-                            final UUID uuid = UUID.fromString(values[1]);
-                            names.put(name, uuid);
-                            if (!history.containsKey(uuid)) {
-                                final ArrayList<String> list = new ArrayList<>();
-                                list.add(name);
-                                history.put(uuid, list);
-                            } else {
-                                final ArrayList<String> list = history.get(uuid);
-                                if (!list.contains(name)) {
-                                    list.add(name);
-                                }
-                            }
-                        }
+                        return false;
                     }
+                } catch (final EOFException e) {
+                    return false;
                 }
+                journalRecords++;
             }
-            loading = false;
-        } catch (final IOException ex) {
-            Bukkit.getLogger().log(Level.SEVERE, ex.getMessage(), ex);
         }
     }
 
-    public void writeUUIDMap() {
-        pendingWrite = true;
+    private void loadLegacyUserList(final UserIndex index) throws IOException {
+        try (final BufferedReader reader = new BufferedReader(new FileReader(legacyUserList))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final int comma = line.indexOf(',');
+                if (comma == -1 || line.indexOf(',', comma + 1) != -1) {
+                    continue;
+                }
+                final String name = line.substring(0, comma);
+                try {
+                    index.putName(name, UUID.fromString(line.substring(comma + 1)));
+                } catch (final IllegalArgumentException ignored) {
+                }
+            }
+        }
     }
 
+    /**
+     * Queues a record mapping the given name to the given UUID.
+     *
+     * @param name the name
+     * @param uuid the UUID
+     */
+    public void writeUUIDMap(final String name, final UUID uuid) {
+        pending.add(new Record(name, uuid));
+    }
+
+    /**
+     * Queues a record removing the given name.
+     *
+     * @param name the name
+     */
+    public void removeUUIDMap(final String name) {
+        pending.add(new Record(name, null));
+    }
+
+    /**
+     * Writes all queued records and rewrites the journal from the in-memory map.
+     */
     public void forceWriteUUIDMap() {
         if (ess.getSettings().isDebug()) {
             ess.getLogger().log(Level.INFO, "Forcing usermap write to disk");
         }
-        pendingWrite = true;
-        writeTaskRunnable.run();
-    }
-
-    public void shutdown() {
-        writeScheduler.submit(writeTaskRunnable);
-        writeScheduler.shutdown();
+        synchronized (this) {
+            if (!loaded || loading) {
+                return;
+            }
+            pending.clear();
+            try {
+                compact(ess.getUserMap().getIndex());
+            } catch (final IOException ex) {
+                Bukkit.getLogger().log(Level.WARNING, ex.getMessage(), ex);
+            }
+        }
     }
 
-    private static final class WriteRunner implements Runnable {
-        private final File location;
-        private final File endFile;
-        private final Map<String, UUID> names;
+    synchronized void writePending() throws IOException {
+        if (!loaded || loading || pending.isEmpty()) {
+            return;
+        }
 
-        private WriteRunner(final File location, final File endFile, final Map<String, UUID> names) {
-            this.location = location;
-            this.endFile = endFile;
-            this.names = new HashMap<>(names);
+        // Records can only be appended to a journal which starts with a header
+        if (!journal.exists()) {
+            pending.clear();
+            compact(ess.getUserMap().getIndex());
+            return;
         }
 
-        @Override
-        public void run() {
-            pendingWrite = false;
-            if (loading || names.isEmpty()) {
-                return;
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(journal, true)))) {
+            Record record;
+            while ((record = pending.poll()) != null) {
+                record.write(out);
+                journalRecords++;
             }
-            File configFile = null;
-
-            try {
-                configFile = File.createTempFile("usermap", ".tmp.csv", location);
+        }
 
-                final BufferedWriter bWriter = new BufferedWriter(new FileWriter(configFile));
-                for (final Map.Entry<String, UUID> entry : names.entrySet()) {
-                    bWriter.write(entry.getKey() + "," + entry.getValue().toString());
-                    bWriter.newLine();
-                }
+        final UserIndex index = ess.getUserMap().getIndex();
+        if (journalRecords > index.getNameCount() * 2L + COMPACT_SLACK) {
+            compact(index);
+        }
+    }
 
-                bWriter.close();
-                Files.move(configFile, endFile);
-            } catch (final IOException ex) {
-                try {
-                    if (configFile != null && configFile.exists()) {
-                        Files.move(configFile, new File(endFile.getParentFile(), "usermap.bak.csv"));
+    private void compact(final UserIndex index) throws IOException {
+        final File tempFile = File.createTempFile("usermap", ".tmp.bin", journal.getParentFile());
+        final long[] records = {0};
+        try {
+            try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                final IOException[] error = new IOException[1];
+                index.forEachName((name, uuid) -> {
+                    if (error[0] != null) {
+                        return;
+                    }
+                    try {
+                        new Record(name, uuid).write(out);
+                        records[0]++;
+                    } catch (final IOException e) {
+                        error[0] = e;
                     }
-                } catch (final Exception ex2) {
-                    Bukkit.getLogger().log(Level.SEVERE, ex2.getMessage(), ex2);
+                });
+                if (error[0] != null) {
+                    throw error[0];
                 }
-                Bukkit.getLogger().log(Level.WARNING, ex.getMessage(), ex);
+            }
+            Files.move(tempFile, journal);
+            journalRecords = records[0];
+        } catch (final IOException ex) {
+            try {
+                if (tempFile.exists()) {
+                    Files.move(tempFile, new File(journal.getParentFile(), "usermap.bak.bin"));
+                }
+            } catch (final Exception ex2) {
+                Bukkit.getLogger().log(Level.SEVERE, ex2.getMessage(), ex2);
+            }
+            throw ex;
+        }
+    }
+
+    public void shutdown() {
+        writeScheduler.submit(writeTaskRunnable);
+        writeScheduler.shutdown();
+    }
+
+    private static final class Record {
+        private final String name;
+        private final UUID uuid;
+
+        private Record(final String name, final UUID uuid) {
+            this.name = name;
+            this.uuid = uuid;
+        }
+
+        private void write(final DataOutputStream out) throws IOException {
+            if (uuid == null) {
+                out.writeByte(OP_REMOVE);
+                out.writeUTF(name);
+            } else {
+                out.writeByte(OP_PUT);
+                out.writeUTF(name);
+                out.writeLong(uuid.getMostSignificantBits());
+                out.writeLong(uuid.getLeastSignificantBits());
             }
         }
     }
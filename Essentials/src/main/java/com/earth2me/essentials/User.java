@@ -3,6 +3,8 @@ package com.earth2me.essentials;
 import com.earth2me.essentials.commands.IEssentialsCommand;
 import com.earth2me.essentials.economy.EconomyLayer;
 import com.earth2me.essentials.economy.EconomyLayers;
+import com.earth2me.essentials.economy.FixedPointMoney;
+import com.earth2me.essentials.economy.TransactionHistory;
 import com.earth2me.essentials.messaging.IMessageRecipient;
 import com.earth2me.essentials.messaging.SimpleMessageRecipient;
 import com.earth2me.essentials.utils.DateUtil;
@@ -215,7 +217,7 @@ public class User extends UserData implements Comparable<User>, IMessageRecipien
         if (value.signum() == 0) {
             return;
         }
-        setMoney(getMoney().add(value), cause);
+        updateMoney(balance -> addToBalance(balance, value), cause);
         sendMessage(tl("addedToAccount", NumberUtil.displayCurrency(value, ess)));
         if (initiator != null) {
             initiator.sendMessage(tl("addedToOthersAccount", NumberUtil.displayCurrency(value, ess), this.getDisplayName(), NumberUtil.displayCurrency(getMoney(), ess)));
@@ -232,16 +234,11 @@ public class User extends UserData implements Comparable<User>, IMessageRecipien
             throw new Exception(tl("payMustBePositive"));
         }
 
-        if (canAfford(value)) {
-            setMoney(getMoney().subtract(value), cause);
-            reciever.setMoney(reciever.getMoney().add(value), cause);
-            sendMessage(tl("moneySentTo", NumberUtil.displayCurrency(value, ess), reciever.getDisplayName()));
-            reciever.sendMessage(tl("moneyRecievedFrom", NumberUtil.displayCurrency(value, ess), getDisplayName()));
-            final TransactionEvent transactionEvent = new TransactionEvent(this.getSource(), reciever, value);
-            ess.getServer().getPluginManager().callEvent(transactionEvent);
-        } else {
-            throw new ChargeException(tl("notEnoughMoney", NumberUtil.displayCurrency(value, ess)));
-        }
+        transferMoney(reciever, value, cause);
+        sendMessage(tl("moneySentTo", NumberUtil.displayCurrency(value, ess), reciever.getDisplayName()));
+        reciever.sendMessage(tl("moneyRecievedFrom", NumberUtil.displayCurrency(value, ess), getDisplayName()));
+        final TransactionEvent transactionEvent = new TransactionEvent(this.getSource(), reciever, value);
+        ess.getServer().getPluginManager().callEvent(transactionEvent);
     }
 
     @Override
@@ -259,7 +256,7 @@ public class User extends UserData implements Comparable<User>, IMessageRecipien
             return;
         }
         try {
-            setMoney(getMoney().subtract(value), cause);
+            updateMoney(balance -> addToBalance(balance, value.negate()), cause);
         } catch (final MaxMoneyException ex) {
             ess.getLogger().log(Level.WARNING, "Invalid call to takeMoney, total balance can't be more than the max-money limit.", ex);
         }
@@ -278,6 +275,14 @@ public class User extends UserData implements Comparable<User>, IMessageRecipien
         if (cost.signum() <= 0) {
             return true;
         }
+        final FixedPointMoney fixedPoint = getFixedPointMoney();
+        if (fixedPoint != null) {
+            final long remainingUnits = FixedPointMoney.subtract(getMoneyUnits(fixedPoint), fixedPoint.toUnits(cost));
+            if (!permcheck || isAuthorized("essentials.eco.loan")) {
+                return remainingUnits >= fixedPoint.getMinUnits();
+            }
+            return remainingUnits >= 0;
+        }
         final BigDecimal remainingBalance = getMoney().subtract(cost);
         if (!permcheck || isAuthorized("essentials.eco.loan")) {
             return remainingBalance.compareTo(ess.getSettings().getMinMoney()) >= 0;
@@ -285,6 +290,22 @@ public class User extends UserData implements Comparable<User>, IMessageRecipien
         return remainingBalance.signum() >= 0;
     }
 
+    // Fixed point arithmetic only applies to balances Essentials stores itself
+    private FixedPointMoney getFixedPointMoney() {
+        if (ess.getSettings().isEcoDisabled() || EconomyLayers.isLayerSelected()) {
+            return null;
+        }
+        return ess.getSettings().getFixedPointMoney();
+    }
+
+    private BigDecimal addToBalance(final BigDecimal balance, final BigDecimal value) {
+        final FixedPointMoney fixedPoint = getFixedPointMoney();
+        if (fixedPoint == null) {
+            return balance.add(value);
+        }
+        return fixedPoint.toDecimal(FixedPointMoney.add(fixedPoint.clamp(fixedPoint.toUnits(balance)), fixedPoint.toUnits(value)));
+    }
+
     public void dispose() {
         ess.runTaskAsynchronously(this::_dispose);
     }
@@ -530,18 +551,136 @@ public class User extends UserData implements Comparable<User>, IMessageRecipien
             }
             return;
         }
-        final BigDecimal oldBalance = _getMoney();
+        updateMoney(balance -> value, cause);
+    }
 
-        final UserBalanceUpdateEvent updateEvent = new UserBalanceUpdateEvent(this.getBase(), oldBalance, value, cause);
+    /**
+     * Changes the balance while holding its balance lock. The {@link UserBalanceUpdateEvent} is fired before the
+     * change is applied, so listeners can still replace the new balance, just like with {@link #setMoney}.
+     * <p>
+     * The event is fired exactly once and without holding the lock, so a listener changing other balances can not
+     * deadlock with another thread. If a listener replaced the new balance, that balance is applied. Otherwise, if
+     * the balance changed while the event was fired, the change is computed again from the current balance under
+     * the lock, so the other change is not lost.
+     *
+     * @param change computes the new balance from the current one, or returns null to leave it unchanged
+     * @param cause  the cause of the change
+     * @return the new balance, or null if it was left unchanged
+     * @throws E                if the change threw it
+     * @throws MaxMoneyException if the new balance is over the max-money limit
+     */
+    public <E extends Exception> BigDecimal updateMoney(final BalanceChange<E> change, final UserBalanceUpdateEvent.Cause cause) throws E, MaxMoneyException {
+        if (ess.getSettings().isEcoDisabled()) {
+            return null;
+        }
+        final BigDecimal balance = _getMoney();
+        final BigDecimal newBalance = change.apply(balance);
+        if (newBalance == null) {
+            return null;
+        }
+        final UserBalanceUpdateEvent updateEvent = new UserBalanceUpdateEvent(this.getBase(), balance, newBalance, cause);
         ess.getServer().getPluginManager().callEvent(updateEvent);
-        final BigDecimal newBalance = updateEvent.getNewBalance();
 
+        try (BalanceLocks.Hold ignored = ess.getUserMap().getBalanceLocks().lock(getConfigUUID())) {
+            BigDecimal result = updateEvent.getNewBalance();
+            final BigDecimal current = _getMoney();
+            if (result.compareTo(newBalance) == 0 && current.compareTo(balance) != 0) {
+                result = change.apply(current);
+                if (result == null) {
+                    return null;
+                }
+            }
+            applyMoney(result, true);
+            recordBalanceUpdate(current, result, cause);
+            return result;
+        }
+    }
+
+    /**
+     * Moves money from this user to another while holding both balance locks, firing the
+     * {@link UserBalanceUpdateEvent} of both users once before the transfer is applied, in the same way as
+     * {@link #updateMoney}.
+     *
+     * @throws ChargeException   if this user can not afford the transfer, checked again against the balance the
+     *                           transfer is applied to
+     * @throws MaxMoneyException if the new balance of the receiver is over the max-money limit, in which case
+     *                           neither balance is changed
+     */
+    private void transferMoney(final User reciever, final BigDecimal value, final UserBalanceUpdateEvent.Cause cause) throws ChargeException, MaxMoneyException {
+        if (ess.getSettings().isEcoDisabled()) {
+            return;
+        }
+        final BigDecimal senderBalance = _getMoney();
+        final BigDecimal recieverBalance = reciever._getMoney();
+        if (!canAfford(value)) {
+            throw new ChargeException(tl("notEnoughMoney", NumberUtil.displayCurrency(value, ess)));
+        }
+        final BigDecimal senderNewBalance = addToBalance(senderBalance, value.negate());
+        final BigDecimal recieverNewBalance = reciever.addToBalance(recieverBalance, value);
+        final UserBalanceUpdateEvent senderEvent = new UserBalanceUpdateEvent(this.getBase(), senderBalance, senderNewBalance, cause);
+        ess.getServer().getPluginManager().callEvent(senderEvent);
+        final UserBalanceUpdateEvent recieverEvent = new UserBalanceUpdateEvent(reciever.getBase(), recieverBalance, recieverNewBalance, cause);
+        ess.getServer().getPluginManager().callEvent(recieverEvent);
+
+        try (BalanceLocks.Hold ignored = ess.getUserMap().getBalanceLocks().lock(getConfigUUID(), reciever.getConfigUUID())) {
+            final BigDecimal senderCurrent = _getMoney();
+            BigDecimal senderResult = senderEvent.getNewBalance();
+            if (senderResult.compareTo(senderNewBalance) == 0 && senderCurrent.compareTo(senderBalance) != 0) {
+                senderResult = addToBalance(senderCurrent, value.negate());
+                final BigDecimal minimum = isAuthorized("essentials.eco.loan") ? ess.getSettings().getMinMoney() : BigDecimal.ZERO;
+                if (senderResult.compareTo(minimum) < 0) {
+                    throw new ChargeException(tl("notEnoughMoney", NumberUtil.displayCurrency(value, ess)));
+                }
+            }
+            final BigDecimal recieverCurrent = reciever._getMoney();
+            BigDecimal recieverResult = recieverEvent.getNewBalance();
+            if (recieverResult.compareTo(recieverNewBalance) == 0 && recieverCurrent.compareTo(recieverBalance) != 0) {
+                recieverResult = reciever.addToBalance(recieverCurrent, value);
+            }
+
+            applyMoney(senderResult, true);
+            try {
+                reciever.applyMoney(recieverResult, true);
+            } catch (final MaxMoneyException e) {
+                applyMoney(senderCurrent, false);
+                throw e;
+            }
+            recordBalanceUpdate(senderCurrent, senderResult, cause);
+            reciever.recordBalanceUpdate(recieverCurrent, recieverResult, cause);
+        }
+    }
+
+    /**
+     * Records a balance change in the transaction history. This is only called once the change was applied, so
+     * changes which were rolled back or never applied are not recorded.
+     */
+    void recordBalanceUpdate(final BigDecimal previous, final BigDecimal balance, final UserBalanceUpdateEvent.Cause cause) {
+        final TransactionHistory history = ess.getTransactionHistory();
+        // Payments with /pay are recorded for both accounts by EssentialsEconomyListener#onTransaction
+        if (history == null || cause == UserBalanceUpdateEvent.Cause.COMMAND_PAY) {
+            return;
+        }
+        final BigDecimal change = balance.subtract(previous);
+        if (change.signum() == 0) {
+            return;
+        }
+        history.record(new TransactionHistory.Record(System.currentTimeMillis(), getConfigUUID(), TransactionHistory.Type.BALANCE_UPDATE, null, cause.name(), change, balance));
+    }
+
+    /**
+     * Sets the balance without firing a {@link UserBalanceUpdateEvent}. This must only be called while holding the
+     * balance lock of this user, after firing the event, as done by {@link #updateMoney}.
+     */
+    public void applyMoney(final BigDecimal value, final boolean throwError) throws MaxMoneyException {
+        if (ess.getSettings().isEcoDisabled()) {
+            return;
+        }
         final EconomyLayer layer = EconomyLayers.getSelectedLayer();
         if (layer != null && (layer.hasAccount(getBase()) || layer.createPlayerAccount(getBase()))) {
-            layer.set(getBase(), newBalance);
+            layer.set(getBase(), value);
         }
-        super.setMoney(newBalance, true);
-        Trade.log("Update", "Set", "API", getName(), new Trade(newBalance, ess), null, null, null, newBalance, ess);
+        super.setMoney(value, throwError);
+        Trade.log("Update", "Set", "API", getName(), new Trade(value, ess), null, null, null, value, ess);
     }
 
     public void updateMoneyCache(final BigDecimal value) {
@@ -555,6 +694,12 @@ public class User extends UserData implements Comparable<User>, IMessageRecipien
         }
     }
 
+    @Override
+    public void setSocialSpyEnabled(final boolean status) {
+        super.setSocialSpyEnabled(status);
+        ess.getSpyRegistry().update(this);
+    }
+
     @Override
     public void setAfk(final boolean set) {
         setAfk(set, AfkStatusChangeEvent.Cause.UNKNOWN);
@@ -1134,4 +1279,13 @@ public class User extends UserData implements Comparable<User>, IMessageRecipien
     public boolean isToggleShout() {
         return toggleShout;
     }
+
+    /**
+     * Computes a new balance for {@link #updateMoney}.
+     *
+     * @param <E> the exception thrown to abort the change
+     */
+    public interface BalanceChange<E extends Exception> {
+        BigDecimal apply(BigDecimal balance) throws E;
+    }
 }
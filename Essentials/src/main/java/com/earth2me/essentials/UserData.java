@@ -5,6 +5,7 @@ import com.earth2me.essentials.config.EssentialsUserConfiguration;
 import com.earth2me.essentials.config.entities.CommandCooldown;
 import com.earth2me.essentials.config.entities.LazyLocation;
 import com.earth2me.essentials.config.holders.UserConfigHolder;
+import com.earth2me.essentials.economy.FixedPointMoney;
 import com.earth2me.essentials.utils.NumberUtil;
 import com.earth2me.essentials.utils.StringUtil;
 import com.google.common.base.Charsets;
@@ -18,9 +19,9 @@ import org.bukkit.entity.Player;
 import org.bukkit.inventory.ItemStack;
 import org.spongepowered.configurate.serialize.SerializationException;
 
-import java.io.File;
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
@@ -37,25 +38,17 @@ public abstract class UserData extends PlayerExtension implements IConf {
     protected final transient IEssentials ess;
     private final EssentialsUserConfiguration config;
     private UserConfigHolder holder;
-    private BigDecimal money;
+    private volatile BigDecimal money;
+    // The balance in units of the fixed point money setting it was computed with, null while that setting is disabled
+    private volatile MoneyUnits moneyUnits;
+    // Balances of the additional currencies, indexed by currency id - 1 and filled in when first used. The currency map
+    // of the holder is only accessed while holding the monitor of the config, which also guards saving it.
+    private volatile BigDecimal[] currencyBalances = new BigDecimal[0];
 
     protected UserData(final Player base, final IEssentials ess) {
         super(base);
         this.ess = ess;
-        final File folder = new File(ess.getDataFolder(), "userdata");
-        if (!folder.exists()) {
-            folder.mkdirs();
-        }
-
-        String filename;
-        try {
-            filename = base.getUniqueId().toString();
-        } catch (final Throwable ex) {
-            ess.getLogger().warning("Falling back to old username system for " + base.getName());
-            filename = base.getName();
-        }
-
-        config = new EssentialsUserConfiguration(base.getName(), base.getUniqueId(), new File(folder, filename + ".yml"));
+        config = new EssentialsUserConfiguration(base.getName(), base.getUniqueId(), ess.getUserMap().getStorage());
         reloadConfig();
 
         if (config.getUsername() == null) {
@@ -65,7 +58,9 @@ public abstract class UserData extends PlayerExtension implements IConf {
 
     public final void reset() {
         config.blockingSave();
-        config.getFile().delete();
+        ess.getUserMap().getStorage().delete(config.getUuid());
+        ess.getUserMap().getFieldIndex().remove(config.getUuid());
+        ess.getUserMap().getBalanceRanking().remove(config.getUuid());
         if (config.getUsername() != null) {
             ess.getUserMap().removeUser(config.getUsername());
             if (isNPC()) {
@@ -95,8 +90,18 @@ public abstract class UserData extends PlayerExtension implements IConf {
                 ess.getLogger().log(Level.SEVERE, "Error while saving user config: " + e.getMessage(), e);
                 throw new RuntimeException(e);
             }
+            ess.getUserMap().updateSummary(getSummary());
         });
         money = _getMoney();
+        final FixedPointMoney fixedPoint = ess.getSettings().getFixedPointMoney();
+        if (fixedPoint != null) {
+            final long units = fixedPoint.clamp(fixedPoint.toUnits(money));
+            moneyUnits = new MoneyUnits(fixedPoint, units);
+            money = fixedPoint.toDecimal(units);
+        } else {
+            moneyUnits = null;
+        }
+        currencyBalances = new BigDecimal[0];
     }
 
     private BigDecimal _getMoney() {
@@ -127,7 +132,46 @@ public abstract class UserData extends PlayerExtension implements IConf {
         return money;
     }
 
+    public UserSummary getSummary() {
+        synchronized (config) {
+            return UserSummary.of(getConfigUUID(), holder);
+        }
+    }
+
+    /**
+     * Approximates how much memory this user takes up, used to decide which offline users are evicted first.
+     *
+     * @return the weight of this user in the user cache
+     */
+    public int getCacheWeight() {
+        final UserConfigHolder.Timestamps timestamps = holder.timestamps();
+        return 1 + holder.homes().size() + (holder.mail() == null ? 0 : holder.mail().size()) + holder.powertools().size() + holder.ignore().size()
+            + (timestamps.kits() == null ? 0 : timestamps.kits().size()) + (timestamps.commandCooldowns() == null ? 0 : timestamps.commandCooldowns().size());
+    }
+
+    /**
+     * The units are computed again from the balance when the fixed point setting changed since they were stored,
+     * for example after a reload enabled it or changed its decimals.
+     *
+     * @param fixedPoint the current {@link ISettings#getFixedPointMoney()}
+     * @return the balance in units of the given fixed point setting
+     */
+    public long getMoneyUnits(final FixedPointMoney fixedPoint) {
+        final MoneyUnits units = moneyUnits;
+        if (units != null && units.fixedPoint == fixedPoint) {
+            return units.units;
+        }
+        final long recomputed = fixedPoint.clamp(fixedPoint.toUnits(money));
+        moneyUnits = new MoneyUnits(fixedPoint, recomputed);
+        return recomputed;
+    }
+
     public void setMoney(final BigDecimal value, final boolean throwError) throws MaxMoneyException {
+        final FixedPointMoney fixedPoint = ess.getSettings().getFixedPointMoney();
+        if (fixedPoint != null) {
+            setMoneyUnits(fixedPoint, fixedPoint.toUnits(value), throwError);
+            return;
+        }
         final BigDecimal maxMoney = ess.getSettings().getMaxMoney();
         final BigDecimal minMoney = ess.getSettings().getMinMoney();
         if (value.compareTo(maxMoney) > 0) {
@@ -141,8 +185,110 @@ public abstract class UserData extends PlayerExtension implements IConf {
         if (money.compareTo(minMoney) < 0) {
             money = minMoney;
         }
+        moneyUnits = null;
+        holder.money(money);
+        stopTransaction();
+        updateBalanceRanking();
+    }
+
+    /**
+     * @param currency the currency id, 0 for the default balance
+     * @return the balance of this user in the currency
+     */
+    public BigDecimal getMoney(final int currency) {
+        if (currency == 0) {
+            return money;
+        }
+        final BigDecimal[] balances = currencyBalances;
+        if (currency <= balances.length && balances[currency - 1] != null) {
+            return balances[currency - 1];
+        }
+        return loadCurrency(currency);
+    }
+
+    private BigDecimal loadCurrency(final int currency) {
+        final String name = ess.getSettings().getCurrencyName(currency);
+        if (name == null) {
+            throw new IllegalArgumentException("Unknown currency id " + currency);
+        }
+        synchronized (config) {
+            BigDecimal balance = holder.currencies().get(name);
+            if (balance == null) {
+                balance = isNPC() ? BigDecimal.ZERO : ess.getSettings().getStartingBalance();
+            }
+            storeCurrency(currency, balance);
+            return balance;
+        }
+    }
+
+    // Must be called while holding the monitor of the config
+    private void storeCurrency(final int currency, final BigDecimal balance) {
+        BigDecimal[] balances = currencyBalances;
+        if (balances.length < currency) {
+            balances = Arrays.copyOf(balances, Math.max(currency, ess.getSettings().getCurrencyCount()));
+        } else {
+            balances = balances.clone();
+        }
+        balances[currency - 1] = balance;
+        currencyBalances = balances;
+    }
+
+    /**
+     * Sets the balance of this user in a currency. Unlike the default balance, changes to other currencies do not
+     * fire a {@link net.ess3.api.events.UserBalanceUpdateEvent}, as that event has no currency.
+     *
+     * @param currency the currency id, 0 for the default balance
+     */
+    public void setMoney(final int currency, final BigDecimal value, final boolean throwError) throws MaxMoneyException {
+        if (currency == 0) {
+            setMoney(value, throwError);
+            return;
+        }
+        final String name = ess.getSettings().getCurrencyName(currency);
+        if (name == null) {
+            throw new IllegalArgumentException("Unknown currency id " + currency);
+        }
+        final BigDecimal maxMoney = ess.getSettings().getMaxMoney();
+        final BigDecimal minMoney = ess.getSettings().getMinMoney();
+        BigDecimal balance = value;
+        if (balance.compareTo(maxMoney) > 0) {
+            if (throwError) {
+                throw new MaxMoneyException();
+            }
+            balance = maxMoney;
+        }
+        if (balance.compareTo(minMoney) < 0) {
+            balance = minMoney;
+        }
+        synchronized (config) {
+            storeCurrency(currency, balance);
+            holder.currencies().put(name, balance);
+        }
+        stopTransaction();
+    }
+
+    private void setMoneyUnits(final FixedPointMoney fixedPoint, final long value, final boolean throwError) throws MaxMoneyException {
+        long units = value;
+        if (units > fixedPoint.getMaxUnits()) {
+            if (throwError) {
+                throw new MaxMoneyException();
+            }
+            units = fixedPoint.getMaxUnits();
+        }
+        if (units < fixedPoint.getMinUnits()) {
+            units = fixedPoint.getMinUnits();
+        }
+        moneyUnits = new MoneyUnits(fixedPoint, units);
+        money = fixedPoint.toDecimal(units);
         holder.money(money);
         stopTransaction();
+        updateBalanceRanking();
+    }
+
+    private void updateBalanceRanking() {
+        final boolean excluded = holder.baltopExempt() || (holder.npc() && !ess.getSettings().isNpcsInBalanceRanking());
+        ess.getUserMap().getBalanceRanking().update(getConfigUUID(), holder.lastAccountName(), money, excluded);
+        ess.getUserMap().getFieldIndex().updateBalance(getConfigUUID(), money);
     }
 
     private String getHomeName(String search) {
@@ -573,6 +719,7 @@ public abstract class UserData extends PlayerExtension implements IConf {
     public void setNPC(final boolean set) {
         holder.npc(set);
         config.save();
+        updateBalanceRanking();
     }
 
     public String getLastAccountName() {
@@ -583,6 +730,7 @@ public abstract class UserData extends PlayerExtension implements IConf {
         holder.lastAccountName(lastAccountName);
         config.save();
         ess.getUserMap().trackUUID(getConfigUUID(), lastAccountName, true);
+        updateBalanceRanking();
     }
 
     public boolean arePowerToolsEnabled() {
@@ -614,6 +762,25 @@ public abstract class UserData extends PlayerExtension implements IConf {
         config.save();
     }
 
+    /**
+     * @param job the name of an economy job
+     * @return the start of the last run of the job which was applied to this user, or 0 if none was
+     */
+    public long getEconomyJobRun(String job) {
+        job = job.replace('.', '_').replace('/', '_').toLowerCase(Locale.ENGLISH);
+        final Long run = holder.timestamps().economyJobs().get(job);
+        return run == null ? 0L : run;
+    }
+
+    /**
+     * Marks a run of an economy job as applied to this user. This does not save the user data, so that the mark is
+     * saved together with the balance change of the job.
+     */
+    public void setEconomyJobRun(String job, final long runStart) {
+        job = job.replace('.', '_').replace('/', '_').toLowerCase(Locale.ENGLISH);
+        holder.timestamps().economyJobs().put(job, runStart);
+    }
+
     public List<CommandCooldown> getCooldownsList() {
         return holder.timestamps().commandCooldowns();
     }
@@ -709,8 +876,12 @@ public abstract class UserData extends PlayerExtension implements IConf {
     }
 
     public void setBaltopExemptCache(boolean baltopExempt) {
+        if (holder.baltopExempt() == baltopExempt) {
+            return;
+        }
         holder.baltopExempt(baltopExempt);
         config.save();
+        updateBalanceRanking();
     }
 
     public UUID getConfigUUID() {
@@ -721,6 +892,13 @@ public abstract class UserData extends PlayerExtension implements IConf {
         config.save();
     }
 
+    /**
+     * Writes this user to disk now, waiting until it has been written.
+     */
+    public void blockingSave() {
+        config.blockingSave();
+    }
+
     public void startTransaction() {
         config.startTransaction();
     }
@@ -749,4 +927,14 @@ public abstract class UserData extends PlayerExtension implements IConf {
     public Map<String, Object> getConfigMap(final String node) {
         return ConfigurateUtil.getRawMap(config.getSection("info." + node));
     }
+
+    private static final class MoneyUnits {
+        private final FixedPointMoney fixedPoint;
+        private final long units;
+
+        private MoneyUnits(final FixedPointMoney fixedPoint, final long units) {
+            this.fixedPoint = fixedPoint;
+            this.units = units;
+        }
+    }
 }
@@ -0,0 +1,224 @@
+package com.earth2me.essentials;
+
+import com.google.common.io.Files;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Secondary index over the user data fields used to find users in bulk: the last login address, the last
+ * login and logout, the balance, the NPC flag and the amount of homes.
+ * <p>
+ * Rows are updated whenever a user is saved or summarized, and balances whenever they change, so queries and
+ * offline balance lookups never have to load users. Users which
+ * have not been indexed yet are added by {@link UserMap#completeFieldIndex()}.
+ */
+public class UserFieldIndex {
+    private static final int MAGIC = 0x45535549; // ESUI
+    private static final int VERSION = 2;
+    private final Map<UUID, Row> rows = new ConcurrentHashMap<>();
+    private final Map<String, Set<UUID>> byAddress = new ConcurrentHashMap<>();
+
+    public synchronized void update(final UserSummary summary) {
+        final Row row = new Row(summary.getLastLoginAddress().toLowerCase(Locale.ENGLISH), summary.getLastLogin(), summary.getLastLogout(),
+            summary.getMoney(), summary.isNPC(), summary.getHomeCount());
+        put(summary.getUUID(), row);
+    }
+
+    /**
+     * Updates the balance of an indexed user, ahead of the next time their data is saved.
+     */
+    public synchronized void updateBalance(final UUID uuid, final BigDecimal balance) {
+        final Row previous = rows.get(uuid);
+        if (previous != null && balance != null) {
+            rows.put(uuid, new Row(previous.address, previous.lastLogin, previous.lastLogout, balance, previous.npc, previous.homeCount));
+        }
+    }
+
+    private void put(final UUID uuid, final Row row) {
+        final Row previous = rows.put(uuid, row);
+        if (previous != null && !previous.address.equals(row.address)) {
+            unlinkAddress(uuid, previous.address);
+        }
+        if (!row.address.isEmpty()) {
+            byAddress.computeIfAbsent(row.address, k -> ConcurrentHashMap.newKeySet()).add(uuid);
+        }
+    }
+
+    private void unlinkAddress(final UUID uuid, final String address) {
+        final Set<UUID> users = byAddress.get(address);
+        if (users != null) {
+            users.remove(uuid);
+            if (users.isEmpty()) {
+                byAddress.remove(address);
+            }
+        }
+    }
+
+    public synchronized void remove(final UUID uuid) {
+        final Row previous = rows.remove(uuid);
+        if (previous != null) {
+            unlinkAddress(uuid, previous.address);
+        }
+    }
+
+    public boolean contains(final UUID uuid) {
+        return rows.containsKey(uuid);
+    }
+
+    public int size() {
+        return rows.size();
+    }
+
+    public Row get(final UUID uuid) {
+        return rows.get(uuid);
+    }
+
+    /**
+     * @param address the address
+     * @return every user whose last login came from the given address
+     */
+    public Set<UUID> getByAddress(final String address) {
+        final Set<UUID> users = byAddress.get(address.toLowerCase(Locale.ENGLISH));
+        return users == null ? Collections.emptySet() : Collections.unmodifiableSet(users);
+    }
+
+    /**
+     * @param filter the filter
+     * @return every indexed user whose row matches the given filter
+     */
+    public List<UUID> query(final Predicate<Row> filter) {
+        final List<UUID> result = new ArrayList<>();
+        for (final Map.Entry<UUID, Row> entry : rows.entrySet()) {
+            if (filter.test(entry.getValue())) {
+                result.add(entry.getKey());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Loads the index written by {@link #save(File)}. The file is deleted afterwards, so an index which was not
+     * saved on shutdown is rebuilt instead of being trusted.
+     */
+    public synchronized void load(final File file) throws IOException {
+        if (!file.exists()) {
+            return;
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                return;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                final UUID uuid = new UUID(in.readLong(), in.readLong());
+                final String address = in.readUTF();
+                final long lastLogin = in.readLong();
+                final long lastLogout = in.readLong();
+                final int scale = in.readInt();
+                final byte[] unscaled = new byte[in.readUnsignedByte()];
+                in.readFully(unscaled);
+                final Row row = new Row(address, lastLogin, lastLogout, new BigDecimal(new BigInteger(unscaled), scale), in.readBoolean(), in.readInt());
+                put(uuid, row);
+            }
+        } finally {
+            file.delete();
+        }
+    }
+
+    public synchronized void save(final File file) throws IOException {
+        final File tempFile = File.createTempFile("userindex", ".tmp.bin", file.getParentFile());
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(rows.size());
+            for (final Map.Entry<UUID, Row> entry : rows.entrySet()) {
+                final Row row = entry.getValue();
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeUTF(row.address);
+                out.writeLong(row.lastLogin);
+                out.writeLong(row.lastLogout);
+                final byte[] unscaled = row.balance.unscaledValue().toByteArray();
+                out.writeInt(row.balance.scale());
+                out.writeByte(unscaled.length);
+                out.write(unscaled);
+                out.writeBoolean(row.npc);
+                out.writeInt(row.homeCount);
+            }
+        }
+        Files.move(tempFile, file);
+    }
+
+    public static final class Row {
+        private final String address;
+        private final long lastLogin;
+        private final long lastLogout;
+        private final BigDecimal balance;
+        private final double money;
+        private final boolean npc;
+        private final int homeCount;
+
+        private Row(final String address, final long lastLogin, final long lastLogout, final BigDecimal balance, final boolean npc, final int homeCount) {
+            this.address = address;
+            this.lastLogin = lastLogin;
+            this.lastLogout = lastLogout;
+            this.balance = balance;
+            this.money = balance.doubleValue();
+            this.npc = npc;
+            this.homeCount = homeCount;
+        }
+
+        public String getLastLoginAddress() {
+            return address;
+        }
+
+        public long getLastLogin() {
+            return lastLogin;
+        }
+
+        public long getLastLogout() {
+            return lastLogout;
+        }
+
+        /**
+         * @return the last logout, or the last login if the user never logged out.
+         */
+        public long getLastSeen() {
+            return lastLogout != 0 ? lastLogout : lastLogin;
+        }
+
+        public double getMoney() {
+            return money;
+        }
+
+        public BigDecimal getBalance() {
+            return balance;
+        }
+
+        public boolean isNPC() {
+            return npc;
+        }
+
+        public int getHomeCount() {
+            return homeCount;
+        }
+    }
+}
@@ -0,0 +1,453 @@
+package com.earth2me.essentials;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.BiConsumer;
+
+/**
+ * Compact index of every known user, their names and their name history.
+ * <p>
+ * Every UUID and every name is stored once and referred to by an int id. UUIDs are kept as two longs in a
+ * {@link LongBuffer}, which can optionally be backed by a memory-mapped file instead of the heap, and the
+ * lookups, name ownership and name history are plain int arrays.
+ */
+public class UserIndex {
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final int NONE = -1;
+
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+    private final File mappedFile;
+
+    // UUID id -> msb/lsb at 2 * id
+    private LongBuffer uuids;
+    private int uuidCount;
+    private int[] uuidSlots;
+    private final BitSet present = new BitSet();
+    private int presentCount;
+    private int[] historyHead;
+    private int[] historyTail;
+
+    // name id -> name and owning UUID id
+    private String[] names;
+    private int[] nameOwners;
+    private int nameCount;
+    private int[] nameSlots;
+    private int liveNames;
+
+    // history entry -> name id and next entry
+    private int[] historyNames;
+    private int[] historyNext;
+    private int historyCount;
+
+    private final Set<UUID> uuidView = new UUIDView();
+
+    /**
+     * @param mappedFile the file to memory-map the UUID table to, or null to keep it on the heap
+     */
+    public UserIndex(final File mappedFile) {
+        this.mappedFile = mappedFile;
+        reset();
+    }
+
+    private void reset() {
+        uuids = allocate(INITIAL_CAPACITY * 2);
+        uuidCount = 0;
+        uuidSlots = new int[INITIAL_CAPACITY * 2];
+        present.clear();
+        presentCount = 0;
+        historyHead = new int[INITIAL_CAPACITY];
+        historyTail = new int[INITIAL_CAPACITY];
+        names = new String[INITIAL_CAPACITY];
+        nameOwners = new int[INITIAL_CAPACITY];
+        nameCount = 0;
+        nameSlots = new int[INITIAL_CAPACITY * 2];
+        liveNames = 0;
+        historyNames = new int[INITIAL_CAPACITY];
+        historyNext = new int[INITIAL_CAPACITY];
+        historyCount = 0;
+    }
+
+    private LongBuffer allocate(final int longs) {
+        if (mappedFile == null) {
+            return LongBuffer.allocate(longs);
+        }
+        try (final FileChannel channel = FileChannel.open(mappedFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, longs * 8L).asLongBuffer();
+        } catch (final IOException e) {
+            throw new IllegalStateException("Failed to map " + mappedFile, e);
+        }
+    }
+
+    public void clear() {
+        lock.writeLock().lock();
+        try {
+            reset();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    private static int hash(final long msb, final long lsb) {
+        final long h = (msb ^ lsb) * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static int hash(final String name) {
+        final int h = name.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private int findUUID(final long msb, final long lsb) {
+        final int mask = uuidSlots.length - 1;
+        for (int slot = hash(msb, lsb) & mask; ; slot = (slot + 1) & mask) {
+            final int id = uuidSlots[slot] - 1;
+            if (id == NONE) {
+                return NONE;
+            }
+            if (uuids.get(id * 2) == msb && uuids.get(id * 2 + 1) == lsb) {
+                return id;
+            }
+        }
+    }
+
+    private int findName(final String name) {
+        final int mask = nameSlots.length - 1;
+        for (int slot = hash(name) & mask; ; slot = (slot + 1) & mask) {
+            final int id = nameSlots[slot] - 1;
+            if (id == NONE) {
+                return NONE;
+            }
+            if (names[id].equals(name)) {
+                return id;
+            }
+        }
+    }
+
+    private int uuidId(final UUID uuid) {
+        final long msb = uuid.getMostSignificantBits();
+        final long lsb = uuid.getLeastSignificantBits();
+        int id = findUUID(msb, lsb);
+        if (id != NONE) {
+            return id;
+        }
+
+        id = uuidCount++;
+        if (id * 2 + 2 > uuids.capacity()) {
+            final LongBuffer grown = allocate(uuids.capacity() * 2);
+            uuids.rewind();
+            grown.put(uuids);
+            uuids = grown;
+            historyHead = Arrays.copyOf(historyHead, historyHead.length * 2);
+            historyTail = Arrays.copyOf(historyTail, historyTail.length * 2);
+        }
+        uuids.put(id * 2, msb);
+        uuids.put(id * 2 + 1, lsb);
+        historyHead[id] = NONE;
+        historyTail[id] = NONE;
+
+        if (uuidCount * 2 > uuidSlots.length) {
+            uuidSlots = new int[uuidSlots.length * 2];
+            for (int i = 0; i < uuidCount; i++) {
+                insertSlot(uuidSlots, hash(uuids.get(i * 2), uuids.get(i * 2 + 1)), i);
+            }
+        } else {
+            insertSlot(uuidSlots, hash(msb, lsb), id);
+        }
+        return id;
+    }
+
+    private int nameId(final String name) {
+        int id = findName(name);
+        if (id != NONE) {
+            return id;
+        }
+
+        id = nameCount++;
+        if (id >= names.length) {
+            names = Arrays.copyOf(names, names.length * 2);
+            nameOwners = Arrays.copyOf(nameOwners, nameOwners.length * 2);
+        }
+        names[id] = name;
+        nameOwners[id] = NONE;
+
+        if (nameCount * 2 > nameSlots.length) {
+            nameSlots = new int[nameSlots.length * 2];
+            for (int i = 0; i < nameCount; i++) {
+                insertSlot(nameSlots, hash(names[i]), i);
+            }
+        } else {
+            insertSlot(nameSlots, hash(name), id);
+        }
+        return id;
+    }
+
+    private static void insertSlot(final int[] slots, final int hash, final int id) {
+        final int mask = slots.length - 1;
+        int slot = hash & mask;
+        while (slots[slot] != 0) {
+            slot = (slot + 1) & mask;
+        }
+        slots[slot] = id + 1;
+    }
+
+    private UUID uuid(final int id) {
+        return new UUID(uuids.get(id * 2), uuids.get(id * 2 + 1));
+    }
+
+    private void addHistory(final int uuidId, final int nameId) {
+        for (int entry = historyHead[uuidId]; entry != NONE; entry = historyNext[entry]) {
+            if (historyNames[entry] == nameId) {
+                return;
+            }
+        }
+
+        final int entry = historyCount++;
+        if (entry >= historyNames.length) {
+            historyNames = Arrays.copyOf(historyNames, historyNames.length * 2);
+            historyNext = Arrays.copyOf(historyNext, historyNext.length * 2);
+        }
+        historyNames[entry] = nameId;
+        historyNext[entry] = NONE;
+        if (historyTail[uuidId] == NONE) {
+            historyHead[uuidId] = entry;
+        } else {
+            historyNext[historyTail[uuidId]] = entry;
+        }
+        historyTail[uuidId] = entry;
+    }
+
+    /**
+     * Marks the given UUID as a known user.
+     *
+     * @param uuid the UUID
+     */
+    public void add(final UUID uuid) {
+        lock.writeLock().lock();
+        try {
+            final int id = uuidId(uuid);
+            if (!present.get(id)) {
+                present.set(id);
+                presentCount++;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public void remove(final UUID uuid) {
+        lock.writeLock().lock();
+        try {
+            final int id = findUUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (id != NONE && present.get(id)) {
+                present.clear(id);
+                presentCount--;
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    public boolean contains(final UUID uuid) {
+        lock.readLock().lock();
+        try {
+            final int id = findUUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            return id != NONE && present.get(id);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return the amount of known users.
+     */
+    public int size() {
+        lock.readLock().lock();
+        try {
+            return presentCount;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @return a live, unmodifiable view of every known user.
+     */
+    public Set<UUID> getUUIDs() {
+        return uuidView;
+    }
+
+    public UUID getUUID(final String name) {
+        lock.readLock().lock();
+        try {
+            final int id = findName(name);
+            return id == NONE || nameOwners[id] == NONE ? null : uuid(nameOwners[id]);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Maps the given name to the given UUID and adds it to the name history of that UUID.
+     *
+     * @param name the name
+     * @param uuid the UUID
+     * @return the UUID previously mapped to the name, or null
+     */
+    public UUID putName(final String name, final UUID uuid) {
+        lock.writeLock().lock();
+        try {
+            final int nameId = nameId(name);
+            final int uuidId = uuidId(uuid);
+            final int previous = nameOwners[nameId];
+            nameOwners[nameId] = uuidId;
+            if (previous == NONE) {
+                liveNames++;
+            }
+            addHistory(uuidId, nameId);
+            return previous == NONE ? null : uuid(previous);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Unmaps the given name, keeping it in the name history of its previous owner.
+     *
+     * @param name the name
+     * @return the UUID previously mapped to the name, or null
+     */
+    public UUID removeName(final String name) {
+        lock.writeLock().lock();
+        try {
+            final int id = findName(name);
+            if (id == NONE || nameOwners[id] == NONE) {
+                return null;
+            }
+            final int previous = nameOwners[id];
+            nameOwners[id] = NONE;
+            liveNames--;
+            return uuid(previous);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return the amount of names currently mapped to a UUID.
+     */
+    public int getNameCount() {
+        lock.readLock().lock();
+        try {
+            return liveNames;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Passes every name currently mapped to a UUID to the given consumer.
+     *
+     * @param consumer the consumer
+     */
+    public void forEachName(final BiConsumer<String, UUID> consumer) {
+        lock.readLock().lock();
+        try {
+            for (int i = 0; i < nameCount; i++) {
+                if (nameOwners[i] != NONE) {
+                    consumer.accept(names[i], uuid(nameOwners[i]));
+                }
+            }
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * @param uuid the UUID
+     * @return every name the given UUID has been seen with, oldest first, or null if it has none.
+     */
+    public List<String> getHistory(final UUID uuid) {
+        lock.readLock().lock();
+        try {
+            final int id = findUUID(uuid.getMostSignificantBits(), uuid.getLeastSignificantBits());
+            if (id == NONE || historyHead[id] == NONE) {
+                return null;
+            }
+            final List<String> list = new ArrayList<>();
+            for (int entry = historyHead[id]; entry != NONE; entry = historyNext[entry]) {
+                list.add(names[historyNames[entry]]);
+            }
+            return Collections.unmodifiableList(list);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private final class UUIDView extends AbstractSet<UUID> {
+        @Override
+        public boolean contains(final Object o) {
+            return o instanceof UUID && UserIndex.this.contains((UUID) o);
+        }
+
+        @Override
+        public int size() {
+            return UserIndex.this.size();
+        }
+
+        /**
+         * Iterates over a copy of the UUIDs taken when the iterator is created, so clearing or reloading the index
+         * meanwhile does not affect it.
+         */
+        @Override
+        public Iterator<UUID> iterator() {
+            final long[] snapshot;
+            final int length;
+            lock.readLock().lock();
+            try {
+                snapshot = new long[present.cardinality() * 2];
+                int i = 0;
+                for (int id = present.nextSetBit(0); id != NONE && id < uuidCount && i < snapshot.length; id = present.nextSetBit(id + 1)) {
+                    snapshot[i++] = uuids.get(id * 2);
+                    snapshot[i++] = uuids.get(id * 2 + 1);
+                }
+                length = i;
+            } finally {
+                lock.readLock().unlock();
+            }
+
+            return new Iterator<UUID>() {
+                private int next = 0;
+
+                @Override
+                public boolean hasNext() {
+                    return next < length;
+                }
+
+                @Override
+                public UUID next() {
+                    if (next >= length) {
+                        throw new NoSuchElementException();
+                    }
+                    final UUID uuid = new UUID(snapshot[next], snapshot[next + 1]);
+                    next += 2;
+                    return uuid;
+                }
+            };
+        }
+    }
+}
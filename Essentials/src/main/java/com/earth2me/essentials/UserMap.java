@@ -1,11 +1,18 @@
 package com.earth2me.essentials;
 
 import com.earth2me.essentials.api.UserDoesNotExistException;
+import com.earth2me.essentials.config.storage.SqliteUserStorage;
+import com.earth2me.essentials.config.storage.UserStorage;
+import com.earth2me.essentials.config.storage.UserStorageMigration;
+import com.earth2me.essentials.config.storage.YamlUserStorage;
+import com.earth2me.essentials.economy.EconomyLayer;
+import com.earth2me.essentials.economy.EconomyLayers;
 import com.earth2me.essentials.utils.StringUtil;
 import com.google.common.base.Charsets;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
 import com.google.common.util.concurrent.UncheckedExecutionException;
 import net.ess3.api.IEssentials;
@@ -13,17 +20,23 @@ import net.ess3.api.MaxMoneyException;
 import org.bukkit.entity.Player;
 
 import java.io.File;
+import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
+import java.math.BigDecimal;
+import java.sql.SQLException;
 import java.text.MessageFormat;
-import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.UUID;
-import java.util.concurrent.ConcurrentSkipListMap;
-import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Level;
 import java.util.regex.Pattern;
 
@@ -31,11 +44,18 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
     private static boolean legacy = false;
     private static Method getLegacy;
     private final transient IEssentials ess;
-    private final transient ConcurrentSkipListSet<UUID> keys = new ConcurrentSkipListSet<>();
-    private final transient ConcurrentSkipListMap<String, UUID> names = new ConcurrentSkipListMap<>();
-    private final transient ConcurrentSkipListMap<UUID, ArrayList<String>> history = new ConcurrentSkipListMap<>();
+    private final transient UserIndex index;
     private final UUIDMap uuidMap;
+    private final UserStorage storage;
     private final transient Cache<String, User> users;
+    private final transient Map<UUID, User> pinned = new ConcurrentHashMap<>();
+    private final transient AtomicLong pinnedHits = new AtomicLong();
+    private final transient LoadTimes loadTimes = new LoadTimes(1024);
+    private final transient AtomicLong mainThreadLoads = new AtomicLong();
+    private final transient Cache<UUID, UserSummary> summaries = CacheBuilder.newBuilder().softValues().build();
+    private final transient UserFieldIndex fieldIndex = new UserFieldIndex();
+    private final transient BalanceRanking balanceRanking = new BalanceRanking();
+    private final transient BalanceLocks balanceLocks = new BalanceLocks(64);
     private final Pattern validUserPattern = Pattern.compile("^[a-zA-Z0-9_]{2,16}$");
 
     private static final String WARN_UUID_NOT_REPLACE = "Found UUID {0} for player {1}, but player already has a UUID ({2}). Not replacing UUID in usermap.";
@@ -43,18 +63,28 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
     public UserMap(final IEssentials ess) {
         super();
         this.ess = ess;
+        index = new UserIndex(ess.getSettings().isUserIndexMapped() ? new File(ess.getDataFolder(), "usermap.idx") : null);
         uuidMap = new UUIDMap(ess);
+        storage = createStorage(ess);
+        try {
+            fieldIndex.load(new File(ess.getDataFolder(), "userindex.bin"));
+        } catch (final IOException e) {
+            ess.getLogger().log(Level.WARNING, "Failed to load the user field index, it will be rebuilt", e);
+        }
         //RemovalListener<UUID, User> remListener = new UserMapRemovalListener();
         //users = CacheBuilder.newBuilder().maximumSize(ess.getSettings().getMaxUserCacheCount()).softValues().removalListener(remListener).build(this);
-        final CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
-        final int maxCount = ess.getSettings().getMaxUserCacheCount();
+        // Online players are pinned separately, so offline users are evicted by weight instead of being soft referenced
+        CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
         try {
-            cacheBuilder.maximumSize(maxCount);
+            cacheBuilder.maximumWeight(ess.getSettings().getMaxUserCacheWeight())
+                .weigher((String key, User user) -> user.getCacheWeight())
+                .recordStats();
         } catch (final NoSuchMethodError nsme) {
             legacy = true;
-            legacyMaximumSize(cacheBuilder, maxCount);
+            cacheBuilder = CacheBuilder.newBuilder();
+            legacyMaximumSize(cacheBuilder, ess.getSettings().getMaxUserCacheCount());
+            cacheBuilder.softValues();
         }
-        cacheBuilder.softValues();
         if (!legacy) {
             users = cacheBuilder.build(this);
         } else {
@@ -62,40 +92,67 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
         }
     }
 
+    private static UserStorage createStorage(final IEssentials ess) {
+        final String type = ess.getSettings().getUserStorageType();
+        if (SqliteUserStorage.TYPE.equals(type)) {
+            try {
+                final SqliteUserStorage storage = new SqliteUserStorage(new File(ess.getDataFolder(), "userdata.db"));
+                importMigrationChanges(ess, storage);
+                return storage;
+            } catch (final SQLException e) {
+                ess.getLogger().log(Level.SEVERE, "Failed to open the userdata database, falling back to YAML userdata storage", e);
+            }
+        } else if (!YamlUserStorage.TYPE.equals(type)) {
+            ess.getLogger().warning("Unknown user storage type " + type + ", falling back to YAML userdata storage");
+        }
+        return new YamlUserStorage(new File(ess.getDataFolder(), "userdata"));
+    }
+
+    // The userdata folder keeps changing after a migration until the server restarts with the database.
+    private static void importMigrationChanges(final IEssentials ess, final SqliteUserStorage storage) throws SQLException {
+        final long since = storage.getMigrationStart();
+        final File folder = new File(ess.getDataFolder(), "userdata");
+        if (since < 0 || !folder.isDirectory()) {
+            return;
+        }
+        ess.getLogger().info("Importing userdata files changed since the migration to the userdata database...");
+        final UserStorageMigration migration = new UserStorageMigration(folder, storage, true, uuid -> false, since);
+        try {
+            migration.run(processed -> {
+            });
+        } catch (final IOException e) {
+            ess.getLogger().log(Level.SEVERE, "Failed to read the userdata folder, will retry on the next start", e);
+            return;
+        }
+        if (migration.getFailed() > 0) {
+            ess.getLogger().severe("Failed to import " + migration.getFailed() + " userdata files, will retry on the next start");
+            return;
+        }
+        storage.clearMigrationStart();
+        ess.getLogger().info("Imported " + migration.getMigrated() + " changed userdata files.");
+    }
+
     private void loadAllUsersAsync(final IEssentials ess) {
         ess.runTaskAsynchronously(() -> {
             synchronized (users) {
-                final File userdir = new File(ess.getDataFolder(), "userdata");
-                if (!userdir.exists()) {
-                    return;
-                }
-                keys.clear();
+                index.clear();
                 users.invalidateAll();
-                for (final String string : userdir.list()) {
-                    if (!string.endsWith(".yml")) {
-                        continue;
-                    }
-                    final String name = string.substring(0, string.length() - 4);
-                    try {
-                        keys.add(UUID.fromString(name));
-                    } catch (final IllegalArgumentException ex) {
-                        //Ignore these users till they rejoin.
-                    }
-                }
-                uuidMap.loadAllUsers(names, history);
+                pinned.keySet().removeIf(uuid -> ess.getServer().getPlayer(uuid) == null);
+                storage.forEachUser(index::add);
+                uuidMap.loadAllUsers(index);
             }
         });
     }
 
     public boolean userExists(final UUID uuid) {
-        return keys.contains(uuid);
+        return index.contains(uuid);
     }
 
     public User getUser(final String name) {
         try {
             final String sanitizedName = StringUtil.safeString(name);
-            if (names.containsKey(sanitizedName)) {
-                final UUID uuid = names.get(sanitizedName);
+            final UUID uuid = index.getUUID(sanitizedName);
+            if (uuid != null) {
                 return getUser(uuid);
             }
 
@@ -112,7 +169,188 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
         }
     }
 
+    /**
+     * Gets the UUID a name was last seen with, without loading the user.
+     *
+     * @param name the name
+     * @return the UUID, or null if the name is unknown
+     */
+    public UUID getUUID(final String name) {
+        return index.getUUID(StringUtil.safeString(name));
+    }
+
+    /**
+     * Gets a summary of the given user, reading only the summarized fields if the user is not loaded.
+     * <p>
+     * Summaries are cached and kept up to date by user saves. On a cache miss only the summarized keys of the
+     * stored user data are parsed, see {@link UserSummary#read(UUID, java.util.concurrent.Callable, ISettings)}.
+     *
+     * @param uuid the UUID of the user
+     * @return the summary, or null if the user does not exist
+     */
+    public UserSummary getSummary(final UUID uuid) {
+        final User loadedUser = getLoadedUser(uuid);
+        if (loadedUser != null) {
+            return loadedUser.getSummary();
+        }
+        if (ess.getServer().getPlayer(uuid) != null) {
+            final User user = getUser(uuid);
+            return user == null ? null : user.getSummary();
+        }
+
+        final UserSummary summary = summaries.getIfPresent(uuid);
+        if (summary != null) {
+            return summary;
+        }
+        if (!storage.exists(uuid)) {
+            return null;
+        }
+
+        UserSummary loaded;
+        try {
+            loaded = UserSummary.read(uuid, storage.reader(uuid), ess.getSettings());
+        } catch (final Exception e) {
+            ess.getLogger().log(Level.WARNING, "Failed to read the user data of " + uuid, e);
+            return null;
+        }
+        if (loaded.getName() == null) {
+            final List<String> names = index.getHistory(uuid);
+            if (names != null) {
+                loaded = loaded.withName(names.get(names.size() - 1));
+            }
+        }
+        summaries.put(uuid, loaded);
+        fieldIndex.update(loaded);
+        return loaded;
+    }
+
+    /**
+     * Gets the balance of the given user without loading them or writing their user data.
+     * <p>
+     * When an {@link EconomyLayer} is selected, the stored balance is only a copy of the balance of the layer, so
+     * the user is loaded and the balance is read from the layer instead.
+     *
+     * @param uuid the UUID of the user
+     * @return the balance, or null if the user does not exist
+     */
+    public BigDecimal getBalance(final UUID uuid) {
+        if (EconomyLayers.isLayerSelected()) {
+            final User user = getUser(uuid);
+            return user == null ? null : user.getMoney();
+        }
+        final User loaded = getLoadedUser(uuid);
+        if (loaded != null) {
+            return loaded.getMoney();
+        }
+        final UserFieldIndex.Row row = fieldIndex.get(uuid);
+        if (row != null) {
+            return row.getBalance();
+        }
+        final UserSummary summary = getSummary(uuid);
+        return summary == null ? null : summary.getMoney();
+    }
+
+    /**
+     * Looks up the balance of a user in a currency without loading them, in the same way as {@link #getBalance(UUID)}.
+     *
+     * @param uuid     the UUID of the user
+     * @param currency the currency id, 0 for the default balance
+     * @return the balance, or null if the user does not exist
+     */
+    public BigDecimal getBalance(final UUID uuid, final int currency) {
+        if (currency == 0) {
+            return getBalance(uuid);
+        }
+        final String name = ess.getSettings().getCurrencyName(currency);
+        if (name == null) {
+            throw new IllegalArgumentException("Unknown currency id " + currency);
+        }
+        final User loaded = getLoadedUser(uuid);
+        if (loaded != null) {
+            return loaded.getMoney(currency);
+        }
+        final UserSummary summary = getSummary(uuid);
+        if (summary == null) {
+            return null;
+        }
+        final BigDecimal balance = summary.getMoney(name);
+        if (balance != null) {
+            return balance;
+        }
+        // Same default as UserData#getMoney(int)
+        return summary.isNPC() ? BigDecimal.ZERO : ess.getSettings().getStartingBalance();
+    }
+
+    /**
+     * Checks whether the given user exists without loading them.
+     *
+     * @param uuid the UUID of the user
+     * @return whether the user exists
+     */
+    public boolean exists(final UUID uuid) {
+        return getLoadedUser(uuid) != null || fieldIndex.contains(uuid) || storage.exists(uuid);
+    }
+
+    /**
+     * Gets the given user if they are online or held by the cache, without loading them.
+     *
+     * @param uuid the UUID of the user
+     * @return the user, or null if they are not loaded
+     */
+    public User getLoadedUser(final UUID uuid) {
+        final User pinnedUser = pinned.get(uuid);
+        if (pinnedUser != null || legacy) {
+            return pinnedUser;
+        }
+        return users.getIfPresent(uuid.toString());
+    }
+
+    void updateSummary(final UserSummary summary) {
+        summaries.put(summary.getUUID(), summary);
+        fieldIndex.update(summary);
+    }
+
+    public UserFieldIndex getFieldIndex() {
+        return fieldIndex;
+    }
+
+    public BalanceRanking getBalanceRanking() {
+        return balanceRanking;
+    }
+
+    public BalanceLocks getBalanceLocks() {
+        return balanceLocks;
+    }
+
+    /**
+     * Adds every known user which is missing from the field index, reading only their summarized fields.
+     * This should not be called on the main thread.
+     */
+    public void completeFieldIndex() {
+        for (final UUID uuid : getAllUniqueUsers()) {
+            if (!fieldIndex.contains(uuid)) {
+                final UserSummary summary = getSummary(uuid);
+                if (summary != null) {
+                    fieldIndex.update(summary);
+                }
+            }
+        }
+    }
+
+    public void saveFieldIndex() {
+        try {
+            fieldIndex.save(new File(ess.getDataFolder(), "userindex.bin"));
+        } catch (final IOException e) {
+            ess.getLogger().log(Level.WARNING, "Failed to save the user field index", e);
+        }
+    }
+
     public User getUser(final UUID uuid) {
+        final User pinnedUser = pinned.get(uuid);
+        if (pinnedUser != null) {
+            pinnedHits.incrementAndGet();
+            return pinnedUser;
+        }
         try {
             if (!legacy) {
                 return ((LoadingCache<String, User>) users).get(uuid.toString());
@@ -126,19 +364,20 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
 
     public void trackUUID(final UUID uuid, final String name, final boolean replace) {
         if (uuid != null) {
-            keys.add(uuid);
+            index.add(uuid);
             if (name != null && name.length() > 0) {
                 final String keyName = ess.getSettings().isSafeUsermap() ? StringUtil.safeString(name) : name;
-                if (!names.containsKey(keyName)) {
-                    names.put(keyName, uuid);
-                    uuidMap.writeUUIDMap();
-                } else if (!isUUIDMatch(uuid, keyName)) {
+                final UUID existing = index.getUUID(keyName);
+                if (existing == null) {
+                    index.putName(keyName, uuid);
+                    uuidMap.writeUUIDMap(keyName, uuid);
+                } else if (!existing.equals(uuid)) {
                     if (replace) {
-                        ess.getLogger().info("Found new UUID for " + name + ". Replacing " + names.get(keyName).toString() + " with " + uuid.toString());
-                        names.put(keyName, uuid);
-                        uuidMap.writeUUIDMap();
+                        ess.getLogger().info("Found new UUID for " + name + ". Replacing " + existing.toString() + " with " + uuid.toString());
+                        index.putName(keyName, uuid);
+                        uuidMap.writeUUIDMap(keyName, uuid);
                     } else {
-                        ess.getLogger().log(Level.INFO, MessageFormat.format(WARN_UUID_NOT_REPLACE, uuid.toString(), name, names.get(keyName).toString()), new RuntimeException());
+                        ess.getLogger().log(Level.INFO, MessageFormat.format(WARN_UUID_NOT_REPLACE, uuid.toString(), name, existing.toString()), new RuntimeException());
                     }
                 }
             }
@@ -146,36 +385,155 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
     }
 
     public boolean isUUIDMatch(final UUID uuid, final String name) {
-        return names.containsKey(name) && names.get(name).equals(uuid);
+        return uuid.equals(index.getUUID(name));
     }
 
     @Override
     public User load(final String stringUUID) throws Exception {
+        final long start = System.nanoTime();
         final UUID uuid = UUID.fromString(stringUUID);
         Player player = ess.getServer().getPlayer(uuid);
         if (player != null) {
             final User user = new User(player, ess);
             trackUUID(uuid, user.getName(), true);
+            pinned.putIfAbsent(uuid, user);
+            recordLoad(start);
             return user;
         }
 
-        final File userFile = getUserFileFromID(uuid);
-
-        if (userFile.exists()) {
+        if (storage.exists(uuid)) {
             player = new OfflinePlayer(uuid, ess.getServer());
             final User user = new User(player, ess);
             ((OfflinePlayer) player).setName(user.getLastAccountName());
             trackUUID(uuid, user.getName(), false);
+            recordLoad(start);
             return user;
         }
 
         throw new Exception("User not found!");
     }
 
+    private void recordLoad(final long start) {
+        loadTimes.add(System.nanoTime() - start);
+        if (ess.getServer().isPrimaryThread()) {
+            mainThreadLoads.incrementAndGet();
+            if (ess.getSettings().isDebug()) {
+                ess.getLogger().log(Level.INFO, "Loaded user data on the main thread", new RuntimeException());
+            }
+        }
+    }
+
+    /**
+     * Loads the stored data of a joining player into the cache, so the join does not have to read it on the
+     * main thread. This should be called from the pre-login thread of the player, which may block. If loading
+     * takes longer than the given timeout, it carries on in the background and the join waits for it instead.
+     *
+     * @param uuid          the UUID of the joining player
+     * @param timeoutMillis how long to wait for the data to be loaded
+     * @param warnMillis    how long loading may take before a warning is logged, or 0 to never log one
+     */
+    public void warmUser(final UUID uuid, final long timeoutMillis, final long warnMillis) {
+        if (legacy || pinned.containsKey(uuid) || users.getIfPresent(uuid.toString()) != null || !storage.exists(uuid)) {
+            return;
+        }
+        final CompletableFuture<User> future = new CompletableFuture<>();
+        ess.runTaskAsynchronously(() -> {
+            final long start = System.nanoTime();
+            try {
+                future.complete(getUser(uuid));
+            } catch (final RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+            final long took = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+            if (warnMillis > 0 && took > warnMillis) {
+                ess.getLogger().warning("Loading the user data of " + uuid + " took " + took + "ms, which is longer than the user-warmup-warn-threshold of " + warnMillis + "ms.");
+            }
+        });
+        try {
+            future.get(timeoutMillis, TimeUnit.MILLISECONDS);
+        } catch (final TimeoutException e) {
+            ess.getLogger().warning("Loading the user data of " + uuid + " took longer than the user-warmup-timeout of " + timeoutMillis + "ms, letting them join anyway.");
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (final ExecutionException e) {
+            ess.getLogger().log(Level.WARNING, "Failed to load the user data of " + uuid + " before they joined", e.getCause());
+        }
+    }
+
+    /**
+     * @return how many users had to be loaded on the main thread since the server started.
+     */
+    public long getMainThreadLoads() {
+        return mainThreadLoads.get();
+    }
+
+    /**
+     * Keeps the given user in memory until {@link #unpinUser(UUID)} is called, regardless of the cache weight.
+     * This should only be used for online players.
+     */
+    public void pinUser(final User user) {
+        pinned.putIfAbsent(user.getBase().getUniqueId(), user);
+    }
+
+    /**
+     * Hands a user which went offline back to the cache, where it may be evicted.
+     */
+    public void unpinUser(final UUID uuid) {
+        final User user = pinned.remove(uuid);
+        if (user != null && users.getIfPresent(uuid.toString()) == null) {
+            users.put(uuid.toString(), user);
+        }
+    }
+
+    public int getPinnedCount() {
+        return pinned.size();
+    }
+
+    public long getCachedCount() {
+        return users.size();
+    }
+
+    /**
+     * @return the summed weight of every user currently held by the cache.
+     */
+    public long getCachedWeight() {
+        long weight = 0;
+        for (final User user : users.asMap().values()) {
+            weight += user.getCacheWeight();
+        }
+        return weight;
+    }
+
+    /**
+     * @return the statistics of the user cache, not counting lookups of pinned users.
+     */
+    public CacheStats getCacheStats() {
+        return legacy ? new CacheStats(0, 0, 0, 0, 0, 0) : users.stats();
+    }
+
+    /**
+     * @return the fraction of user lookups which did not have to load the user, including lookups of pinned users.
+     */
+    public double getCacheHitRate() {
+        final CacheStats stats = getCacheStats();
+        final long hits = stats.hitCount() + pinnedHits.get();
+        final long requests = hits + stats.missCount();
+        return requests == 0 ? 1.0 : (double) hits / requests;
+    }
+
+    /**
+     * @param percentile the percentile, between 0 and 1
+     * @return the given percentile of the most recent user load times, in milliseconds
+     */
+    public double getLoadTimePercentile(final double percentile) {
+        return loadTimes.percentile(percentile) / 1000000.0;
+    }
+
     public User load(final org.bukkit.OfflinePlayer player) throws UserDoesNotExistException {
         if (player == null) {
             throw new IllegalArgumentException("Player cannot be null!");
         }
+        final long start = System.nanoTime();
 
         if (player instanceof Player) {
             if (ess.getSettings().isDebug()) {
@@ -183,17 +541,18 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
             }
             final User user = new User((Player) player, ess);
             trackUUID(player.getUniqueId(), player.getName(), true);
+            recordLoad(start);
             return user;
         }
 
-        final File userFile = getUserFileFromID(player.getUniqueId());
+        final boolean exists = storage.exists(player.getUniqueId());
         if (ess.getSettings().isDebug()) {
-            ess.getLogger().info("Loading OfflinePlayer into user map. Has data: " + userFile.exists() + " for " + player);
+            ess.getLogger().info("Loading OfflinePlayer into user map. Has data: " + exists + " for " + player);
         }
 
         final OfflinePlayer essPlayer = new OfflinePlayer(player.getUniqueId(), ess.getServer());
         final User user = new User(essPlayer, ess);
-        if (userFile.exists()) {
+        if (exists) {
             essPlayer.setName(user.getLastAccountName());
         } else {
             if (ess.getSettings().isDebug()) {
@@ -213,11 +572,13 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
         }
 
         trackUUID(player.getUniqueId(), user.getName(), false);
+        recordLoad(start);
         return user;
     }
 
     @Override
     public void reloadConfig() {
+        summaries.invalidateAll();
         getUUIDMap().forceWriteUUIDMap();
         loadAllUsersAsync(ess);
     }
@@ -227,46 +588,52 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
     }
 
     public void removeUser(final String name) {
-        if (names == null) {
-            ess.getLogger().warning("Name collection is null, cannot remove user.");
-            return;
-        }
-        final UUID uuid = names.get(name);
+        final UUID uuid = index.getUUID(name);
         if (uuid != null) {
-            keys.remove(uuid);
+            index.remove(uuid);
             users.invalidate(uuid.toString());
+            pinned.remove(uuid);
+            summaries.invalidate(uuid);
+            fieldIndex.remove(uuid);
+            balanceRanking.remove(uuid);
+        }
+        if (index.removeName(name) != null) {
+            uuidMap.removeUUIDMap(name);
+        }
+        final String safeName = StringUtil.safeString(name);
+        if (index.removeName(safeName) != null) {
+            uuidMap.removeUUIDMap(safeName);
         }
-        names.remove(name);
-        names.remove(StringUtil.safeString(name));
     }
 
     public void removeUserUUID(final String uuid) {
         users.invalidate(uuid);
+        pinned.remove(UUID.fromString(uuid));
     }
 
     public Set<UUID> getAllUniqueUsers() {
-        return Collections.unmodifiableSet(keys);
+        return index.getUUIDs();
     }
 
     public int getUniqueUsers() {
-        return keys.size();
-    }
-
-    protected ConcurrentSkipListMap<String, UUID> getNames() {
-        return names;
+        return index.size();
     }
 
-    protected ConcurrentSkipListMap<UUID, ArrayList<String>> getHistory() {
-        return history;
+    protected UserIndex getIndex() {
+        return index;
     }
 
     public List<String> getUserHistory(final UUID uuid) {
-        return history.get(uuid);
+        return index.getHistory(uuid);
     }
 
     public UUIDMap getUUIDMap() {
         return uuidMap;
     }
+
+    public UserStorage getStorage() {
+        return storage;
+    }
     //  class UserMapRemovalListener implements RemovalListener
     //  {
     //      @Override
@@ -280,11 +647,6 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
     //      }
     //  }
 
-    private File getUserFileFromID(final UUID uuid) {
-        final File userFolder = new File(ess.getDataFolder(), "userdata");
-        return new File(userFolder, uuid.toString() + ".yml");
-    }
-
     public File getUserFileFromString(final String name) {
         final File userFolder = new File(ess.getDataFolder(), "userdata");
         return new File(userFolder, StringUtil.sanitizeFileName(name) + ".yml");
@@ -314,7 +676,7 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
         if (UUID.nameUUIDFromBytes(("OfflinePlayer:" + name).getBytes(Charsets.UTF_8)).equals(uuid)) {
             return null;
         } else {
-            names.put(name, uuid);
+            index.putName(name, uuid);
             return getUser(uuid);
         }
     }
@@ -366,4 +728,38 @@ public class UserMap extends CacheLoader<String, User> implements IConf {
         }
         return legacyUsers;
     }
+
+    /**
+     * Ring buffer of the most recent user load times.
+     */
+    private static final class LoadTimes {
+        private final long[] samples;
+        private int next = 0;
+        private int count = 0;
+
+        private LoadTimes(final int capacity) {
+            this.samples = new long[capacity];
+        }
+
+        private synchronized void add(final long nanos) {
+            samples[next] = nanos;
+            next = (next + 1) % samples.length;
+            if (count < samples.length) {
+                count++;
+            }
+        }
+
+        private long percentile(final double percentile) {
+            final long[] sorted;
+            synchronized (this) {
+                if (count == 0) {
+                    return 0;
+                }
+                sorted = Arrays.copyOf(samples, count);
+            }
+            Arrays.sort(sorted);
+            final int rank = (int) Math.ceil(percentile * sorted.length) - 1;
+            return sorted[Math.max(0, Math.min(sorted.length - 1, rank))];
+        }
+    }
 }
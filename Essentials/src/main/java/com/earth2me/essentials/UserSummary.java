@@ -0,0 +1,341 @@
+package com.earth2me.essentials;
+
+import com.earth2me.essentials.config.EssentialsConfiguration;
+import com.earth2me.essentials.config.entities.LazyLocation;
+import com.earth2me.essentials.config.holders.UserConfigHolder;
+import org.bukkit.Location;
+import org.spongepowered.configurate.CommentedConfigurationNode;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+
+/**
+ * A read-only snapshot of the fields of a user which are commonly needed while the user is offline.
+ * <p>
+ * Unlike a {@link User}, a summary can be read from the stored user data without parsing homes, mail,
+ * powertools and cooldowns. The stored data is scanned line by line and only the summarized keys are parsed,
+ * while homes are only counted. Summaries are also cached by the {@link UserMap}.
+ */
+public final class UserSummary {
+    // The top level keys a summary is read from, with the keys to keep below them or null to keep all of them
+    private static final Map<String, Set<String>> SUMMARY_KEYS = new HashMap<>();
+    private final UUID uuid;
+    private final String name;
+    private final BigDecimal money;
+    private final String ipAddress;
+    private final long lastLogin;
+    private final long lastLogout;
+    private final boolean npc;
+    private final boolean muted;
+    private final String muteReason;
+    private final long muteTimeout;
+    private final String geoLocation;
+    private final LazyLocation logoutLocation;
+    private final int homeCount;
+    private final boolean baltopExempt;
+    private final Map<String, BigDecimal> currencies;
+
+    static {
+        SUMMARY_KEYS.put("npc", null);
+        SUMMARY_KEYS.put("money", null);
+        SUMMARY_KEYS.put("last-account-name", null);
+        SUMMARY_KEYS.put("ip-address", null);
+        SUMMARY_KEYS.put("muted", null);
+        SUMMARY_KEYS.put("mute-reason", null);
+        SUMMARY_KEYS.put("geolocation", null);
+        SUMMARY_KEYS.put("logoutlocation", null);
+        SUMMARY_KEYS.put("baltop-exempt", null);
+        SUMMARY_KEYS.put("currencies", null);
+        SUMMARY_KEYS.put("timestamps", new HashSet<>(Arrays.asList("login", "logout", "mute")));
+    }
+
+    private UserSummary(final UUID uuid, final String name, final BigDecimal money, final String ipAddress, final long lastLogin, final long lastLogout,
+                        final boolean npc, final boolean muted, final String muteReason, final long muteTimeout, final String geoLocation,
+                        final LazyLocation logoutLocation, final int homeCount, final boolean baltopExempt, final Map<String, BigDecimal> currencies) {
+        this.uuid = uuid;
+        this.name = name;
+        this.money = money;
+        this.ipAddress = ipAddress == null ? "" : ipAddress;
+        this.lastLogin = lastLogin;
+        this.lastLogout = lastLogout;
+        this.npc = npc;
+        this.muted = muted;
+        this.muteReason = muteReason;
+        this.muteTimeout = muteTimeout;
+        this.geoLocation = geoLocation;
+        this.logoutLocation = logoutLocation;
+        this.homeCount = homeCount;
+        this.baltopExempt = baltopExempt;
+        this.currencies = currencies;
+    }
+
+    static UserSummary of(final UUID uuid, final UserConfigHolder holder) {
+        return new UserSummary(uuid, holder.lastAccountName(), holder.money(), holder.ipAddress(), holder.timestamps().login(),
+            holder.timestamps().logout(), holder.npc(), holder.muted(), holder.muteReason(), holder.timestamps().mute(),
+            holder.geolocation(), holder.logoutLocation(), holder.homes().size(), holder.baltopExempt(),
+            holder.currencies().isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(new HashMap<>(holder.currencies())));
+    }
+
+    /**
+     * Reads a summary from stored user data. Lines outside of the summarized keys are skipped without being
+     * parsed, and the homes are counted without being kept.
+     *
+     * @param uuid     the UUID of the user
+     * @param source   the reader of the stored user data
+     * @param settings the settings to take the balance defaults and limits from
+     * @throws Exception if the stored user data could not be read
+     */
+    static UserSummary read(final UUID uuid, final Callable<BufferedReader> source, final ISettings settings) throws Exception {
+        final StringBuilder kept = new StringBuilder(512);
+        int homeCount = -1;
+        try (final BufferedReader reader = source.call()) {
+            String section = null;
+            Set<String> children = null;
+            boolean countHomes = false;
+            boolean keepChild = true;
+            int childIndent = -1;
+            // The indent of the key a block scalar belongs to, whose deeper lines are text rather than keys
+            int scalarIndent = -1;
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int indent = 0;
+                while (indent < line.length() && line.charAt(indent) == ' ') {
+                    indent++;
+                }
+                if (indent == line.length()) {
+                    kept.append('\n');
+                    continue;
+                }
+
+                if (scalarIndent != -1) {
+                    if (indent > scalarIndent) {
+                        if (section != null && keepChild) {
+                            kept.append(line).append('\n');
+                        }
+                        continue;
+                    }
+                    scalarIndent = -1;
+                }
+                if (line.charAt(indent) == '#') {
+                    continue;
+                }
+
+                // Block sequences of a top level key start at the same indent as the key
+                if (indent == 0 && line.charAt(0) != '-') {
+                    final String key = keyOf(line);
+                    final String value = valueOf(line);
+                    section = null;
+                    countHomes = false;
+                    childIndent = -1;
+                    keepChild = true;
+                    if (key.equals("homes") && (value.isEmpty() || value.charAt(0) == '#')) {
+                        countHomes = true;
+                        homeCount = 0;
+                    } else if (key.equals("homes") || SUMMARY_KEYS.containsKey(key)) {
+                        section = key;
+                        // The lines of a flow collection are not keys, so they are always kept together
+                        children = value.startsWith("{") || value.startsWith("[") ? null : SUMMARY_KEYS.get(key);
+                        kept.append(line).append('\n');
+                    }
+                    if (isBlockScalar(value)) {
+                        scalarIndent = 0;
+                    }
+                    continue;
+                }
+
+                if (countHomes) {
+                    if (childIndent == -1) {
+                        childIndent = indent;
+                    }
+                    if (indent == childIndent && line.charAt(indent) != '-') {
+                        homeCount++;
+                    }
+                } else if (section != null) {
+                    if (children != null) {
+                        if (childIndent == -1) {
+                            childIndent = indent;
+                        }
+                        if (indent == childIndent) {
+                            keepChild = children.contains(keyOf(line.substring(indent)));
+                        }
+                    }
+                    if (keepChild) {
+                        kept.append(line).append('\n');
+                    }
+                }
+                if (isBlockScalar(valueOf(line.substring(indent)))) {
+                    scalarIndent = indent;
+                }
+            }
+        }
+
+        final String data = kept.toString();
+        final EssentialsConfiguration config = new EssentialsConfiguration(null, () -> new BufferedReader(new StringReader(data)), null);
+        config.load();
+        return read(uuid, config, settings, homeCount);
+    }
+
+    // The end of the key of the given line, skipping colons inside a quoted key
+    private static int keyEnd(final String line) {
+        final String trimmed = line.trim();
+        if (!trimmed.isEmpty() && (trimmed.charAt(0) == '\'' || trimmed.charAt(0) == '"')) {
+            final int start = line.indexOf(trimmed.charAt(0));
+            final int close = line.indexOf(trimmed.charAt(0), start + 1);
+            if (close != -1) {
+                return line.indexOf(':', close);
+            }
+        }
+        return line.indexOf(':');
+    }
+
+    private static String keyOf(final String line) {
+        final int colon = keyEnd(line);
+        final String key = (colon == -1 ? line : line.substring(0, colon)).trim();
+        if (key.length() >= 2 && (key.charAt(0) == '\'' || key.charAt(0) == '"') && key.charAt(key.length() - 1) == key.charAt(0)) {
+            return key.substring(1, key.length() - 1);
+        }
+        return key;
+    }
+
+    private static String valueOf(final String line) {
+        final int colon = keyEnd(line);
+        return colon == -1 ? "" : line.substring(colon + 1).trim();
+    }
+
+    private static boolean isBlockScalar(final String value) {
+        return value.startsWith("|") || value.startsWith(">");
+    }
+
+    /**
+     * Reads a summary from the raw nodes of a loaded user configuration.
+     *
+     * @param homeCount the amount of homes, or -1 to count the homes of the configuration
+     */
+    private static UserSummary read(final UUID uuid, final EssentialsConfiguration config, final ISettings settings, final int homeCount) {
+        final boolean npc = config.getBoolean("npc", false);
+
+        // Same rules as UserData#_getMoney
+        BigDecimal money = config.getBigDecimal("money", npc ? BigDecimal.ZERO : settings.getStartingBalance());
+        if (money.compareTo(settings.getMaxMoney()) > 0) {
+            money = settings.getMaxMoney();
+        }
+        if (money.compareTo(settings.getMinMoney()) < 0) {
+            money = settings.getMinMoney();
+        }
+
+        LazyLocation logoutLocation = null;
+        if (config.hasProperty("logoutlocation")) {
+            try {
+                logoutLocation = config.getLocation("logoutlocation");
+            } catch (final Exception ignored) {
+            }
+        }
+
+        final int homes;
+        if (homeCount >= 0) {
+            homes = homeCount;
+        } else {
+            final CommentedConfigurationNode section = config.getSection("homes");
+            homes = section == null ? 0 : section.childrenMap().size();
+        }
+        final Map<String, BigDecimal> currencies = new HashMap<>();
+        final CommentedConfigurationNode currencySection = config.getSection("currencies");
+        if (currencySection != null) {
+            for (final Object key : currencySection.childrenMap().keySet()) {
+                final BigDecimal balance = config.getBigDecimal("currencies." + key, null);
+                if (balance != null) {
+                    currencies.put(key.toString(), balance);
+                }
+            }
+        }
+        return new UserSummary(uuid, config.getString("last-account-name", null), money, config.getString("ip-address", ""),
+            config.getLong("timestamps.login", 0), config.getLong("timestamps.logout", 0), npc, config.getBoolean("muted", false),
+            config.getString("mute-reason", null), config.getLong("timestamps.mute", 0), config.getString("geolocation", null),
+            logoutLocation, homes, config.getBoolean("baltop-exempt", false),
+            currencies.isEmpty() ? Collections.emptyMap() : Collections.unmodifiableMap(currencies));
+    }
+
+    UserSummary withName(final String name) {
+        return new UserSummary(uuid, name, money, ipAddress, lastLogin, lastLogout, npc, muted, muteReason, muteTimeout, geoLocation, logoutLocation, homeCount, baltopExempt, currencies);
+    }
+
+    public UUID getUUID() {
+        return uuid;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public BigDecimal getMoney() {
+        return money;
+    }
+
+    /**
+     * @param currency the name of a currency other than the default balance
+     * @return the stored balance in the currency, or null if the user never had one
+     */
+    public BigDecimal getMoney(final String currency) {
+        return currencies.get(currency);
+    }
+
+    public String getLastLoginAddress() {
+        return ipAddress;
+    }
+
+    public long getLastLogin() {
+        return lastLogin;
+    }
+
+    public long getLastLogout() {
+        return lastLogout;
+    }
+
+    public boolean isNPC() {
+        return npc;
+    }
+
+    public boolean isMuted() {
+        return muted;
+    }
+
+    public boolean hasMuteReason() {
+        return muteReason != null;
+    }
+
+    public String getMuteReason() {
+        return muteReason;
+    }
+
+    public long getMuteTimeout() {
+        return muteTimeout;
+    }
+
+    public String getGeoLocation() {
+        return geoLocation;
+    }
+
+    public Location getLogoutLocation() {
+        return logoutLocation != null ? logoutLocation.location() : null;
+    }
+
+    public int getHomeCount() {
+        return homeCount;
+    }
+
+    /**
+     * @return whether the user was excluded from the balance ranking when they were last online.
+     */
+    public boolean isBaltopExempt() {
+        return baltopExempt;
+    }
+}
@@ -7,19 +7,27 @@ import com.earth2me.essentials.utils.VersionUtil;
 import org.bukkit.Material;
 import org.bukkit.inventory.ItemStack;
 import org.spongepowered.configurate.CommentedConfigurationNode;
+import org.spongepowered.configurate.serialize.SerializationException;
 
 import java.io.File;
 import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
 
 import static com.earth2me.essentials.I18n.tl;
 
 public class Worth implements IConf {
     private final EssentialsConfiguration config;
+    // Indexed by Material ordinal, rebuilt whenever the config changes
+    private volatile PriceEntry[] prices = new PriceEntry[0];
 
     public Worth(final File dataFolder) {
         config = new EssentialsConfiguration(new File(dataFolder, "worth.yml"), "/worth.yml");
         config.load();
+        compile();
     }
 
     /**
@@ -30,36 +38,10 @@ public class Worth implements IConf {
      * @return The price from the config.
      */
     public BigDecimal getPrice(final IEssentials ess, final ItemStack itemStack) {
-        BigDecimal result;
-
-        final String itemname = itemStack.getType().toString().toLowerCase(Locale.ENGLISH).replace("_", "");
-
-        // Check for matches with data value from stack
-        // Note that we always default to BigDecimal.ONE.negate(), equivalent to -1
-        result = config.getBigDecimal("worth." + itemname + "." + itemStack.getDurability(), BigDecimal.ONE.negate());
-
-        // Check for matches with data value 0
-        if (result.signum() < 0) {
-            final CommentedConfigurationNode itemNameMatch = config.getSection("worth." + itemname);
-            if (itemNameMatch != null && ConfigurateUtil.getKeys(itemNameMatch).size() == 1) {
-                result = config.getBigDecimal("worth." + itemname + ".0", BigDecimal.ONE.negate());
-            }
-        }
-
-        // Check for matches with data value wildcard
-        if (result.signum() < 0) {
-            result = config.getBigDecimal("worth." + itemname + ".*", BigDecimal.ONE.negate());
-        }
-
-        // Check for matches with item name alone
-        if (result.signum() < 0) {
-            result = config.getBigDecimal("worth." + itemname, BigDecimal.ONE.negate());
-        }
-
-        if (result.signum() < 0) {
-            return null;
-        }
-        return result;
+        final int ordinal = itemStack.getType().ordinal();
+        final PriceEntry[] table = prices;
+        final PriceEntry entry = ordinal < table.length ? table[ordinal] : null;
+        return entry == null ? null : entry.getPrice(itemStack.getDurability());
     }
 
     /**
@@ -137,7 +119,7 @@ public class Worth implements IConf {
      * @param price     The new price of the item.
      */
     public void setPrice(final IEssentials ess, final ItemStack itemStack, final double price) {
-        String path = "worth." + itemStack.getType().toString().toLowerCase(Locale.ENGLISH).replace("_", "");
+        String path = "worth." + getWorthName(itemStack.getType());
 
         // Spigot 1.13+ throws an exception if a 1.13+ plugin even *attempts* to do set data.
         if (VersionUtil.getServerBukkitVersion().isLowerThan(VersionUtil.v1_13_0_R01) && itemStack.getType().getData() == null) {
@@ -147,10 +129,105 @@ public class Worth implements IConf {
 
         config.setProperty(path, price);
         config.save();
+        compile();
     }
 
     @Override
     public void reloadConfig() {
         config.load();
+        compile();
+    }
+
+    private void compile() {
+        final Material[] materials = Material.values();
+        final Map<String, Material> byName = new HashMap<>(materials.length * 2);
+        for (final Material material : materials) {
+            byName.put(getWorthName(material), material);
+        }
+
+        final PriceEntry[] table = new PriceEntry[materials.length];
+        for (final Map.Entry<String, CommentedConfigurationNode> item : ConfigurateUtil.getMap(config.getSection("worth")).entrySet()) {
+            final Material material = byName.get(item.getKey());
+            if (material != null) {
+                table[material.ordinal()] = PriceEntry.compile(item.getValue());
+            }
+        }
+        prices = table;
+    }
+
+    private static String getWorthName(final Material material) {
+        return material.toString().toLowerCase(Locale.ENGLISH).replace("_", "");
+    }
+
+    private static BigDecimal readPrice(final CommentedConfigurationNode node) {
+        if (node == null || node.virtual() || node.isMap() || node.isList()) {
+            return null;
+        }
+        try {
+            final BigDecimal price = node.get(BigDecimal.class);
+            // Negative prices are treated as missing, so the next tier is tried
+            return price == null || price.signum() < 0 ? null : price;
+        } catch (final SerializationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * The prices of one material, in the order they are looked up: by exact data value, by data value 0 if it
+     * is the only one listed, by the data value wildcard, and finally the price of the item name alone.
+     */
+    private static final class PriceEntry {
+        private final short[] data;
+        private final BigDecimal[] dataPrices;
+        private final BigDecimal only;
+        private final BigDecimal wildcard;
+        private final BigDecimal plain;
+
+        private PriceEntry(final short[] data, final BigDecimal[] dataPrices, final BigDecimal only, final BigDecimal wildcard, final BigDecimal plain) {
+            this.data = data;
+            this.dataPrices = dataPrices;
+            this.only = only;
+            this.wildcard = wildcard;
+            this.plain = plain;
+        }
+
+        private static PriceEntry compile(final CommentedConfigurationNode node) {
+            final Map<String, CommentedConfigurationNode> children = ConfigurateUtil.getMap(node);
+            final TreeMap<Short, BigDecimal> byData = new TreeMap<>();
+            for (final Map.Entry<String, CommentedConfigurationNode> child : children.entrySet()) {
+                final BigDecimal price = readPrice(child.getValue());
+                if (price == null) {
+                    continue;
+                }
+                try {
+                    byData.put(Short.parseShort(child.getKey()), price);
+                } catch (final NumberFormatException ignored) {
+                }
+            }
+
+            final short[] data = new short[byData.size()];
+            final BigDecimal[] dataPrices = new BigDecimal[byData.size()];
+            int i = 0;
+            for (final Map.Entry<Short, BigDecimal> entry : byData.entrySet()) {
+                data[i] = entry.getKey();
+                dataPrices[i++] = entry.getValue();
+            }
+            final BigDecimal only = children.size() == 1 ? byData.get((short) 0) : null;
+            return new PriceEntry(data, dataPrices, only, readPrice(children.get("*")), readPrice(node));
+        }
+
+        private BigDecimal getPrice(final short durability) {
+            final int index = Arrays.binarySearch(data, durability);
+            if (index >= 0) {
+                return dataPrices[index];
+            }
+            if (only != null) {
+                return only;
+            }
+            if (wildcard != null) {
+                return wildcard;
+            }
+            return plain;
+        }
     }
 }
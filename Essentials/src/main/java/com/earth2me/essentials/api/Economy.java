@@ -1,8 +1,10 @@
 package com.earth2me.essentials.api;
 
+import com.earth2me.essentials.BalanceLocks;
 import com.earth2me.essentials.Trade;
 import com.earth2me.essentials.User;
 import com.earth2me.essentials.config.EssentialsUserConfiguration;
+import com.earth2me.essentials.config.storage.UserStorage;
 import com.earth2me.essentials.utils.NumberUtil;
 import com.earth2me.essentials.utils.StringUtil;
 import com.google.common.base.Charsets;
@@ -11,7 +13,6 @@ import net.ess3.api.MaxMoneyException;
 import net.ess3.api.events.UserBalanceUpdateEvent;
 import org.bukkit.entity.Player;
 
-import java.io.File;
 import java.math.BigDecimal;
 import java.math.MathContext;
 import java.text.MessageFormat;
@@ -44,20 +45,14 @@ public class Economy {
     }
 
     private static void createNPCFile(String name) {
-        final File folder = new File(ess.getDataFolder(), "userdata");
+        final UserStorage storage = ess.getUserMap().getStorage();
         name = StringUtil.safeString(name);
-        if (!folder.exists()) {
-            if (!folder.mkdirs()) {
-                throw new RuntimeException("Error while creating userdata directory!");
-            }
-        }
         final UUID npcUUID = UUID.nameUUIDFromBytes(("NPC:" + name).getBytes(Charsets.UTF_8));
-        final File npcFile = new File(folder, npcUUID.toString() + ".yml");
-        if (npcFile.exists()) {
+        if (storage.exists(npcUUID)) {
             LOGGER.log(Level.SEVERE, MessageFormat.format(WARN_NPC_RECREATE_1, name, npcUUID.toString()), new RuntimeException());
             LOGGER.log(Level.SEVERE, WARN_NPC_RECREATE_2);
         }
-        final EssentialsUserConfiguration npcConfig = new EssentialsUserConfiguration(name, npcUUID, npcFile);
+        final EssentialsUserConfiguration npcConfig = new EssentialsUserConfiguration(name, npcUUID, storage);
         npcConfig.load();
         npcConfig.setProperty("npc", true);
         npcConfig.setProperty("lastAccountName", name);
@@ -112,6 +107,37 @@ public class Economy {
         return ess.getUser(uuid);
     }
 
+    // Offline balances are read from the user index so the whole user does not have to be loaded, unless an economy layer is selected.
+    private static BigDecimal getBalanceByUUID(final UUID uuid) {
+        if (ess == null) {
+            throw new RuntimeException(WARN_CALL_BEFORE_LOAD);
+        }
+        if (uuid == null) {
+            throw new IllegalArgumentException("Economy uuid cannot be null");
+        }
+        return ess.getUserMap().getBalance(uuid);
+    }
+
+    // Resolves a name like getUserByName does, but without loading the user.
+    private static UUID getUUIDByName(final String name) {
+        if (ess == null) {
+            throw new RuntimeException(WARN_CALL_BEFORE_LOAD);
+        }
+        if (name == null) {
+            throw new IllegalArgumentException("Economy username cannot be null");
+        }
+        final UUID uuid = ess.getUserMap().getUUID(name);
+        if (uuid != null) {
+            return uuid;
+        }
+        final Player player = ess.getServer().getPlayerExact(name);
+        if (player != null) {
+            return player.getUniqueId();
+        }
+        final UUID npcUUID = UUID.nameUUIDFromBytes(("NPC:" + name).getBytes(Charsets.UTF_8));
+        return ess.getUserMap().exists(npcUUID) ? npcUUID : null;
+    }
+
     /**
      * Returns the balance of a user
      *
@@ -140,11 +166,12 @@ public class Economy {
      */
     @Deprecated
     public static BigDecimal getMoneyExact(final String name) throws UserDoesNotExistException {
-        final User user = getUserByName(name);
-        if (user == null) {
+        final UUID uuid = getUUIDByName(name);
+        final BigDecimal balance = uuid == null ? null : getBalanceByUUID(uuid);
+        if (balance == null) {
             throw new UserDoesNotExistException(name);
         }
-        return getMoneyExact(user);
+        return balance;
     }
 
     /**
@@ -155,11 +182,11 @@ public class Economy {
      * @throws UserDoesNotExistException If the user does not exist
      */
     public static BigDecimal getMoneyExact(final UUID uuid) throws UserDoesNotExistException {
-        final User user = getUserByUUID(uuid);
-        if (user == null) {
+        final BigDecimal balance = getBalanceByUUID(uuid);
+        if (balance == null) {
             throw new UserDoesNotExistException(uuid);
         }
-        return getMoneyExact(user);
+        return balance;
     }
 
     /**
@@ -252,6 +279,24 @@ public class Economy {
         Trade.log("API", "Set", "API", user.getName(), new Trade(balance, ess), null, null, null, balance, ess);
     }
 
+    // Changes the balance in the same way as setMoney, computing the new balance from the one it replaces so concurrent changes are not lost
+    private static BigDecimal updateMoney(final User user, final User.BalanceChange<NoLoanPermittedException> change) throws NoLoanPermittedException, MaxMoneyException {
+        final BigDecimal result = user.updateMoney(balance -> {
+            final BigDecimal newBalance = change.apply(balance);
+            if (newBalance.compareTo(ess.getSettings().getMinMoney()) < 0) {
+                throw new NoLoanPermittedException();
+            }
+            if (newBalance.signum() < 0 && !user.isAuthorized("essentials.eco.loan")) {
+                throw new NoLoanPermittedException();
+            }
+            return newBalance;
+        }, UserBalanceUpdateEvent.Cause.API);
+        if (result != null) {
+            Trade.log("API", "Set", "API", user.getName(), new Trade(result, ess), null, null, null, result, ess);
+        }
+        return result;
+    }
+
     /**
      * Adds money to the balance of a user
      * <p>
@@ -320,8 +365,7 @@ public class Economy {
         if (user == null) {
             throw new IllegalArgumentException("Economy user cannot be null");
         }
-        final BigDecimal result = getMoneyExact(user).add(amount, MATH_CONTEXT);
-        setMoney(user, result);
+        final BigDecimal result = updateMoney(user, balance -> balance.add(amount, MATH_CONTEXT));
         Trade.log("API", "Add", "API", user.getName(), new Trade(amount, ess), null, null, null, result, ess);
     }
 
@@ -390,8 +434,7 @@ public class Economy {
         if (user == null) {
             throw new IllegalArgumentException("Economy user cannot be null");
         }
-        final BigDecimal result = getMoneyExact(user).subtract(amount, MATH_CONTEXT);
-        setMoney(user, result);
+        final BigDecimal result = updateMoney(user, balance -> balance.subtract(amount, MATH_CONTEXT));
         Trade.log("API", "Subtract", "API", user.getName(), new Trade(amount, ess), null, null, null, result, ess);
     }
 
@@ -462,8 +505,7 @@ public class Economy {
         if (user == null) {
             throw new IllegalArgumentException("Economy user cannot be null");
         }
-        final BigDecimal result = getMoneyExact(user).divide(amount, MATH_CONTEXT);
-        setMoney(user, result);
+        final BigDecimal result = updateMoney(user, balance -> balance.divide(amount, MATH_CONTEXT));
         Trade.log("API", "Divide", "API", user.getName(), new Trade(amount, ess), null, null, null, result, ess);
     }
 
@@ -534,8 +576,7 @@ public class Economy {
         if (user == null) {
             throw new IllegalArgumentException("Economy user cannot be null");
         }
-        final BigDecimal result = getMoneyExact(user).multiply(amount, MATH_CONTEXT);
-        setMoney(user, result);
+        final BigDecimal result = updateMoney(user, balance -> balance.multiply(amount, MATH_CONTEXT));
         Trade.log("API", "Multiply", "API", user.getName(), new Trade(amount, ess), null, null, null, result, ess);
     }
 
@@ -617,11 +658,7 @@ public class Economy {
      * @deprecated Usernames can change, use {@link Economy#hasEnough(UUID, BigDecimal)} or {@link Economy#hasEnough(User, BigDecimal)}
      */
     public static boolean hasEnough(final String name, final BigDecimal amount) throws UserDoesNotExistException, ArithmeticException {
-        final User user = getUserByName(name);
-        if (user == null) {
-            throw new UserDoesNotExistException(name);
-        }
-        return hasEnough(user, amount);
+        return amount.compareTo(getMoneyExact(name)) <= 0;
     }
 
     /**
@@ -632,11 +669,7 @@ public class Economy {
      * @throws ArithmeticException
      */
     public static boolean hasEnough(final UUID uuid, final BigDecimal amount) throws ArithmeticException, UserDoesNotExistException {
-        final User user = getUserByUUID(uuid);
-        if (user == null) {
-            throw new UserDoesNotExistException(uuid);
-        }
-        return hasEnough(user, amount);
+        return amount.compareTo(getMoneyExact(uuid)) <= 0;
     }
 
     /**
@@ -821,6 +854,215 @@ public class Economy {
         return getMoneyExact(user).signum() < 0;
     }
 
+    /**
+     * Get the id of a currency configured in the Essentials config, to be used with the currency methods of this class.
+     * Id 0 is the default balance.
+     *
+     * @param name The name of the currency
+     * @return The id of the currency
+     * @throws IllegalArgumentException If there is no currency with this name
+     */
+    public static int getCurrencyId(final String name) {
+        final int currency = ess.getSettings().getCurrencyId(name);
+        if (currency == 0) {
+            throw new IllegalArgumentException("Unknown currency " + name);
+        }
+        return currency;
+    }
+
+    /**
+     * Get the id of the currency used in a world.
+     *
+     * @param world The name of the world
+     * @return The id of the currency, or 0 if the world uses the default balance
+     */
+    public static int getWorldCurrency(final String world) {
+        return ess.getSettings().getWorldCurrency(world);
+    }
+
+    /**
+     * Get the exact balance of the account with the given UUID in a currency.
+     *
+     * @param uuid     The UUID of the user account to retrieve the balance for
+     * @param currency The id of the currency, see {@link #getCurrencyId(String)}
+     * @return The account's balance in the currency
+     * @throws UserDoesNotExistException If the user does not exist
+     */
+    public static BigDecimal getMoneyExact(final UUID uuid, final int currency) throws UserDoesNotExistException {
+        if (currency == 0) {
+            return getMoneyExact(uuid);
+        }
+        if (ess == null) {
+            throw new RuntimeException(WARN_CALL_BEFORE_LOAD);
+        }
+        if (uuid == null) {
+            throw new IllegalArgumentException("Economy uuid cannot be null");
+        }
+        final BigDecimal balance = ess.getUserMap().getBalance(uuid, currency);
+        if (balance == null) {
+            throw new UserDoesNotExistException(uuid);
+        }
+        return balance;
+    }
+
+    /**
+     * Get the exact balance of a user in a currency.
+     *
+     * @param user     The user account to retrieve the balance for
+     * @param currency The id of the currency, see {@link #getCurrencyId(String)}
+     * @return The account's balance in the currency
+     */
+    public static BigDecimal getMoneyExact(final User user, final int currency) {
+        if (user == null) {
+            throw new IllegalArgumentException("Economy user cannot be null");
+        }
+        return user.getMoney(currency);
+    }
+
+    /**
+     * Sets the balance of a user in a currency. Changes to currencies other than the default balance do not fire a {@link UserBalanceUpdateEvent}
+     *
+     * @param uuid     UUID of the user
+     * @param currency The id of the currency, see {@link #getCurrencyId(String)}
+     * @param balance  The balance you want to set
+     * @throws UserDoesNotExistException If a user by that uuid does not exist
+     * @throws NoLoanPermittedException  If the user is not allowed to have a negative balance
+     * @throws MaxMoneyException         If this transaction has but the user over the maximum amount of money
+     */
+    public static void setMoney(final UUID uuid, final int currency, final BigDecimal balance) throws NoLoanPermittedException, UserDoesNotExistException, MaxMoneyException {
+        final User user = getUserByUUID(uuid);
+        if (user == null) {
+            throw new UserDoesNotExistException(uuid);
+        }
+        setMoney(user, currency, balance);
+    }
+
+    /**
+     * Sets the balance of a user in a currency. Changes to currencies other than the default balance do not fire a {@link UserBalanceUpdateEvent}
+     *
+     * @param user     User
+     * @param currency The id of the currency, see {@link #getCurrencyId(String)}
+     * @param balance  The balance you want to set
+     * @throws NoLoanPermittedException If the user is not allowed to have a negative balance
+     * @throws MaxMoneyException        If this transaction has but the user over the maximum amount of money
+     */
+    public static void setMoney(final User user, final int currency, final BigDecimal balance) throws NoLoanPermittedException, MaxMoneyException {
+        if (currency == 0) {
+            setMoney(user, balance);
+            return;
+        }
+        if (user == null) {
+            throw new IllegalArgumentException("Economy user cannot be null");
+        }
+        if (balance.compareTo(ess.getSettings().getMinMoney()) < 0) {
+            throw new NoLoanPermittedException();
+        }
+        if (balance.signum() < 0 && !user.isAuthorized("essentials.eco.loan")) {
+            throw new NoLoanPermittedException();
+        }
+        try (BalanceLocks.Hold ignored = ess.getUserMap().getBalanceLocks().lock(user.getConfigUUID())) {
+            user.setMoney(currency, balance, true);
+        }
+        Trade.log("API", "Set", ess.getSettings().getCurrencyName(currency), user.getName(), new Trade(balance, ess), null, null, null, balance, ess);
+    }
+
+    /**
+     * Adds money to the balance of a user in a currency. Changes to currencies other than the default balance do not fire a {@link UserBalanceUpdateEvent}
+     *
+     * @param uuid     UUID of the user
+     * @param currency The id of the currency, see {@link #getCurrencyId(String)}
+     * @param amount   The money you want to add
+     * @throws UserDoesNotExistException If a user by that uuid does not exist
+     * @throws NoLoanPermittedException  If the user is not allowed to have a negative balance
+     * @throws MaxMoneyException         If this transaction has but the user over the maximum amount of money
+     */
+    public static void add(final UUID uuid, final int currency, final BigDecimal amount) throws NoLoanPermittedException, ArithmeticException, UserDoesNotExistException, MaxMoneyException {
+        final User user = getUserByUUID(uuid);
+        if (user == null) {
+            throw new UserDoesNotExistException(uuid);
+        }
+        add(user, currency, amount);
+    }
+
+    /**
+     * Adds money to the balance of a user in a currency. Changes to currencies other than the default balance do not fire a {@link UserBalanceUpdateEvent}
+     *
+     * @param user     User
+     * @param currency The id of the currency, see {@link #getCurrencyId(String)}
+     * @param amount   The money you want to add
+     * @throws NoLoanPermittedException If the user is not allowed to have a negative balance
+     * @throws MaxMoneyException        If this transaction has but the user over the maximum amount of money
+     */
+    public static void add(final User user, final int currency, final BigDecimal amount) throws NoLoanPermittedException, ArithmeticException, MaxMoneyException {
+        if (currency == 0) {
+            add(user, amount);
+            return;
+        }
+        if (user == null) {
+            throw new IllegalArgumentException("Economy user cannot be null");
+        }
+        final BigDecimal result;
+        try (BalanceLocks.Hold ignored = ess.getUserMap().getBalanceLocks().lock(user.getConfigUUID())) {
+            result = getMoneyExact(user, currency).add(amount, MATH_CONTEXT);
+            setMoney(user, currency, result);
+        }
+        Trade.log("API", "Add", ess.getSettings().getCurrencyName(currency), user.getName(), new Trade(amount, ess), null, null, null, result, ess);
+    }
+
+    /**
+     * Subtracts money from the balance of a user in a currency. Changes to currencies other than the default balance do not fire a {@link UserBalanceUpdateEvent}
+     *
+     * @param uuid     UUID of the user
+     * @param currency The id of the currency, see {@link #getCurrencyId(String)}
+     * @param amount   The money you want to subtract
+     * @throws UserDoesNotExistException If a user by that uuid does not exist
+     * @throws NoLoanPermittedException  If the user is not allowed to have a negative balance
+     * @throws MaxMoneyException         If this transaction has but the user over the maximum amount of money
+     */
+    public static void subtract(final UUID uuid, final int currency, final BigDecimal amount) throws NoLoanPermittedException, ArithmeticException, UserDoesNotExistException, MaxMoneyException {
+        final User user = getUserByUUID(uuid);
+        if (user == null) {
+            throw new UserDoesNotExistException(uuid);
+        }
+        subtract(user, currency, amount);
+    }
+
+    /**
+     * Subtracts money from the balance of a user in a currency. Changes to currencies other than the default balance do not fire a {@link UserBalanceUpdateEvent}
+     *
+     * @param user     User
+     * @param currency The id of the currency, see {@link #getCurrencyId(String)}
+     * @param amount   The money you want to subtract
+     * @throws NoLoanPermittedException If the user is not allowed to have a negative balance
+     * @throws MaxMoneyException        If this transaction has but the user over the maximum amount of money
+     */
+    public static void subtract(final User user, final int currency, final BigDecimal amount) throws NoLoanPermittedException, ArithmeticException, MaxMoneyException {
+        if (currency == 0) {
+            subtract(user, amount);
+            return;
+        }
+        if (user == null) {
+            throw new IllegalArgumentException("Economy user cannot be null");
+        }
+        final BigDecimal result;
+        try (BalanceLocks.Hold ignored = ess.getUserMap().getBalanceLocks().lock(user.getConfigUUID())) {
+            result = getMoneyExact(user, currency).subtract(amount, MATH_CONTEXT);
+            setMoney(user, currency, result);
+        }
+        Trade.log("API", "Subtract", ess.getSettings().getCurrencyName(currency), user.getName(), new Trade(amount, ess), null, null, null, result, ess);
+    }
+
+    /**
+     * @param uuid     UUID of the user
+     * @param currency The id of the currency, see {@link #getCurrencyId(String)}
+     * @param amount   The amount of money the user should have
+     * @return true, if the user has more or an equal amount of money in the currency
+     * @throws UserDoesNotExistException If a user by that UUID does not exist
+     */
+    public static boolean hasEnough(final UUID uuid, final int currency, final BigDecimal amount) throws ArithmeticException, UserDoesNotExistException {
+        return amount.compareTo(getMoneyExact(uuid, currency)) <= 0;
+    }
+
     /**
      * Formats the amount of money like all other Essentials functions. Example: $100000 or $12345.67
      *
@@ -860,7 +1102,8 @@ public class Economy {
      */
     @Deprecated
     public static boolean playerExists(final String name) {
-        return getUserByName(name) != null;
+        final UUID uuid = getUUIDByName(name);
+        return uuid != null && ess.getUserMap().exists(uuid);
     }
 
     /**
@@ -870,7 +1113,13 @@ public class Economy {
      * @return true, if the user exists
      */
     public static boolean playerExists(final UUID uuid) {
-        return getUserByUUID(uuid) != null;
+        if (ess == null) {
+            throw new RuntimeException(WARN_CALL_BEFORE_LOAD);
+        }
+        if (uuid == null) {
+            throw new IllegalArgumentException("Economy uuid cannot be null");
+        }
+        return ess.getUserMap().exists(uuid);
     }
 
     /**
@@ -2,6 +2,8 @@ package com.earth2me.essentials.commands;
 
 import com.earth2me.essentials.CommandSource;
 import com.earth2me.essentials.User;
+import com.earth2me.essentials.UserSummary;
+import com.earth2me.essentials.economy.EconomyLayers;
 import com.earth2me.essentials.utils.NumberUtil;
 import org.bukkit.Server;
 
@@ -21,6 +23,12 @@ public class Commandbalance extends EssentialsCommand {
             throw new NotEnoughArgumentsException();
         }
 
+        final UserSummary summary = getBalanceSummary(server, args[0]);
+        if (summary != null) {
+            sender.sendMessage(tl("balanceOther", summary.getName() != null ? summary.getName() : args[0], NumberUtil.displayCurrency(summary.getMoney(), ess)));
+            return;
+        }
+
         final User target = getPlayer(server, args, 0, false, true);
         sender.sendMessage(tl("balanceOther", target.isHidden() ? target.getName() : target.getDisplayName(), NumberUtil.displayCurrency(target.getMoney(), ess)));
     }
@@ -28,6 +36,11 @@ public class Commandbalance extends EssentialsCommand {
     @Override
     public void run(final Server server, final User user, final String commandLabel, final String[] args) throws Exception {
         if (args.length == 1 && user.isAuthorized("essentials.balance.others")) {
+            final UserSummary summary = getBalanceSummary(server, args[0]);
+            if (summary != null) {
+                user.sendMessage(tl("balanceOther", summary.getName() != null ? summary.getName() : args[0], NumberUtil.displayCurrency(summary.getMoney(), ess)));
+                return;
+            }
             final User target = getPlayer(server, args, 0, true, true);
             user.sendMessage(tl("balanceOther", target.isHidden() ? target.getName() : target.getDisplayName(), NumberUtil.displayCurrency(target.getMoney(), ess)));
         } else if (args.length < 2) {
@@ -37,6 +50,11 @@ public class Commandbalance extends EssentialsCommand {
         }
     }
 
+    // The stored balance is only a copy of the balance of a selected economy layer, so the user has to be loaded then
+    private UserSummary getBalanceSummary(final Server server, final String name) {
+        return EconomyLayers.isLayerSelected() ? null : getOfflineSummary(server, name);
+    }
+
     @Override
     protected List<String> getTabCompleteOptions(final Server server, final CommandSource sender, final String commandLabel, final String[] args) {
         if (args.length == 1 && sender.isAuthorized("essentials.balance.others", ess)) {
@@ -1,12 +1,17 @@
 package com.earth2me.essentials.commands;
 
+import com.earth2me.essentials.BalanceRanking;
 import com.earth2me.essentials.CommandSource;
+import com.earth2me.essentials.I18n;
+import com.earth2me.essentials.User;
+import com.earth2me.essentials.economy.EconomyLayers;
 import com.earth2me.essentials.textreader.SimpleTextInput;
 import com.earth2me.essentials.textreader.TextPager;
 import com.earth2me.essentials.utils.NumberUtil;
 import com.google.common.collect.Lists;
 import net.essentialsx.api.v2.services.BalanceTop;
 import org.bukkit.Server;
+import org.bukkit.entity.Player;
 
 import java.math.BigDecimal;
 import java.text.DateFormat;
@@ -28,14 +33,64 @@ public class Commandbalancetop extends EssentialsCommand {
         super("balancetop");
     }
 
-    private void outputCache(final CommandSource sender, final int page) {
+    private void sendHeader(final CommandSource sender, final long time) {
         final Calendar cal = Calendar.getInstance();
-        cal.setTimeInMillis(ess.getBalanceTop().getCacheAge());
+        cal.setTimeInMillis(time);
         final DateFormat format = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
         sender.sendMessage(tl("balanceTop", format.format(cal.getTime())));
+    }
+
+    private void outputCache(final CommandSource sender, final int page) {
+        sendHeader(sender, ess.getBalanceTop().getCacheAge());
         new TextPager(cache).showPage(Integer.toString(page), null, "balancetop", sender);
     }
 
+    // Balances held by another economy plugin are not in the ranking, those still go through the cache
+    private boolean isRankingUsed() {
+        return !EconomyLayers.isLayerSelected() && ess.getUserMap().getBalanceRanking().isSeeded();
+    }
+
+    /**
+     * Shows a page read straight from the balance ranking, laid out like the cached output: the server total
+     * followed by one line per user, nine lines per page.
+     */
+    private void outputRanking(final CommandSource sender, final int requestedPage) {
+        final BalanceRanking ranking = ess.getUserMap().getBalanceRanking();
+        sendHeader(sender, System.currentTimeMillis());
+        // Balances of zero and below are ranked last, so hiding them leaves the first entries
+        final int entries = ess.getSettings().showZeroBaltop() ? ranking.size() : ranking.countAbove(BigDecimal.ZERO);
+        final int lines = entries + 1;
+        final int pages = lines / 9 + (lines % 9 > 0 ? 1 : 0);
+        final int page = Math.max(1, requestedPage);
+        if (page > pages) {
+            sender.sendMessage(tl("infoUnknownChapter"));
+            return;
+        }
+        sender.sendMessage(tl("infoPages", page, pages, I18n.capitalCase("balancetop")));
+
+        int line = (page - 1) * 9;
+        if (line == 0) {
+            sender.sendMessage("§r" + tl("serverTotal", NumberUtil.displayCurrency(ranking.getTotal(), ess)));
+            line++;
+        }
+        int pos = line;
+        for (final BalanceRanking.Ranked ranked : ranking.getPage(line - 1, Math.min(lines, (page - 1) * 9 + 9) - line)) {
+            sender.sendMessage("§r" + tl("balanceTopLine", pos++, getDisplayName(ranked), NumberUtil.displayCurrency(ranked.getBalance(), ess)));
+        }
+        if (page < pages) {
+            sender.sendMessage(tl("readNextPage", "balancetop", page + 1));
+        }
+    }
+
+    private String getDisplayName(final BalanceRanking.Ranked ranked) {
+        final Player player = ess.getServer().getPlayer(ranked.getUuid());
+        if (player != null) {
+            final User user = ess.getUser(player);
+            return user.isHidden() ? user.getName() : user.getDisplayName();
+        }
+        return ranked.getName();
+    }
+
     @Override
     protected void run(final Server server, final CommandSource sender, final String commandLabel, final String[] args) throws Exception {
         int page = 0;
@@ -51,12 +106,16 @@ public class Commandbalancetop extends EssentialsCommand {
         }
 
         if (!force && ess.getBalanceTop().getCacheAge() > System.currentTimeMillis() - CACHETIME) {
-            outputCache(sender, page);
+            if (isRankingUsed()) {
+                outputRanking(sender, page);
+            } else {
+                outputCache(sender, page);
+            }
             return;
         }
 
-        // If there are less than 50 users in our usermap, there is no need to display a warning as these calculations should be done quickly
-        if (ess.getUserMap().getUniqueUsers() > MINUSERS) {
+        // If there are less than 50 users in our usermap or the ranking is already built, there is no need to display a warning as these calculations should be done quickly
+        if (ess.getUserMap().getUniqueUsers() > MINUSERS && !ess.getUserMap().getBalanceRanking().isSeeded()) {
             sender.sendMessage(tl("orderBalances", ess.getUserMap().getUniqueUsers()));
         }
 
@@ -99,6 +158,10 @@ public class Commandbalancetop extends EssentialsCommand {
             final boolean fresh = force || ess.getBalanceTop().isCacheLocked() || ess.getBalanceTop().getCacheAge() <= System.currentTimeMillis() - CACHETIME;
             final CompletableFuture<Void> future = fresh ? ess.getBalanceTop().calculateBalanceTopMapAsync() : CompletableFuture.completedFuture(null);
             future.thenRun(() -> {
+                if (isRankingUsed()) {
+                    outputRanking(sender, page);
+                    return;
+                }
                 if (fresh) {
                     final SimpleTextInput newCache = new SimpleTextInput();
                     newCache.getLines().add(tl("serverTotal", NumberUtil.displayCurrency(ess.getBalanceTop().getBalanceTopTotal(), ess)));
@@ -2,8 +2,7 @@ package com.earth2me.essentials.commands;
 
 import com.earth2me.essentials.CommandSource;
 import com.earth2me.essentials.User;
-import com.earth2me.essentials.textreader.IText;
-import com.earth2me.essentials.textreader.KeywordReplacer;
+import com.earth2me.essentials.textreader.BroadcastText;
 import com.earth2me.essentials.textreader.SimpleTextInput;
 import com.earth2me.essentials.utils.FormatUtil;
 import com.google.common.collect.Lists;
@@ -63,14 +62,13 @@ public class Commandbroadcastworld extends EssentialsCommand {
     }
 
     private void sendToWorld(final World world, final String message) {
-        IText broadcast = new SimpleTextInput(message);
+        final BroadcastText broadcast = new BroadcastText(new SimpleTextInput(message), ess, false);
         final Collection<Player> players = ess.getOnlinePlayers();
 
         for (final Player player : players) {
             if (player.getWorld().equals(world)) {
                 final User user = ess.getUser(player);
-                broadcast = new KeywordReplacer(broadcast, new CommandSource(player), ess, false);
-                for (final String messageText : broadcast.getLines()) {
+                for (final String messageText : broadcast.getLines(user)) {
                     user.sendMessage(messageText);
                 }
             }
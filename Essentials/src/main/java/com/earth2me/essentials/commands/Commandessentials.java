@@ -3,7 +3,13 @@ package com.earth2me.essentials.commands;
 import com.earth2me.essentials.CommandSource;
 import com.earth2me.essentials.EssentialsUpgrade;
 import com.earth2me.essentials.User;
+import com.earth2me.essentials.UserFieldIndex;
 import com.earth2me.essentials.UserMap;
+import com.earth2me.essentials.config.ConfigurationSaveQueue;
+import com.earth2me.essentials.config.EssentialsConfiguration;
+import com.earth2me.essentials.config.storage.SqliteUserStorage;
+import com.earth2me.essentials.config.storage.UserStorage;
+import com.earth2me.essentials.config.storage.UserStorageMigration;
 import com.earth2me.essentials.economy.EconomyLayer;
 import com.earth2me.essentials.economy.EconomyLayers;
 import com.earth2me.essentials.utils.DateUtil;
@@ -12,6 +18,7 @@ import com.earth2me.essentials.utils.FloatUtil;
 import com.earth2me.essentials.utils.NumberUtil;
 import com.earth2me.essentials.utils.VersionUtil;
 import com.google.common.base.Charsets;
+import com.google.common.cache.CacheStats;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.Lists;
 import org.bukkit.ChatColor;
@@ -25,14 +32,21 @@ import org.bukkit.plugin.PluginDescriptionFile;
 import org.bukkit.plugin.PluginManager;
 import org.bukkit.scheduler.BukkitRunnable;
 
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.UUID;
+import java.util.concurrent.Future;
 import java.util.function.Supplier;
+import java.util.logging.Level;
 import java.util.stream.Collectors;
 
 import static com.earth2me.essentials.I18n.tl;
@@ -44,6 +58,7 @@ public class Commandessentials extends EssentialsCommand {
     private static final Sound MOO_SOUND = EnumUtil.valueOf(Sound.class, "COW_IDLE", "ENTITY_COW_MILK");
 
     private static final String HOMES_USAGE = "/<command> homes (fix | delete [world])";
+    private static final String STORAGE_USAGE = "/<command> storage [migrate [overwrite]]";
 
     private static final String NYAN_TUNE = "1D#,1E,2F#,,2A#,1E,1D#,1E,2F#,2B,2D#,2E,2D#,2A#,2B,,2F#,,1D#,1E,2F#,2B,2C#,2A#,2B,2C#,2E,2D#,2E,2C#,,2F#,,2G#,,1D,1D#,,1C#,1D,1C#,1B,,1B,,1C#,,1D,,1D,1C#,1B,1C#,1D#,2F#,2G#,1D#,2F#,1C#,1D#,1B,1C#,1B,1D#,,2F#,,2G#,1D#,2F#,1C#,1D#,1B,1D,1D#,1D,1C#,1B,1C#,1D,,1B,1C#,1D#,2F#,1C#,1D,1C#,1B,1C#,,1B,,1C#,,2F#,,2G#,,1D,1D#,,1C#,1D,1C#,1B,,1B,,1C#,,1D,,1D,1C#,1B,1C#,1D#,2F#,2G#,1D#,2F#,1C#,1D#,1B,1C#,1B,1D#,,2F#,,2G#,1D#,2F#,1C#,1D#,1B,1D,1D#,1D,1C#,1B,1C#,1D,,1B,1C#,1D#,2F#,1C#,1D,1C#,1B,1C#,,1B,,1B,,1B,,1F#,1G#,1B,,1F#,1G#,1B,1C#,1D#,1B,1E,1D#,1E,2F#,1B,,1B,,1F#,1G#,1B,1E,1D#,1C#,1B,,,,1F#,1B,,1F#,1G#,1B,,1F#,1G#,1B,1B,1C#,1D#,1B,1F#,1G#,1F#,1B,,1B,1A#,1B,1F#,1G#,1B,1E,1D#,1E,2F#,1B,,1A#,,1B,,1F#,1G#,1B,,1F#,1G#,1B,1C#,1D#,1B,1E,1D#,1E,2F#,1B,,1B,,1F#,1G#,1B,1F#,1E,1D#,1C#,1B,,,,1F#,1B,,1F#,1G#,1B,,1F#,1G#,1B,1B,1C#,1D#,1B,1F#,1G#,1F#,1B,,1B,1A#,1B,1F#,1G#,1B,1E,1D#,1E,2F#,1B,,1A#,,1B,,1F#,1G#,1B,,1F#,1G#,1B,1C#,1D#,1B,1E,1D#,1E,2F#,1B,,1B,,1F#,1G#,1B,1F#,1E,1D#,1C#,1B,,,,1F#,1B,,1F#,1G#,1B,,1F#,1G#,1B,1B,1C#,1D#,1B,1F#,1G#,1F#,1B,,1B,1A#,1B,1F#,1G#,1B,1E,1D#,1E,2F#,1B,,1A#,,1B,,1F#,1G#,1B,,1F#,1G#,1B,1C#,1D#,1B,1E,1D#,1E,2F#,1B,,1B,,1F#,1G#,1B,1F#,1E,1D#,1C#,1B,,,,1F#,1B,,1F#,1G#,1B,,1F#,1G#,1B,1B,1C#,1D#,1B,1F#,1G#,1F#,1B,,1B,1A#,1B,1F#,1G#,1B,1E,1D#,1E,2F#,1B,,1A#,,1B,,1F#,1G#,1B,,1F#,1G#,1B,1C#,1D#,1B,1E,1D#,1E,2F#,1B,,1B,,1F#,1G#,1B,1F#,1E,1D#,1C#,1B,,,,1F#,1B,,1F#,1G#,1B,,1F#,1G#,1B,1B,1C#,1D#,1B,1F#,1G#,1F#,1B,,1B,1A#,1B,1F#,1G#,1B,1E,1D#,1E,2F#,1B,,1B,,";
     private static final String[] CONSOLE_MOO = new String[] {"         (__)", "         (oo)", "   /------\\/", "  / |    ||", " *  /\\---/\\", "    ~~   ~~", "....\"Have you mooed today?\"..."};
@@ -123,6 +138,12 @@ public class Commandessentials extends EssentialsCommand {
             case "uuidtest":
                 runUUIDTest(server, sender, commandLabel, args);
                 break;
+            case "storage":
+                runStorage(server, sender, commandLabel, args);
+                break;
+            case "cache":
+                runCache(server, sender, commandLabel, args);
+                break;
 
             // "#EasterEgg"
             case "nya":
@@ -228,30 +249,39 @@ public class Commandessentials extends EssentialsCommand {
 
         ess.runTaskAsynchronously(() -> {
             final long currTime = System.currentTimeMillis();
-            for (final UUID u : userMap.getAllUniqueUsers()) {
-                final User user = ess.getUserMap().getUser(u);
-                if (user == null) {
+            final long milliDays = daysArg * 24L * 60L * 60L * 1000L;
+            userMap.completeFieldIndex();
+            final UserFieldIndex index = userMap.getFieldIndex();
+
+            // Users who were never seen start counting from now, so they are never deleted by this run.
+            final Set<UUID> neverSeen = new HashSet<>(index.query(row -> row.getLastSeen() == 0));
+            for (final UUID u : neverSeen) {
+                final User user = userMap.getUser(u);
+                if (user != null) {
+                    user.setLastLogin(currTime);
+                }
+            }
+
+            // The stored balance is only a copy of the balance of an economy layer, and is ignored while the economy is disabled
+            final boolean storedMoney = !EconomyLayers.isLayerSelected() && !ess.getSettings().isEcoDisabled();
+            for (final UUID u : index.query(row -> !row.isNPC() && row.getLastSeen() != 0 && currTime - row.getLastSeen() >= milliDays
+                && row.getHomeCount() <= homesArg && (!storedMoney || row.getMoney() <= moneyArg))) {
+                if (neverSeen.contains(u)) {
+                    continue;
+                }
+                final User user = userMap.getUser(u);
+                if (user == null || user.isNPC()) {
                     continue;
                 }
 
+                // The index is only a candidate list, so the loaded user is checked again before deleting them
                 long lastLog = user.getLastLogout();
                 if (lastLog == 0) {
                     lastLog = user.getLastLogin();
                 }
-                if (lastLog == 0) {
-                    user.setLastLogin(currTime);
-                }
-
-                if (user.isNPC()) {
-                    continue;
-                }
-
-                final long timeDiff = currTime - lastLog;
-                final long milliDays = daysArg * 24L * 60L * 60L * 1000L;
                 final int homeCount = user.getHomes().size();
                 final double moneyCount = user.getMoney().doubleValue();
-
-                if ((lastLog == 0) || (timeDiff < milliDays) || (homeCount > homesArg) || (moneyCount > moneyArg)) {
+                if (lastLog == 0 || currTime - lastLog < milliDays || homeCount > homesArg || moneyCount > moneyArg) {
                     continue;
                 }
 
@@ -279,7 +309,8 @@ public class Commandessentials extends EssentialsCommand {
             case "fix":
                 sender.sendMessage(tl("fixingHomes"));
                 ess.runTaskAsynchronously(() -> {
-                    for (final UUID u : userMap.getAllUniqueUsers()) {
+                    userMap.completeFieldIndex();
+                    for (final UUID u : userMap.getFieldIndex().query(row -> row.getHomeCount() > 0)) {
                         final User user = ess.getUserMap().getUser(u);
                         if (user == null) {
                             continue;
@@ -304,7 +335,8 @@ public class Commandessentials extends EssentialsCommand {
                 }
                 sender.sendMessage(filterByWorld ? tl("deletingHomesWorld", args[2]) : tl("deletingHomes"));
                 ess.runTaskAsynchronously(() -> {
-                    for (final UUID u : userMap.getAllUniqueUsers()) {
+                    userMap.completeFieldIndex();
+                    for (final UUID u : userMap.getFieldIndex().query(row -> row.getHomeCount() > 0)) {
                         final User user = ess.getUserMap().getUser(u);
                         if (user == null) {
                             continue;
@@ -338,6 +370,89 @@ public class Commandessentials extends EssentialsCommand {
         sender.sendMessage("UUID conversion complete. Check your server log for more information.");
     }
 
+    // Shows the user storage backend, or migrates the userdata folder into the database backend.
+    private void runStorage(final Server server, final CommandSource sender, final String commandLabel, final String[] args) throws Exception {
+        final UserStorage storage = ess.getUserMap().getStorage();
+        if (args.length < 2) {
+            final ConfigurationSaveQueue saveQueue = EssentialsConfiguration.getSaveQueue();
+            sender.sendMessage(tl("storageBackend", storage.getType()));
+            sender.sendMessage(tl("storageSaveQueue", saveQueue.getThreadCount(), saveQueue.getQueueDepth(), saveQueue.getFlushCount(), saveQueue.getCoalescedCount()));
+            sender.sendMessage(tl("storageSaveLatency", String.format("%.2f", saveQueue.getAverageWriteMillis()), String.format("%.2f", saveQueue.getMaxWriteMillis()),
+                    String.format("%.0f", saveQueue.getAverageDelayMillis())));
+            sender.sendMessage(tl("storageMigrateHint", commandLabel, SqliteUserStorage.TYPE));
+            return;
+        }
+
+        if (!args[1].equalsIgnoreCase("migrate")) {
+            throw new Exception(STORAGE_USAGE);
+        }
+
+        final File folder = new File(ess.getDataFolder(), "userdata");
+        if (!folder.isDirectory()) {
+            throw new Exception(tl("storageMigrateNoFolder"));
+        }
+
+        final boolean overwrite = args.length >= 3 && args[2].equalsIgnoreCase("overwrite");
+        final SqliteUserStorage target;
+        if (storage instanceof SqliteUserStorage) {
+            target = (SqliteUserStorage) storage;
+        } else {
+            target = new SqliteUserStorage(new File(ess.getDataFolder(), "userdata.db"));
+        }
+
+        final UserMap userMap = ess.getUserMap();
+        final long start = System.currentTimeMillis();
+        // Loaded users are stored in the userdata folder, so their pending changes are copied here, on the main
+        // thread which owns them, and written before the migration reads the folder.
+        final List<Future<?>> saves = target == storage ? Collections.emptyList() : EssentialsConfiguration.getSaveQueue().submitAll();
+        sender.sendMessage(tl(overwrite ? "storageMigrateOverwrite" : "storageMigrate", target.getDatabaseFile().getName()));
+        ess.runTaskAsynchronously(() -> {
+            final UserStorageMigration migration;
+            if (target == storage) {
+                // Loaded users are already stored in the database and their files may be out of date.
+                migration = new UserStorageMigration(folder, target, overwrite, uuid -> userMap.getLoadedUser(uuid) != null);
+            } else {
+                // The server keeps writing the userdata folder until it is restarted, so the files changed
+                // from now on are imported again on the first start with the database.
+                try {
+                    target.markMigrationStart(start);
+                } catch (final SQLException e) {
+                    ess.getLogger().log(Level.SEVERE, "Failed to record the start of the userdata migration", e);
+                }
+                EssentialsConfiguration.getSaveQueue().awaitAll(saves);
+                migration = new UserStorageMigration(folder, target, overwrite, uuid -> false);
+            }
+            try {
+                migration.run(processed -> {
+                    if (processed % 10000 == 0) {
+                        sender.sendMessage(tl("storageMigrateProgress", processed));
+                    }
+                });
+            } catch (final IOException e) {
+                ess.getLogger().log(Level.SEVERE, "Failed to read the userdata folder", e);
+            } finally {
+                if (target != storage) {
+                    target.close();
+                }
+            }
+            sender.sendMessage(tl("storageMigrateFinished", System.currentTimeMillis() - start, migration.getMigrated(), migration.getSkipped(), migration.getFailed()));
+            if (target != storage) {
+                sender.sendMessage(tl("storageMigrateRestart", SqliteUserStorage.TYPE));
+            }
+        });
+    }
+
+    // Shows how well the user cache is performing.
+    private void runCache(final Server server, final CommandSource sender, final String commandLabel, final String[] args) {
+        final UserMap userMap = ess.getUserMap();
+        final CacheStats stats = userMap.getCacheStats();
+        sender.sendMessage(tl("userCacheSize", userMap.getPinnedCount(), userMap.getCachedCount(), userMap.getCachedWeight(), ess.getSettings().getMaxUserCacheWeight()));
+        sender.sendMessage(tl("userCacheHitRate", String.format("%.2f", userMap.getCacheHitRate() * 100), stats.loadCount(), stats.evictionCount()));
+        sender.sendMessage(tl("userCacheLoadTime", String.format("%.2f", userMap.getLoadTimePercentile(0.5)), String.format("%.2f", userMap.getLoadTimePercentile(0.95)),
+                String.format("%.2f", userMap.getLoadTimePercentile(0.99))));
+        sender.sendMessage(tl("userCacheMainThreadLoads", userMap.getMainThreadLoads()));
+    }
+
     // Looks up various UUIDs for a user.
     private void runUUIDTest(final Server server, final CommandSource sender, final String commandLabel, final String[] args) throws Exception {
         if (args.length < 2) {
@@ -496,6 +611,8 @@ public class Commandessentials extends EssentialsCommand {
             options.add("reset");
             options.add("cleanup");
             options.add("homes");
+            options.add("storage");
+            options.add("cache");
             //options.add("uuidconvert");
             //options.add("uuidtest");
             //options.add("nya");
@@ -534,6 +651,13 @@ public class Commandessentials extends EssentialsCommand {
                     return Lists.newArrayList("ignoreUFCache");
                 }
                 break;
+            case "storage":
+                if (args.length == 2) {
+                    return Lists.newArrayList("migrate");
+                } else if (args.length == 3 && args[1].equalsIgnoreCase("migrate")) {
+                    return Lists.newArrayList("overwrite");
+                }
+                break;
         }
 
         return Collections.emptyList();
@@ -6,12 +6,10 @@ import com.google.common.collect.Lists;
 import org.bukkit.ChatColor;
 import org.bukkit.Location;
 import org.bukkit.Server;
-import org.bukkit.World;
+import org.bukkit.entity.Player;
 
 import java.util.Collections;
 import java.util.List;
-import java.util.PriorityQueue;
-import java.util.Queue;
 
 import static com.earth2me.essentials.I18n.tl;
 
@@ -80,36 +78,20 @@ public class Commandnear extends EssentialsCommand {
 
     private String getLocal(final User user, final long radius) {
         final Location loc = user.getLocation();
-        final World world = loc.getWorld();
         final StringBuilder output = new StringBuilder();
-        final long radiusSquared = radius * radius;
         final boolean showHidden = user.canInteractVanished();
 
-        final Queue<User> nearbyPlayers = new PriorityQueue<>((o1, o2) -> (int) (o1.getLocation().distanceSquared(loc) - o2.getLocation().distanceSquared(loc)));
-
-        for (final User player : ess.getOnlineUsers()) {
-            if (!player.equals(user) && !player.isAuthorized("essentials.near.exclude") && (!player.isHidden(user.getBase()) || showHidden || user.getBase().canSee(player.getBase()))) {
-                final Location playerLoc = player.getLocation();
-                if (playerLoc.getWorld() != world) {
-                    continue;
-                }
-
-                final long delta = (long) playerLoc.distanceSquared(loc);
-                if (delta < radiusSquared) {
-                    nearbyPlayers.offer(player);
-                }
-            }
-        }
-
-        while (!nearbyPlayers.isEmpty()) {
+        // Like before the player grid, players exactly at the radius are not included
+        final List<Player> nearbyPlayers = ess.getPlayerGrid().getNearestPlayers(loc, radius, Integer.MAX_VALUE, nearbyPlayer -> {
+            final User player = ess.getUser(nearbyPlayer);
+            return player != null && !player.equals(user) && !player.isAuthorized("essentials.near.exclude") && (!player.isHidden(user.getBase()) || showHidden || user.getBase().canSee(nearbyPlayer));
+        });
+        for (final Player nearbyPlayer : nearbyPlayers) {
+            final User player = ess.getUser(nearbyPlayer);
             if (output.length() > 0) {
                 output.append(", ");
             }
-            final User nearbyPlayer = nearbyPlayers.poll();
-            if (nearbyPlayer == null) {
-                continue;
-            }
-            output.append(nearbyPlayer.getDisplayName()).append(ChatColor.WHITE + "(" + ChatColor.RED).append((long) nearbyPlayer.getLocation().distance(loc)).append("m" + ChatColor.WHITE + ")");
+            output.append(player.getDisplayName()).append(ChatColor.WHITE + "(" + ChatColor.RED).append((long) nearbyPlayer.getLocation().distance(loc)).append("m" + ChatColor.WHITE + ")");
         }
 
         return output.length() > 1 ? output.toString() : tl("none");
@@ -74,11 +74,8 @@ public class Commandpay extends EssentialsLoopCommand {
                 user.getConfirmingPayments().remove(player);
                 Trade.log("Command", "Pay", "Player", user.getName(), new Trade(amount, ess), player.getName(), new Trade(amount, ess), user.getLocation(), user.getMoney(), ess);
             } catch (final MaxMoneyException ex) {
+                // payUser leaves both balances unchanged when the receiver would go over max-money
                 user.sendMessage(tl("maxMoney"));
-                try {
-                    user.setMoney(user.getMoney().add(amount));
-                } catch (final MaxMoneyException ignored) {
-                }
             } catch (final Exception e) {
                 user.sendMessage(e.getMessage());
             }
@@ -3,6 +3,7 @@ package com.earth2me.essentials.commands;
 import com.earth2me.essentials.CommandSource;
 import com.earth2me.essentials.User;
 import com.earth2me.essentials.UserMap;
+import com.earth2me.essentials.UserSummary;
 import com.earth2me.essentials.craftbukkit.BanLookup;
 import com.earth2me.essentials.utils.DateUtil;
 import com.earth2me.essentials.utils.FormatUtil;
@@ -41,6 +42,16 @@ public class Commandseen extends EssentialsCommand {
             final UUID uuid = UUID.fromString(args[0]);
             player = ess.getUser(uuid);
         } catch (final IllegalArgumentException ignored) { // Thrown if invalid UUID from string, check by name.
+            final UserSummary summary = getOfflineSummary(server, args[0]);
+            if (summary != null) {
+                final String name = summary.getName() != null ? summary.getName() : args[0];
+                if (searchAccounts) {
+                    seenIP(sender, summary.getLastLoginAddress(), name);
+                } else {
+                    seenOffline(sender, summary, name, showBan, showIp, showLocation);
+                }
+                return;
+            }
             player = ess.getOfflineUser(args[0]);
         }
 
@@ -94,7 +105,7 @@ public class Commandseen extends EssentialsCommand {
         } else if (player.getBase().isOnline() && canInteractWith(sender, player)) {
             seenOnline(sender, player, showIp);
         } else {
-            seenOffline(sender, player, showBan, showIp, showLocation);
+            seenOffline(sender, player.getSummary(), player.getName(), showBan, showIp, showLocation);
         }
     }
 
@@ -132,22 +143,21 @@ public class Commandseen extends EssentialsCommand {
         }
     }
 
-    private void seenOffline(final CommandSource sender, final User user, final boolean showBan, final boolean showIp, final boolean showLocation) {
-        user.setDisplayNick();
+    private void seenOffline(final CommandSource sender, final UserSummary user, final String name, final boolean showBan, final boolean showIp, final boolean showLocation) {
         if (user.getLastLogout() > 0) {
-            sender.sendMessage(tl("seenOffline", user.getName(), DateUtil.formatDateDiff(user.getLastLogout())));
-            sender.sendMessage(tl("whoisUuid", user.getBase().getUniqueId()));
+            sender.sendMessage(tl("seenOffline", name, DateUtil.formatDateDiff(user.getLastLogout())));
+            sender.sendMessage(tl("whoisUuid", user.getUUID()));
         } else {
-            sender.sendMessage(tl("userUnknown", user.getName()));
+            sender.sendMessage(tl("userUnknown", name));
         }
 
-        final List<String> history = ess.getUserMap().getUserHistory(user.getBase().getUniqueId());
+        final List<String> history = ess.getUserMap().getUserHistory(user.getUUID());
         if (history != null && history.size() > 1) {
-            sender.sendMessage(tl("seenAccounts", StringUtil.joinListSkip(", ", user.getName(), history)));
+            sender.sendMessage(tl("seenAccounts", StringUtil.joinListSkip(", ", name, history)));
         }
 
-        if (BanLookup.isBanned(ess, user)) {
-            final BanEntry banEntry = BanLookup.getBanEntry(ess, user.getName());
+        if (BanLookup.isBanned(ess, name)) {
+            final BanEntry banEntry = BanLookup.getBanEntry(ess, name);
             final String reason = showBan ? banEntry.getReason() : tl("true");
             sender.sendMessage(tl("whoisBanned", reason));
             if (banEntry.getExpiration() != null) {
@@ -193,16 +203,11 @@ public class Commandseen extends EssentialsCommand {
 
         ess.runTaskAsynchronously(() -> {
             final List<String> matches = new ArrayList<>();
-            for (final UUID u : userMap.getAllUniqueUsers()) {
-                final User user = ess.getUserMap().getUser(u);
-                if (user == null) {
-                    continue;
-                }
-
-                final String uIPAddress = user.getLastLoginAddress();
-
-                if (!uIPAddress.isEmpty() && uIPAddress.equalsIgnoreCase(ipAddress)) {
-                    matches.add(user.getName());
+            userMap.completeFieldIndex();
+            for (final UUID u : userMap.getFieldIndex().getByAddress(ipAddress)) {
+                final UserSummary summary = userMap.getSummary(u);
+                if (summary != null && summary.getName() != null) {
+                    matches.add(summary.getName());
                 }
             }
 
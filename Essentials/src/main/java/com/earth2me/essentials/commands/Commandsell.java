@@ -6,14 +6,19 @@ import com.earth2me.essentials.utils.NumberUtil;
 import com.google.common.collect.Lists;
 import net.ess3.api.events.UserBalanceUpdateEvent;
 import org.bukkit.ChatColor;
+import org.bukkit.Material;
 import org.bukkit.Server;
 import org.bukkit.inventory.ItemStack;
+import org.bukkit.inventory.PlayerInventory;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 import java.util.logging.Level;
 
 import static com.earth2me.essentials.I18n.tl;
@@ -36,6 +41,11 @@ public class Commandsell extends EssentialsCommand {
             throw new Exception(tl("sellBulkPermission"));
         }
 
+        if (args.length == 1 && (args[0].equalsIgnoreCase("inventory") || args[0].equalsIgnoreCase("invent") || args[0].equalsIgnoreCase("all") || args[0].equalsIgnoreCase("blocks"))) {
+            sellBulk(user, args[0].equalsIgnoreCase("blocks"), commandLabel);
+            return;
+        }
+
         final List<ItemStack> is = ess.getItemDb().getMatching(user, args);
         int count = 0;
 
@@ -88,6 +98,101 @@ public class Commandsell extends EssentialsCommand {
         }
     }
 
+    /**
+     * Sells every sellable stack in the inventory of a user, walking the inventory once and applying a single
+     * balance change and inventory update.
+     * <p>
+     * This sells the same items as selling each item on its own would: every slot of the inventory is included,
+     * and items which may only be traded in stacks are skipped, as they need an amount ending in s. The sale is
+     * reported with a single log entry, chat message and console line.
+     */
+    private void sellBulk(final User user, final boolean blocksOnly, final String commandLabel) throws Exception {
+        final PlayerInventory inventory = user.getBase().getInventory();
+        final ItemStack[] contents = inventory.getContents();
+        final Map<Long, SaleGroup> groups = new LinkedHashMap<>();
+        final List<String> notSold = new ArrayList<>();
+        boolean found = false;
+
+        for (int slot = 0; slot < contents.length; slot++) {
+            final ItemStack stack = contents[slot];
+            if (stack == null || stack.getType() == Material.AIR || (blocksOnly && !stack.getType().isBlock())) {
+                continue;
+            }
+            found = true;
+            if (!ess.getSettings().isAllowSellNamedItems() && stack.hasItemMeta() && stack.getItemMeta().hasDisplayName()) {
+                notSold.add(stack.getItemMeta().getDisplayName());
+                continue;
+            }
+            // Stacks are grouped by the material and data value their price is looked up by
+            final long key = ((long) stack.getType().ordinal() << 16) | (stack.getDurability() & 0xFFFF);
+            SaleGroup group = groups.get(key);
+            if (group == null) {
+                group = new SaleGroup(stack, ess.getWorth().getPrice(ess, stack));
+                groups.put(key, group);
+            }
+            group.add(slot, stack.getAmount());
+        }
+
+        if (!found) {
+            throw new Exception(tl("itemSellAir"));
+        }
+
+        BigDecimal totalWorth = BigDecimal.ZERO;
+        int totalAmount = 0;
+        final List<SaleGroup> sold = new ArrayList<>();
+        for (final SaleGroup group : groups.values()) {
+            if (group.price == null) {
+                continue;
+            }
+            if (group.amount < 1 || ess.getSettings().isTradeInStacks(group.example.getType())) {
+                continue;
+            }
+            group.worth = group.price.multiply(BigDecimal.valueOf(group.amount));
+            totalWorth = totalWorth.add(group.worth);
+            totalAmount += group.amount;
+            sold.add(group);
+        }
+
+        if (!sold.isEmpty()) {
+            for (final SaleGroup group : sold) {
+                int remaining = group.amount;
+                for (int i = 0; i < group.slotCount && remaining > 0; i++) {
+                    final int slot = group.slots[i];
+                    final int stackAmount = contents[slot].getAmount();
+                    if (stackAmount <= remaining) {
+                        contents[slot] = null;
+                        remaining -= stackAmount;
+                    } else {
+                        final ItemStack rest = contents[slot].clone();
+                        rest.setAmount(stackAmount - remaining);
+                        contents[slot] = rest;
+                        remaining = 0;
+                    }
+                }
+            }
+
+            // The money is given first, so nothing is taken if the balance would exceed the maximum
+            user.giveMoney(totalWorth, null, UserBalanceUpdateEvent.Cause.COMMAND_SELL);
+            inventory.setContents(contents);
+            user.getBase().updateInventory();
+
+            final List<ItemStack> items = new ArrayList<>(sold.size());
+            for (final SaleGroup group : sold) {
+                final ItemStack stack = group.example.clone();
+                stack.setAmount(group.amount);
+                items.add(stack);
+            }
+            Trade.logItems("Command", "Sell", "Bulk", user.getName(), items, user.getName(), new Trade(totalWorth, ess), user.getLocation(), user.getMoney(), ess);
+            logger.log(Level.INFO, tl("itemSoldBulkConsole", user.getName(), totalAmount, sold.size(), NumberUtil.displayCurrency(totalWorth, ess), user.getDisplayName()));
+        }
+
+        if (!notSold.isEmpty()) {
+            ess.showError(user.getSource(), new Exception(tl("cannotSellTheseNamedItems", String.join(ChatColor.RESET + ", ", notSold))), commandLabel);
+        }
+        final String totalWorthStr = NumberUtil.displayCurrency(totalWorth, ess);
+        user.sendMessage(tl(blocksOnly ? "totalWorthBlocks" : "totalWorthAll", totalWorthStr, totalWorthStr));
+    }
+
     private BigDecimal sellItem(final User user, final ItemStack is, final String[] args, final boolean isBulkSell) throws Exception {
         final int amount = ess.getWorth().getAmount(ess, user, is, args, isBulkSell);
         final BigDecimal worth = ess.getWorth().getPrice(ess, is);
@@ -121,6 +226,28 @@ public class Commandsell extends EssentialsCommand {
         return result;
     }
 
+    private static final class SaleGroup {
+        private final ItemStack example;
+        private final BigDecimal price;
+        private int[] slots = new int[4];
+        private int slotCount;
+        private int amount;
+        private BigDecimal worth;
+
+        private SaleGroup(final ItemStack example, final BigDecimal price) {
+            this.example = example;
+            this.price = price;
+        }
+
+        private void add(final int slot, final int stackAmount) {
+            if (slotCount == slots.length) {
+                slots = Arrays.copyOf(slots, slotCount * 2);
+            }
+            slots[slotCount++] = slot;
+            amount += stackAmount;
+        }
+    }
+
     @Override
     protected List<String> getTabCompleteOptions(final Server server, final User user, final String commandLabel, final String[] args) {
         if (args.length == 1) {
@@ -0,0 +1,107 @@
+package com.earth2me.essentials.commands;
+
+import com.earth2me.essentials.CommandSource;
+import com.earth2me.essentials.User;
+import com.earth2me.essentials.UserSummary;
+import com.earth2me.essentials.economy.TransactionHistory;
+import com.earth2me.essentials.utils.DateUtil;
+import com.earth2me.essentials.utils.NumberUtil;
+import org.bukkit.Server;
+
+import java.text.DateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.UUID;
+
+import static com.earth2me.essentials.I18n.tl;
+
+public class Commandtransactions extends EssentialsCommand {
+    private static final int PAGE_SIZE = 10;
+
+    public Commandtransactions() {
+        super("transactions");
+    }
+
+    @Override
+    protected void run(final Server server, final CommandSource sender, final String commandLabel, final String[] args) throws Exception {
+        final TransactionHistory history = ess.getTransactionHistory();
+        if (history == null) {
+            throw new Exception(tl("transactionsDisabled"));
+        }
+
+        // A page number as the first argument means the sender's own history, as used by the next page hint
+        final boolean self = args.length == 0 || NumberUtil.isInt(args[0]);
+        if (self && !sender.isPlayer()) {
+            throw new NotEnoughArgumentsException();
+        }
+        if (!self && sender.isPlayer() && !sender.isAuthorized("essentials.transactions.others", ess)) {
+            throw new Exception(tl("noPerm", "essentials.transactions.others"));
+        }
+
+        final UUID uuid;
+        final String name;
+        if (self) {
+            uuid = sender.getPlayer().getUniqueId();
+            name = sender.getPlayer().getName();
+        } else {
+            final UserSummary summary = getOfflineSummary(server, args[0]);
+            if (summary != null) {
+                uuid = summary.getUUID();
+                name = summary.getName() != null ? summary.getName() : args[0];
+            } else {
+                final User target = getPlayer(server, args, 0, true, true);
+                uuid = target.getBase().getUniqueId();
+                name = target.getName();
+            }
+        }
+
+        final int pageIndex = self ? 0 : 1;
+        final String pageArg = args.length > pageIndex ? args[pageIndex] : null;
+        final int page = pageArg != null && NumberUtil.isInt(pageArg) ? Math.max(1, Integer.parseInt(pageArg)) : 1;
+        final String duration = args.length > pageIndex + 1 ? getFinalArg(args, pageIndex + 1) : null;
+        final long since = duration == null ? 0 : DateUtil.parseDateDiff(duration, false);
+
+        ess.runTaskAsynchronously(() -> {
+            try {
+                // One record more than the page is read, to know if there is another page after this one
+                final List<TransactionHistory.Record> records = history.query(uuid, since, (page - 1) * PAGE_SIZE, PAGE_SIZE + 1);
+                if (records.isEmpty()) {
+                    sender.sendMessage(tl("transactionsNone", name));
+                    return;
+                }
+                final DateFormat format = DateFormat.getDateTimeInstance(DateFormat.SHORT, DateFormat.SHORT);
+                sender.sendMessage(tl("transactionsHeader", name, page));
+                for (final TransactionHistory.Record record : records.subList(0, Math.min(PAGE_SIZE, records.size()))) {
+                    final String time = format.format(new Date(record.getTime()));
+                    final String amount = NumberUtil.displayCurrency(record.getAmount(), ess);
+                    switch (record.getType()) {
+                        case SENT:
+                            sender.sendMessage(tl("transactionsTransferLine", time, tl("transactionsSent"), amount, record.getDetail()));
+                            break;
+                        case RECEIVED:
+                            sender.sendMessage(tl("transactionsTransferLine", time, tl("transactionsReceived"), amount, record.getDetail()));
+                            break;
+                        default:
+                            sender.sendMessage(tl("transactionsLine", time, amount, record.getBalance() == null ? "" : NumberUtil.displayCurrency(record.getBalance(), ess), record.getDetail()));
+                            break;
+                    }
+                }
+                if (records.size() > PAGE_SIZE) {
+                    sender.sendMessage(tl("transactionsMore", commandLabel, self ? "" : name + " ", duration == null ? page + 1 : page + 1 + " " + duration));
+                }
+            } catch (final Exception e) {
+                ess.showError(sender, e, commandLabel);
+            }
+        });
+    }
+
+    @Override
+    protected List<String> getTabCompleteOptions(final Server server, final CommandSource sender, final String commandLabel, final String[] args) {
+        if (args.length == 1 && sender.isAuthorized("essentials.transactions.others", ess)) {
+            return getPlayers(server, sender);
+        } else {
+            return Collections.emptyList();
+        }
+    }
+}
@@ -4,6 +4,7 @@ import com.earth2me.essentials.CommandSource;
 import com.earth2me.essentials.IEssentialsModule;
 import com.earth2me.essentials.Trade;
 import com.earth2me.essentials.User;
+import com.earth2me.essentials.UserSummary;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
@@ -23,6 +24,7 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.MissingResourceException;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -156,6 +158,18 @@ public abstract class EssentialsCommand implements IEssentialsCommand {
         return ess.matchUser(server, sourceUser, searchTerm, getHidden, getOffline);
     }
 
+    // Get the summary of an offline player by exact name without loading them, null if they are online or unknown
+    protected UserSummary getOfflineSummary(final Server server, final String name) {
+        if (name.isEmpty() || server.getPlayerExact(name) != null) {
+            return null;
+        }
+        final UUID uuid = ess.getUserMap().getUUID(name);
+        if (uuid == null || server.getPlayer(uuid) != null) {
+            return null;
+        }
+        return ess.getUserMap().getSummary(uuid);
+    }
+
     @Override
     public final void run(final Server server, final User user, final String commandLabel, final Command cmd, final String[] args) throws Exception {
         final Trade charge = new Trade(this.getName(), ess);
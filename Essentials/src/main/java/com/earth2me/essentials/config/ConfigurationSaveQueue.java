@@ -0,0 +1,384 @@
+package com.earth2me.essentials.config;
+
+import org.spongepowered.configurate.CommentedConfigurationNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+
+import static com.earth2me.essentials.config.EssentialsConfiguration.LOGGER;
+
+/**
+ * Write-behind queue for {@link EssentialsConfiguration} saves.
+ * <p>
+ * Saving a configuration only marks it as dirty. The first change schedules a single flush after the
+ * configured delay, which copies the data once on the owning thread and hands that copy to a save thread,
+ * so a burst of setter calls results in one copy and one disk write. The save hooks read data which other
+ * threads must not change while it is being read, so the copy is never taken on a save thread.
+ * <p>
+ * Writes are spread over a pool of single threaded stripes. Every file always hashes to the same stripe,
+ * which keeps the writes of a single file in order while unrelated files are written concurrently.
+ */
+public class ConfigurationSaveQueue {
+    private static final long PROGRESS_INTERVAL = TimeUnit.SECONDS.toNanos(2);
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor();
+    private volatile ExecutorService[] stripes = createStripes(2);
+    private final Set<EssentialsConfiguration> dirty = ConcurrentHashMap.newKeySet();
+    private final AtomicLong flushes = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+    private final AtomicLong totalWriteNanos = new AtomicLong();
+    private final AtomicLong maxWriteNanos = new AtomicLong();
+    private final AtomicLong totalDelayNanos = new AtomicLong();
+    private volatile long delayMillis = 1000;
+    private volatile int maxPending = 10000;
+    private volatile Executor snapshotExecutor;
+    private volatile boolean shutdown = false;
+
+    public void configure(final long delayMillis, final int maxPending, final int threads) {
+        this.delayMillis = Math.max(0, delayMillis);
+        this.maxPending = Math.max(1, maxPending);
+        resize(Math.max(1, threads));
+    }
+
+    /**
+     * Sets the executor which runs tasks on the thread owning the configurations, usually the main server thread.
+     * Without one, the copies of scheduled flushes are taken on the scheduler thread.
+     *
+     * @param snapshotExecutor the executor, or null
+     */
+    public void setSnapshotExecutor(final Executor snapshotExecutor) {
+        this.snapshotExecutor = snapshotExecutor;
+    }
+
+    private static ExecutorService[] createStripes(final int threads) {
+        final ExecutorService[] executors = new ExecutorService[threads];
+        for (int i = 0; i < threads; i++) {
+            final String name = "Essentials Save Thread #" + (i + 1);
+            executors[i] = Executors.newSingleThreadExecutor(runnable -> new Thread(runnable, name));
+        }
+        return executors;
+    }
+
+    private synchronized void resize(final int threads) {
+        final ExecutorService[] old = stripes;
+        if (old.length == threads || shutdown) {
+            return;
+        }
+
+        // A file may move to another stripe, so the new stripes only start writing once the old stripes have
+        // finished, which keeps the writes of every file in order without blocking the caller.
+        final ExecutorService[] executors = createStripes(threads);
+        for (final ExecutorService executor : executors) {
+            executor.execute(() -> awaitTermination(old));
+        }
+        stripes = executors;
+        for (final ExecutorService executor : old) {
+            executor.shutdown();
+        }
+    }
+
+    private static void awaitTermination(final ExecutorService[] executors) {
+        for (final ExecutorService executor : executors) {
+            try {
+                if (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    LOGGER.log(Level.WARNING, "Timed out waiting for pending saves after resizing the save thread pool");
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    private ExecutorService stripe(final EssentialsConfiguration config) {
+        final ExecutorService[] executors = stripes;
+        return executors[Math.floorMod(config.getSaveKey().hashCode(), executors.length)];
+    }
+
+    /**
+     * Submits a task to the stripe of the given configuration. A task which raced with a resize and was
+     * rejected by an old stripe is submitted again to the new one.
+     */
+    private Future<?> submit(final EssentialsConfiguration config, final Runnable task) {
+        while (true) {
+            final ExecutorService executor = stripe(config);
+            try {
+                return executor.submit(task);
+            } catch (final RejectedExecutionException e) {
+                if (executor == stripe(config)) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    public int getThreadCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Marks the given configuration as changed, scheduling a flush if it is not already waiting for one.
+     *
+     * @param config the changed configuration
+     */
+    public void markDirty(final EssentialsConfiguration config) {
+        if (shutdown) {
+            writeNow(config);
+            return;
+        }
+        synchronized (config) {
+            if (config.dirty.get()) {
+                coalesced.incrementAndGet();
+                return;
+            }
+            config.dirtySince = System.nanoTime();
+            config.pendingWrites.incrementAndGet();
+            dirty.add(config);
+            config.dirty.set(true);
+        }
+
+        // Once too many files are waiting, stop delaying so the queue drains instead of growing further.
+        final long delay = dirty.size() > maxPending ? 0 : delayMillis;
+        scheduler.schedule(() -> {
+            final Executor executor = snapshotExecutor;
+            try {
+                if (executor != null) {
+                    executor.execute(() -> flush(config));
+                } else {
+                    flush(config);
+                }
+            } catch (final RuntimeException e) {
+                // Reset the configuration so the next save schedules it again.
+                if (claim(config)) {
+                    config.pendingWrites.decrementAndGet();
+                }
+                LOGGER.log(Level.SEVERE, "Failed to schedule saving " + config.getFile(), e);
+            }
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Writes the given configuration as soon as possible, skipping the delay.
+     *
+     * @param config the configuration
+     * @return a future which completes once the configuration has been written
+     */
+    public Future<?> flushNow(final EssentialsConfiguration config) {
+        if (shutdown) {
+            writeNow(config);
+            return CompletableFuture.completedFuture(null);
+        }
+        final CommentedConfigurationNode node = config.snapshot();
+        final long since;
+        if (claim(config)) {
+            since = config.dirtySince;
+        } else {
+            config.pendingWrites.incrementAndGet();
+            since = System.nanoTime();
+        }
+
+        try {
+            return submit(config, () -> write(config, node, since));
+        } catch (final RejectedExecutionException e) {
+            config.pendingWrites.decrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * Writes every dirty configuration and waits until all of them have been written, logging the progress
+     * while doing so. The configurations are copied on the calling thread, which should own them.
+     */
+    public void flushAll() {
+        awaitAll(submitAll());
+    }
+
+    /**
+     * Copies every dirty configuration on the calling thread, which should own them, and submits the copies
+     * to the save threads without waiting for them.
+     *
+     * @return the futures of the submitted writes, for {@link #awaitAll(List)}
+     */
+    public List<Future<?>> submitAll() {
+        final List<Future<?>> futures = new ArrayList<>();
+        for (final EssentialsConfiguration config : new ArrayList<>(dirty)) {
+            if (claim(config)) {
+                final long since = config.dirtySince;
+                final CommentedConfigurationNode node = config.snapshot();
+                try {
+                    futures.add(submit(config, () -> write(config, node, since)));
+                } catch (final RejectedExecutionException e) {
+                    config.pendingWrites.decrementAndGet();
+                    LOGGER.log(Level.SEVERE, "Failed to schedule saving " + config.getFile(), e);
+                }
+            }
+        }
+        return futures;
+    }
+
+    /**
+     * Waits until the given writes have finished, logging the progress while doing so.
+     *
+     * @param futures the futures returned by {@link #submitAll()}
+     */
+    public void awaitAll(final List<Future<?>> futures) {
+        if (futures.isEmpty()) {
+            return;
+        }
+
+        LOGGER.log(Level.INFO, "Saving {0} pending data file(s) using {1} thread(s)...", new Object[]{futures.size(), stripes.length});
+        long lastReport = System.nanoTime();
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                futures.get(i).get();
+            } catch (final InterruptedException | ExecutionException e) {
+                LOGGER.log(Level.SEVERE, e.getMessage(), e);
+            }
+            if (System.nanoTime() - lastReport > PROGRESS_INTERVAL) {
+                lastReport = System.nanoTime();
+                LOGGER.log(Level.INFO, "Saved {0}/{1} data files...", new Object[]{i + 1, futures.size()});
+            }
+        }
+        LOGGER.log(Level.INFO, "Saved all {0} pending data file(s).", futures.size());
+    }
+
+    /**
+     * Writes every dirty configuration, then stops the scheduler and the save threads and waits until all
+     * writes, including those which were already in progress, have finished. The configurations are copied
+     * on the calling thread, which should own them. Saves after this are written on the saving thread.
+     */
+    public void shutdown() {
+        flushAll();
+        scheduler.shutdownNow();
+        final ExecutorService[] executors;
+        synchronized (this) {
+            shutdown = true;
+            executors = stripes;
+        }
+        for (final ExecutorService executor : executors) {
+            executor.shutdown();
+        }
+
+        // The first task of each stripe waits for the stripes it replaced, so this also waits for those.
+        final long start = System.nanoTime();
+        for (int i = 0; i < executors.length; i++) {
+            try {
+                while (!executors[i].awaitTermination(PROGRESS_INTERVAL, TimeUnit.NANOSECONDS)) {
+                    LOGGER.log(Level.INFO, "Waiting for {0}/{1} save thread(s) to finish writing...", new Object[]{executors.length - i, executors.length});
+                }
+            } catch (final InterruptedException e) {
+                Thread.currentThread().interrupt();
+                LOGGER.log(Level.SEVERE, "Interrupted while waiting for the save threads to finish writing");
+                return;
+            }
+        }
+        if (System.nanoTime() - start > PROGRESS_INTERVAL) {
+            LOGGER.log(Level.INFO, "All save threads have finished writing.");
+        }
+
+        // Configurations changed while the first pass was running were scheduled on the stopped scheduler.
+        for (final EssentialsConfiguration config : new ArrayList<>(dirty)) {
+            writeNow(config);
+        }
+    }
+
+    private void writeNow(final EssentialsConfiguration config) {
+        // A claimed configuration already counts as a pending write
+        if (!claim(config)) {
+            config.pendingWrites.incrementAndGet();
+        }
+        write(config, config.snapshot(), System.nanoTime());
+    }
+
+    private boolean claim(final EssentialsConfiguration config) {
+        // Changing the flag and the set together keeps a configuration from being left in the set while not dirty.
+        synchronized (config) {
+            if (!config.dirty.get()) {
+                return false;
+            }
+            config.dirty.set(false);
+            dirty.remove(config);
+            return true;
+        }
+    }
+
+    private void flush(final EssentialsConfiguration config) {
+        // The configuration may have been written by a blocking save in the meantime.
+        if (!claim(config)) {
+            return;
+        }
+        final long since = config.dirtySince;
+        final CommentedConfigurationNode node;
+        try {
+            node = config.snapshot();
+        } catch (final RuntimeException e) {
+            config.pendingWrites.decrementAndGet();
+            LOGGER.log(Level.SEVERE, "Failed to save " + config.getFile(), e);
+            return;
+        }
+        try {
+            submit(config, () -> write(config, node, since));
+        } catch (final RejectedExecutionException e) {
+            config.pendingWrites.decrementAndGet();
+            LOGGER.log(Level.SEVERE, "Failed to schedule saving " + config.getFile(), e);
+        }
+    }
+
+    private void write(final EssentialsConfiguration config, final CommentedConfigurationNode node, final long since) {
+        final long start = System.nanoTime();
+        new ConfigurationSaveTask(config.getLoader(), node, config.pendingWrites).run();
+        final long end = System.nanoTime();
+
+        flushes.incrementAndGet();
+        totalWriteNanos.addAndGet(end - start);
+        totalDelayNanos.addAndGet(start - since);
+        maxWriteNanos.accumulateAndGet(end - start, Math::max);
+    }
+
+    /**
+     * @return the amount of configurations waiting to be written.
+     */
+    public int getQueueDepth() {
+        return dirty.size();
+    }
+
+    public long getFlushCount() {
+        return flushes.get();
+    }
+
+    /**
+     * @return the amount of saves which were folded into an already scheduled flush.
+     */
+    public long getCoalescedCount() {
+        return coalesced.get();
+    }
+
+    public double getAverageWriteMillis() {
+        final long count = flushes.get();
+        return count == 0 ? 0 : totalWriteNanos.get() / (double) count / 1_000_000D;
+    }
+
+    public double getMaxWriteMillis() {
+        return maxWriteNanos.get() / 1_000_000D;
+    }
+
+    /**
+     * @return the average time between a configuration first being changed and it being written to disk.
+     */
+    public double getAverageDelayMillis() {
+        final long count = flushes.get();
+        return count == 0 ? 0 : totalDelayNanos.get() / (double) count / 1_000_000D;
+    }
+}
@@ -23,12 +23,6 @@ public class ConfigurationSaveTask implements Runnable {
     @Override
     public void run() {
         synchronized (loader) {
-            // Check if there are more writes in queue.
-            // If that's the case, we shouldn't bother writing data which is already out-of-date.
-            if (pendingWrites.get() > 1) {
-                pendingWrites.decrementAndGet();
-            }
-
             try {
                 loader.save(node);
             } catch (ConfigurateException e) {
@@ -25,6 +25,8 @@ import org.spongepowered.configurate.serialize.TypeSerializerCollection;
 import org.spongepowered.configurate.yaml.NodeStyle;
 import org.spongepowered.configurate.yaml.YamlConfigurationLoader;
 
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
@@ -37,10 +39,8 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.Future;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
@@ -50,7 +50,7 @@ import static com.earth2me.essentials.I18n.tl;
 
 public class EssentialsConfiguration {
     protected static final Logger LOGGER = Logger.getLogger("Essentials");
-    private static final ExecutorService EXECUTOR_SERVICE = Executors.newSingleThreadExecutor();
+    private static final ConfigurationSaveQueue SAVE_QUEUE = new ConfigurationSaveQueue();
     private static final ObjectMapper.Factory MAPPER_FACTORY = ObjectMapper.factoryBuilder()
             .addProcessor(DeleteOnEmpty.class, (data, value) -> new DeleteOnEmptyProcessor())
             .addProcessor(DeleteIfIncomplete.class, (data, value) -> new DeleteIfIncompleteProcessor())
@@ -64,7 +64,9 @@ public class EssentialsConfiguration {
             .register(MailMessage.class, new MailMessageSerializer())
             .build();
 
-    private final AtomicInteger pendingWrites = new AtomicInteger(0);
+    final AtomicInteger pendingWrites = new AtomicInteger(0);
+    final AtomicBoolean dirty = new AtomicBoolean(false);
+    volatile long dirtySince;
     private final AtomicBoolean transaction = new AtomicBoolean(false);
     private Class<?> resourceClass = EssentialsConfiguration.class;
     protected final File configFile;
@@ -87,19 +89,37 @@ public class EssentialsConfiguration {
     }
 
     public EssentialsConfiguration(final File configFile, final String templateName, final String header) {
+        this(configFile, templateName, header, YamlConfigurationLoader.builder().file(configFile));
+    }
+
+    /**
+     * Creates a configuration which is read from and written to the given source and sink rather than a file.
+     *
+     * @param configFile the file backing this configuration, or null if there is none
+     * @param source     the reader factory
+     * @param sink       the writer factory
+     */
+    public EssentialsConfiguration(final File configFile, final Callable<BufferedReader> source, final Callable<BufferedWriter> sink) {
+        this(configFile, null, null, YamlConfigurationLoader.builder().source(source).sink(sink));
+    }
+
+    private EssentialsConfiguration(final File configFile, final String templateName, final String header, final YamlConfigurationLoader.Builder builder) {
         this.configFile = configFile;
-        this.loader = YamlConfigurationLoader.builder()
+        this.loader = builder
                 .defaultOptions(opts -> opts
                         .header(header)
                         .serializers(SERIALIZERS))
                 .headerMode(HeaderMode.PRESET)
                 .nodeStyle(NodeStyle.BLOCK)
                 .indent(2)
-                .file(configFile)
                 .build();
         this.templateName = templateName;
     }
 
+    public static ConfigurationSaveQueue getSaveQueue() {
+        return SAVE_QUEUE;
+    }
+
     public CommentedConfigurationNode getRootNode() {
         return configurationNode;
     }
@@ -340,14 +360,14 @@ public class EssentialsConfiguration {
             return;
         }
 
-        if (configFile.getParentFile() != null && !configFile.getParentFile().exists()) {
+        if (configFile != null && configFile.getParentFile() != null && !configFile.getParentFile().exists()) {
             if (!configFile.getParentFile().mkdirs()) {
                 LOGGER.log(Level.SEVERE, tl("failedToCreateConfig", configFile.toString()));
                 return;
             }
         }
 
-        if (!configFile.exists()) {
+        if (configFile == null || !configFile.exists()) {
             if (legacyFileExists()) {
                 convertLegacyFile();
             } else if (altFileExists()) {
@@ -365,6 +385,10 @@ public class EssentialsConfiguration {
         try {
             configurationNode = loader.load();
         } catch (final ParsingException e) {
+            if (configFile == null) {
+                LOGGER.log(Level.SEVERE, "Stored configuration data is broken and has been ignored", e.getCause());
+                return;
+            }
             final File broken = new File(configFile.getAbsolutePath() + ".broken." + System.currentTimeMillis());
             if (configFile.renameTo(broken)) {
                 LOGGER.log(Level.SEVERE, "The file " + configFile.toString() + " is broken, it has been renamed to " + broken.toString(), e.getCause());
@@ -427,27 +451,41 @@ public class EssentialsConfiguration {
 
     public synchronized void save() {
         if (!transaction.get()) {
-            delaySave();
+            SAVE_QUEUE.markDirty(this);
         }
     }
 
-    public synchronized void blockingSave() {
+    public void blockingSave() {
         try {
-            delaySave().get();
+            SAVE_QUEUE.flushNow(this).get();
         } catch (final InterruptedException | ExecutionException e) {
             LOGGER.log(Level.SEVERE, e.getMessage(), e);
         }
     }
 
-    private Future<?> delaySave() {
+    /**
+     * Returns the key identifying the data this configuration is saved to.
+     * Saves of configurations with the same key are always performed in order.
+     *
+     * @return the save key
+     */
+    protected Object getSaveKey() {
+        return configFile != null ? configFile : this;
+    }
+
+    YamlConfigurationLoader getLoader() {
+        return loader;
+    }
+
+    /**
+     * Runs the save hook and copies the current state of this configuration, so that it can be written
+     * without holding on to the live node. The save hook reads data which is not safe to read while another
+     * thread changes it, so this has to run on the thread which owns this configuration.
+     */
+    synchronized CommentedConfigurationNode snapshot() {
         if (saveHook != null) {
             saveHook.run();
         }
-
-        final CommentedConfigurationNode node = configurationNode.copy();
-
-        pendingWrites.incrementAndGet();
-
-        return EXECUTOR_SERVICE.submit(new ConfigurationSaveTask(loader, node, pendingWrites));
+        return configurationNode.copy();
     }
 }
@@ -1,5 +1,6 @@
 package com.earth2me.essentials.config;
 
+import com.earth2me.essentials.config.storage.UserStorage;
 import com.google.common.base.Charsets;
 import com.google.common.io.Files;
 
@@ -19,6 +20,12 @@ public class EssentialsUserConfiguration extends EssentialsConfiguration {
         this.uuid = uuid;
     }
 
+    public EssentialsUserConfiguration(final String username, final UUID uuid, final UserStorage storage) {
+        super(storage.getFile(uuid), storage.reader(uuid), storage.writer(uuid));
+        this.username = username;
+        this.uuid = uuid;
+    }
+
     public String getUsername() {
         return username;
     }
@@ -31,8 +38,16 @@ public class EssentialsUserConfiguration extends EssentialsConfiguration {
         this.username = username;
     }
 
+    @Override
+    protected Object getSaveKey() {
+        return uuid;
+    }
+
     @Override
     public boolean legacyFileExists() {
+        if (configFile == null) {
+            return false;
+        }
         return new File(configFile.getParentFile(), username + ".yml").exists();
     }
 
@@ -56,6 +71,9 @@ public class EssentialsUserConfiguration extends EssentialsConfiguration {
 
     @Override
     public boolean altFileExists() {
+        if (configFile == null || username == null) {
+            return false;
+        }
         if (username.equals(username.toLowerCase())) {
             return false;
         }
@@ -33,6 +33,16 @@ public class UserConfigHolder {
         this.money = value;
     }
 
+    @DeleteOnEmpty
+    private @MonotonicNonNull Map<String, BigDecimal> currencies;
+
+    public Map<String, BigDecimal> currencies() {
+        if (this.currencies == null) {
+            this.currencies = new HashMap<>();
+        }
+        return this.currencies;
+    }
+
     @DeleteOnEmpty
     private @MonotonicNonNull Map<String, LazyLocation> homes;
 
@@ -414,6 +424,20 @@ public class UserConfigHolder {
             this.kits = value;
         }
 
+        @DeleteOnEmpty
+        private @MonotonicNonNull Map<String, Long> economyJobs;
+
+        public Map<String, Long> economyJobs() {
+            if (this.economyJobs == null) {
+                this.economyJobs = new HashMap<>();
+            }
+            return this.economyJobs;
+        }
+
+        public void economyJobs(final Map<String, Long> value) {
+            this.economyJobs = value;
+        }
+
         @DeleteOnEmpty
         @DeleteIfIncomplete
         private @MonotonicNonNull List<CommandCooldown> commandCooldowns;
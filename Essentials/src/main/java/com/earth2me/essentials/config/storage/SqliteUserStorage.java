@@ -0,0 +1,248 @@
+package com.earth2me.essentials.config.storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.nio.file.NoSuchFileException;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores every user as a row of a single embedded SQLite database.
+ * <p>
+ * The SQLite driver is bundled with the server, so this does not need any additional libraries.
+ * SQLite only allows a single writer, so all access goes through one connection.
+ */
+public class SqliteUserStorage implements UserStorage {
+    public static final String TYPE = "sqlite";
+    private static final Logger LOGGER = Logger.getLogger("Essentials");
+    private static final String CREATE_TABLE = "CREATE TABLE IF NOT EXISTS userdata (uuid CHAR(36) PRIMARY KEY NOT NULL, data TEXT NOT NULL)";
+    private static final String SELECT = "SELECT data FROM userdata WHERE uuid = ?";
+    private static final String SELECT_EXISTS = "SELECT 1 FROM userdata WHERE uuid = ?";
+    private static final String SELECT_ALL = "SELECT uuid FROM userdata";
+    private static final String UPSERT = "INSERT OR REPLACE INTO userdata (uuid, data) VALUES (?, ?)";
+    private static final String INSERT_MISSING = "INSERT OR IGNORE INTO userdata (uuid, data) VALUES (?, ?)";
+    private static final String DELETE = "DELETE FROM userdata WHERE uuid = ?";
+    private static final String CREATE_META = "CREATE TABLE IF NOT EXISTS meta (name TEXT PRIMARY KEY NOT NULL, value TEXT NOT NULL)";
+    private static final String SELECT_META = "SELECT value FROM meta WHERE name = ?";
+    private static final String INSERT_META = "INSERT OR IGNORE INTO meta (name, value) VALUES (?, ?)";
+    private static final String DELETE_META = "DELETE FROM meta WHERE name = ?";
+    private static final String MIGRATION_START = "migration-start";
+    private final File databaseFile;
+    private Connection connection;
+
+    public SqliteUserStorage(final File databaseFile) throws SQLException {
+        this.databaseFile = databaseFile;
+        try {
+            Class.forName("org.sqlite.JDBC");
+        } catch (final ClassNotFoundException e) {
+            throw new SQLException("The SQLite driver is not available on this server", e);
+        }
+        try (final Statement statement = getConnection().createStatement()) {
+            statement.executeUpdate(CREATE_TABLE);
+            statement.executeUpdate(CREATE_META);
+        }
+    }
+
+    public File getDatabaseFile() {
+        return databaseFile;
+    }
+
+    private synchronized Connection getConnection() throws SQLException {
+        if (connection == null || connection.isClosed()) {
+            connection = DriverManager.getConnection("jdbc:sqlite:" + databaseFile.getAbsolutePath());
+            try (final Statement statement = connection.createStatement()) {
+                statement.execute("PRAGMA journal_mode=WAL");
+                statement.execute("PRAGMA synchronous=NORMAL");
+            }
+        }
+        return connection;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public File getFile(final UUID uuid) {
+        return null;
+    }
+
+    @Override
+    public Callable<BufferedReader> reader(final UUID uuid) {
+        return () -> {
+            final String data = read(uuid);
+            if (data == null) {
+                throw new NoSuchFileException(uuid.toString());
+            }
+            return new BufferedReader(new StringReader(data));
+        };
+    }
+
+    @Override
+    public Callable<BufferedWriter> writer(final UUID uuid) {
+        return () -> new BufferedWriter(new StringWriter() {
+            @Override
+            public void close() throws IOException {
+                try {
+                    SqliteUserStorage.this.write(uuid, toString());
+                } catch (final SQLException e) {
+                    throw new IOException("Failed to write userdata of " + uuid, e);
+                }
+            }
+        });
+    }
+
+    public synchronized String read(final UUID uuid) throws SQLException {
+        try (final PreparedStatement statement = getConnection().prepareStatement(SELECT)) {
+            statement.setString(1, uuid.toString());
+            try (final ResultSet result = statement.executeQuery()) {
+                return result.next() ? result.getString(1) : null;
+            }
+        }
+    }
+
+    public synchronized void write(final UUID uuid, final String data) throws SQLException {
+        try (final PreparedStatement statement = getConnection().prepareStatement(UPSERT)) {
+            statement.setString(1, uuid.toString());
+            statement.setString(2, data);
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public synchronized boolean exists(final UUID uuid) {
+        try (final PreparedStatement statement = getConnection().prepareStatement(SELECT_EXISTS)) {
+            statement.setString(1, uuid.toString());
+            try (final ResultSet result = statement.executeQuery()) {
+                return result.next();
+            }
+        } catch (final SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to look up userdata of " + uuid, e);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized boolean delete(final UUID uuid) {
+        try (final PreparedStatement statement = getConnection().prepareStatement(DELETE)) {
+            statement.setString(1, uuid.toString());
+            return statement.executeUpdate() > 0;
+        } catch (final SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to delete userdata of " + uuid, e);
+            return false;
+        }
+    }
+
+    @Override
+    public synchronized void forEachUser(final Consumer<UUID> consumer) {
+        try (final Statement statement = getConnection().createStatement();
+             final ResultSet result = statement.executeQuery(SELECT_ALL)) {
+            while (result.next()) {
+                try {
+                    consumer.accept(UUID.fromString(result.getString(1)));
+                } catch (final IllegalArgumentException ignored) {
+                }
+            }
+        } catch (final SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to list userdata", e);
+        }
+    }
+
+    /**
+     * Writes the given users inside a single database transaction, which is much faster for bulk writes.
+     * The data should be read beforehand, as every other access to the database waits for this to finish.
+     *
+     * @param data      the data of each user
+     * @param overwrite whether to replace users which already exist
+     * @return the amount of users written
+     * @throws SQLException if writing failed, in which case the transaction is rolled back
+     */
+    public synchronized int writeAll(final Map<UUID, String> data, final boolean overwrite) throws SQLException {
+        final Connection conn = getConnection();
+        conn.setAutoCommit(false);
+        try (final PreparedStatement statement = conn.prepareStatement(overwrite ? UPSERT : INSERT_MISSING)) {
+            int written = 0;
+            for (final Map.Entry<UUID, String> entry : data.entrySet()) {
+                statement.setString(1, entry.getKey().toString());
+                statement.setString(2, entry.getValue());
+                written += statement.executeUpdate();
+            }
+            conn.commit();
+            return written;
+        } catch (final SQLException e) {
+            conn.rollback();
+            throw e;
+        } finally {
+            conn.setAutoCommit(true);
+        }
+    }
+
+    /**
+     * Records when a migration from the userdata folder started, unless an earlier migration was recorded already.
+     * The userdata folder keeps changing until the server is restarted with this storage, so those changes
+     * have to be imported on the first start.
+     *
+     * @param time the time the migration started, in milliseconds
+     * @throws SQLException if the time could not be recorded
+     */
+    public synchronized void markMigrationStart(final long time) throws SQLException {
+        try (final PreparedStatement statement = getConnection().prepareStatement(INSERT_META)) {
+            statement.setString(1, MIGRATION_START);
+            statement.setString(2, Long.toString(time));
+            statement.executeUpdate();
+        }
+    }
+
+    /**
+     * @return the time the earliest unfinished migration started, in milliseconds, or -1 if there is none
+     * @throws SQLException if the time could not be read
+     */
+    public synchronized long getMigrationStart() throws SQLException {
+        try (final PreparedStatement statement = getConnection().prepareStatement(SELECT_META)) {
+            statement.setString(1, MIGRATION_START);
+            try (final ResultSet result = statement.executeQuery()) {
+                return result.next() ? Long.parseLong(result.getString(1)) : -1;
+            }
+        }
+    }
+
+    /**
+     * Marks the migration as finished, after the changes made since it started have been imported.
+     *
+     * @throws SQLException if the time could not be removed
+     */
+    public synchronized void clearMigrationStart() throws SQLException {
+        try (final PreparedStatement statement = getConnection().prepareStatement(DELETE_META)) {
+            statement.setString(1, MIGRATION_START);
+            statement.executeUpdate();
+        }
+    }
+
+    @Override
+    public synchronized void close() {
+        if (connection == null) {
+            return;
+        }
+        try {
+            connection.close();
+        } catch (final SQLException e) {
+            LOGGER.log(Level.WARNING, "Failed to close userdata database", e);
+        }
+        connection = null;
+    }
+}
@@ -0,0 +1,62 @@
+package com.earth2me.essentials.config.storage;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+
+/**
+ * Backend which user data is read from and written to.
+ * <p>
+ * User data is always exchanged as serialized YAML documents, so that implementations only have
+ * to worry about where the document lives and not about its contents.
+ */
+public interface UserStorage {
+    /**
+     * @return the name of this storage type, as used in the config.
+     */
+    String getType();
+
+    /**
+     * Returns the file that holds the data of the given user, or null if this storage is not file based.
+     *
+     * @param uuid the user
+     * @return the user's file, or null
+     */
+    File getFile(UUID uuid);
+
+    /**
+     * Creates a reader factory for the given user's document.
+     * <p>
+     * The returned reader must throw a {@link java.nio.file.NoSuchFileException} when no data is stored
+     * for the user, which is treated as an empty document.
+     *
+     * @param uuid the user
+     * @return the reader factory
+     */
+    Callable<BufferedReader> reader(UUID uuid);
+
+    /**
+     * Creates a writer factory for the given user's document. The document is only persisted once the
+     * writer is closed.
+     *
+     * @param uuid the user
+     * @return the writer factory
+     */
+    Callable<BufferedWriter> writer(UUID uuid);
+
+    boolean exists(UUID uuid);
+
+    boolean delete(UUID uuid);
+
+    /**
+     * Streams every user present in this storage to the given consumer.
+     *
+     * @param consumer the consumer
+     */
+    void forEachUser(Consumer<UUID> consumer);
+
+    void close();
+}
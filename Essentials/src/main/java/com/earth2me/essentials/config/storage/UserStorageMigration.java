@@ -0,0 +1,142 @@
+package com.earth2me.essentials.config.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.IntConsumer;
+import java.util.function.Predicate;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Streams the per-user YAML files of a userdata folder into a {@link SqliteUserStorage}.
+ * <p>
+ * Files are read in fixed size batches and each batch is committed in a single transaction, so the
+ * migration never holds more than a single batch in memory regardless of how many users exist. The files
+ * are read before the database is locked, so the server can keep using it while the migration runs.
+ */
+public final class UserStorageMigration {
+    private static final Logger LOGGER = Logger.getLogger("Essentials");
+    private static final int BATCH_SIZE = 500;
+    // Some file systems only store modification times with a precision of a few seconds.
+    private static final long MODIFIED_SLACK = 2000;
+
+    private final File folder;
+    private final SqliteUserStorage target;
+    private final boolean overwrite;
+    private final Predicate<UUID> exclude;
+    private final long modifiedSince;
+    private int migrated = 0;
+    private int skipped = 0;
+    private int failed = 0;
+
+    /**
+     * @param folder    the userdata folder
+     * @param target    the database to migrate into
+     * @param overwrite whether to replace users which already exist in the database
+     * @param exclude   the users to skip, such as loaded users whose files may be out of date
+     */
+    public UserStorageMigration(final File folder, final SqliteUserStorage target, final boolean overwrite, final Predicate<UUID> exclude) {
+        this(folder, target, overwrite, exclude, -1);
+    }
+
+    /**
+     * @param folder        the userdata folder
+     * @param target        the database to migrate into
+     * @param overwrite     whether to replace users which already exist in the database
+     * @param exclude       the users to skip, such as loaded users whose files may be out of date
+     * @param modifiedSince only migrate files modified after this time in milliseconds, or -1 to migrate all files
+     */
+    public UserStorageMigration(final File folder, final SqliteUserStorage target, final boolean overwrite, final Predicate<UUID> exclude, final long modifiedSince) {
+        this.folder = folder;
+        this.target = target;
+        this.overwrite = overwrite;
+        this.exclude = exclude;
+        this.modifiedSince = modifiedSince;
+    }
+
+    /**
+     * Runs the migration, reporting the amount of processed files to the given consumer after each batch.
+     *
+     * @param progress the progress consumer
+     * @throws IOException if the userdata folder could not be read
+     */
+    public void run(final IntConsumer progress) throws IOException {
+        final List<Path> batch = new ArrayList<>(BATCH_SIZE);
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(folder.toPath(), "*.yml")) {
+            for (final Path path : stream) {
+                if (modifiedSince >= 0 && Files.getLastModifiedTime(path).toMillis() < modifiedSince - MODIFIED_SLACK) {
+                    continue;
+                }
+                batch.add(path);
+                if (batch.size() >= BATCH_SIZE) {
+                    flush(batch);
+                    progress.accept(getProcessed());
+                }
+            }
+        }
+        if (!batch.isEmpty()) {
+            flush(batch);
+            progress.accept(getProcessed());
+        }
+    }
+
+    private void flush(final List<Path> batch) {
+        final Map<UUID, String> data = new LinkedHashMap<>(batch.size() * 2);
+        for (final Path path : batch) {
+            final String name = path.getFileName().toString();
+            final UUID uuid;
+            try {
+                uuid = UUID.fromString(name.substring(0, name.length() - 4));
+            } catch (final IllegalArgumentException e) {
+                skipped++;
+                continue;
+            }
+            if (exclude.test(uuid)) {
+                skipped++;
+                continue;
+            }
+            try {
+                data.put(uuid, new String(Files.readAllBytes(path), StandardCharsets.UTF_8));
+            } catch (final IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to read " + path, e);
+                failed++;
+            }
+        }
+        batch.clear();
+
+        try {
+            final int written = target.writeAll(data, overwrite);
+            migrated += written;
+            skipped += data.size() - written;
+        } catch (final SQLException e) {
+            LOGGER.log(Level.SEVERE, "Failed to migrate a batch of " + data.size() + " users", e);
+            failed += data.size();
+        }
+    }
+
+    public int getProcessed() {
+        return migrated + skipped + failed;
+    }
+
+    public int getMigrated() {
+        return migrated;
+    }
+
+    public int getSkipped() {
+        return skipped;
+    }
+
+    public int getFailed() {
+        return failed;
+    }
+}
@@ -0,0 +1,91 @@
+package com.earth2me.essentials.config.storage;
+
+import org.spongepowered.configurate.util.AtomicFiles;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Stores each user in its own {@code userdata/<uuid>.yml} file.
+ */
+public class YamlUserStorage implements UserStorage {
+    public static final String TYPE = "yaml";
+    private static final Logger LOGGER = Logger.getLogger("Essentials");
+    private final File folder;
+
+    public YamlUserStorage(final File folder) {
+        this.folder = folder;
+        if (!folder.exists()) {
+            folder.mkdirs();
+        }
+    }
+
+    public File getFolder() {
+        return folder;
+    }
+
+    @Override
+    public String getType() {
+        return TYPE;
+    }
+
+    @Override
+    public File getFile(final UUID uuid) {
+        return new File(folder, uuid.toString() + ".yml");
+    }
+
+    @Override
+    public Callable<BufferedReader> reader(final UUID uuid) {
+        final Path path = getFile(uuid).toPath();
+        return () -> Files.newBufferedReader(path, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public Callable<BufferedWriter> writer(final UUID uuid) {
+        return AtomicFiles.atomicWriterFactory(getFile(uuid).toPath(), StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public boolean exists(final UUID uuid) {
+        return getFile(uuid).exists();
+    }
+
+    @Override
+    public boolean delete(final UUID uuid) {
+        return getFile(uuid).delete();
+    }
+
+    @Override
+    public void forEachUser(final Consumer<UUID> consumer) {
+        if (!folder.exists()) {
+            return;
+        }
+        try (final DirectoryStream<Path> stream = Files.newDirectoryStream(folder.toPath(), "*.yml")) {
+            for (final Path path : stream) {
+                final String name = path.getFileName().toString();
+                try {
+                    consumer.accept(UUID.fromString(name.substring(0, name.length() - 4)));
+                } catch (final IllegalArgumentException ignored) {
+                    //Ignore these users till they rejoin.
+                }
+            }
+        } catch (final IOException e) {
+            LOGGER.log(Level.SEVERE, "Failed to list userdata folder", e);
+        }
+    }
+
+    @Override
+    public void close() {
+    }
+}
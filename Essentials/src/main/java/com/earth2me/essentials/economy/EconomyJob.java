@@ -0,0 +1,60 @@
+package com.earth2me.essentials.economy;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * A balance adjustment applied to every account on a schedule, such as interest, a wealth tax or a payroll.
+ */
+public final class EconomyJob {
+    private static final BigDecimal HUNDRED = BigDecimal.valueOf(100);
+    private final String name;
+    private final long interval;
+    private final BigDecimal percentage;
+    private final BigDecimal amount;
+    private final BigDecimal minBalance;
+    private final BigDecimal maxBalance;
+
+    /**
+     * @param name       the name of the job
+     * @param interval   the time between two runs, in milliseconds
+     * @param percentage the percentage of the balance to add, negative to take money, or null
+     * @param amount     the flat amount to add, negative to take money, or null
+     * @param minBalance the lowest balance this job applies to, or null
+     * @param maxBalance the highest balance this job applies to, or null
+     */
+    public EconomyJob(final String name, final long interval, final BigDecimal percentage, final BigDecimal amount, final BigDecimal minBalance, final BigDecimal maxBalance) {
+        this.name = name;
+        this.interval = interval;
+        this.percentage = percentage;
+        this.amount = amount;
+        this.minBalance = minBalance;
+        this.maxBalance = maxBalance;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getInterval() {
+        return interval;
+    }
+
+    public boolean appliesTo(final BigDecimal balance) {
+        return (minBalance == null || balance.compareTo(minBalance) >= 0) && (maxBalance == null || balance.compareTo(maxBalance) <= 0);
+    }
+
+    /**
+     * @return the amount this job adds to the given balance, negative if it takes money.
+     */
+    public BigDecimal getChange(final BigDecimal balance) {
+        BigDecimal change = BigDecimal.ZERO;
+        if (percentage != null) {
+            change = change.add(balance.multiply(percentage, MathContext.DECIMAL128).divide(HUNDRED, MathContext.DECIMAL128));
+        }
+        if (amount != null) {
+            change = change.add(amount);
+        }
+        return change;
+    }
+}
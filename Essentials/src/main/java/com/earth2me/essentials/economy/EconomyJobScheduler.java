@@ -0,0 +1,204 @@
+package com.earth2me.essentials.economy;
+
+import com.earth2me.essentials.Trade;
+import com.earth2me.essentials.User;
+import com.earth2me.essentials.config.EssentialsConfiguration;
+import net.ess3.api.IEssentials;
+import net.ess3.api.MaxMoneyException;
+import net.ess3.api.events.UserBalanceUpdateEvent;
+import org.bukkit.scheduler.BukkitTask;
+
+import java.io.File;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Runs the economy jobs from the config over every account.
+ * <p>
+ * A run walks the known accounts in UUID order, off the main thread, in batches. Accounts a job does not apply
+ * to are skipped using the balance index, so only the users whose balance changes are loaded. After every batch
+ * the changed users are saved and then the last processed account is written to economy-jobs.yml, so a run
+ * interrupted by a restart resumes after it instead of starting over.
+ * <p>
+ * Changed balances may reach the disk before the checkpoint does, so every account also records the run which was
+ * applied to it, in the same user data as its balance. A resumed run skips the accounts it was already applied to.
+ */
+public class EconomyJobScheduler implements Runnable {
+    private static final Logger LOGGER = Logger.getLogger("Essentials");
+    private static final int BATCH_SIZE = 250;
+    private static final long CHECK_INTERVAL = 20 * 60; // ticks
+    private static final long STOP_TIMEOUT = TimeUnit.SECONDS.toMillis(30);
+    private final IEssentials ess;
+    private final EssentialsConfiguration state;
+    private final AtomicBoolean running = new AtomicBoolean(false);
+    private volatile boolean stopping = false;
+    private BukkitTask task;
+
+    public EconomyJobScheduler(final IEssentials ess) {
+        this.ess = ess;
+        this.state = new EssentialsConfiguration(new File(ess.getDataFolder(), "economy-jobs.yml"));
+        state.load();
+    }
+
+    public void start() {
+        if (task == null) {
+            task = ess.runTaskTimerAsynchronously(this, CHECK_INTERVAL, CHECK_INTERVAL);
+        }
+    }
+
+    /**
+     * Stops the scheduler, waiting for a running job to save its progress. The job stops after the account it is
+     * processing and resumes on the next start.
+     */
+    public void stop() {
+        stopping = true;
+        if (task != null) {
+            task.cancel();
+            task = null;
+        }
+        synchronized (running) {
+            final long deadline = System.currentTimeMillis() + STOP_TIMEOUT;
+            long remaining = STOP_TIMEOUT;
+            while (running.get() && remaining > 0) {
+                try {
+                    running.wait(remaining);
+                } catch (final InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                remaining = deadline - System.currentTimeMillis();
+            }
+            if (running.get()) {
+                LOGGER.warning("Timed out waiting for the running economy job to stop");
+            }
+        }
+    }
+
+    @Override
+    public void run() {
+        if (!running.compareAndSet(false, true)) {
+            return;
+        }
+        try {
+            for (final EconomyJob job : ess.getSettings().getEconomyJobs()) {
+                if (stopping) {
+                    return;
+                }
+                final String path = "jobs." + job.getName();
+                final long now = System.currentTimeMillis();
+                if (state.getLong(path + ".run-start", 0) != 0 || now - state.getLong(path + ".last-run", 0) >= job.getInterval()) {
+                    runJob(job, path);
+                }
+            }
+        } catch (final Exception e) {
+            LOGGER.log(Level.SEVERE, "Failed to run the economy jobs", e);
+        } finally {
+            synchronized (running) {
+                running.set(false);
+                running.notifyAll();
+            }
+        }
+    }
+
+    private void runJob(final EconomyJob job, final String path) {
+        long runStart = state.getLong(path + ".run-start", 0);
+        if (runStart == 0) {
+            runStart = System.currentTimeMillis();
+            state.setProperty(path + ".run-start", runStart);
+            state.setProperty(path + ".accounts", 0);
+            state.setProperty(path + ".total", BigDecimal.ZERO.toPlainString());
+            state.removeProperty(path + ".checkpoint");
+            state.blockingSave();
+            LOGGER.info("Starting economy job " + job.getName());
+        } else {
+            LOGGER.info("Resuming economy job " + job.getName() + " after " + state.getString(path + ".checkpoint", "the first account"));
+        }
+
+        final List<UUID> accounts = new ArrayList<>(ess.getUserMap().getAllUniqueUsers());
+        Collections.sort(accounts);
+        final String checkpoint = state.getString(path + ".checkpoint", null);
+        int index = 0;
+        if (checkpoint != null) {
+            final int found = Collections.binarySearch(accounts, UUID.fromString(checkpoint));
+            index = found >= 0 ? found + 1 : -found - 1;
+        }
+
+        long changed = state.getLong(path + ".accounts", 0);
+        BigDecimal total = new BigDecimal(state.getString(path + ".total", "0"));
+        final List<User> touched = new ArrayList<>();
+        while (index < accounts.size()) {
+            final int end = Math.min(index + BATCH_SIZE, accounts.size());
+            for (; index < end && !stopping; index++) {
+                final BigDecimal change = apply(job, runStart, accounts.get(index), touched);
+                if (change.signum() != 0) {
+                    changed++;
+                    total = total.add(change, MathContext.DECIMAL128);
+                }
+            }
+            if (index == 0) {
+                return;
+            }
+
+            // Saving the changed users before the checkpoint keeps the runs they record from falling behind it
+            for (final User user : touched) {
+                user.blockingSave();
+            }
+            touched.clear();
+            state.setProperty(path + ".checkpoint", accounts.get(index - 1).toString());
+            state.setProperty(path + ".accounts", changed);
+            state.setProperty(path + ".total", total.toPlainString());
+            state.blockingSave();
+            if (stopping) {
+                return;
+            }
+        }
+
+        state.setProperty(path + ".last-run", runStart);
+        state.removeProperty(path + ".run-start");
+        state.removeProperty(path + ".checkpoint");
+        state.blockingSave();
+        LOGGER.info("Economy job " + job.getName() + " changed " + changed + " balances by a total of " + total.toPlainString());
+        Trade.log("Job", job.getName(), "Summary", "Console", null, changed + " accounts", new Trade(total, ess), null, null, ess);
+    }
+
+    private BigDecimal apply(final EconomyJob job, final long runStart, final UUID uuid, final List<User> touched) {
+        final BigDecimal indexed = ess.getUserMap().getBalance(uuid);
+        if (indexed == null || !job.appliesTo(indexed) || job.getChange(indexed).signum() == 0) {
+            return BigDecimal.ZERO;
+        }
+        final User user = ess.getUser(uuid);
+        if (user == null || user.getEconomyJobRun(job.getName()) == runStart) {
+            return BigDecimal.ZERO;
+        }
+        // The mark is saved along with the new balance
+        user.setEconomyJobRun(job.getName(), runStart);
+        touched.add(user);
+        final BigDecimal[] previous = new BigDecimal[1];
+        final BigDecimal updated;
+        try {
+            updated = user.updateMoney(balance -> {
+                previous[0] = balance;
+                if (!job.appliesTo(balance)) {
+                    return null;
+                }
+                // Jobs never push a balance over max-money, nor take money from an account which has none left
+                final BigDecimal target = balance.add(job.getChange(balance), MathContext.DECIMAL128).min(ess.getSettings().getMaxMoney()).max(balance.min(BigDecimal.ZERO));
+                return target.compareTo(balance) == 0 ? null : target;
+            }, UserBalanceUpdateEvent.Cause.ECONOMY_JOB);
+        } catch (final MaxMoneyException e) {
+            return BigDecimal.ZERO;
+        }
+        if (updated == null) {
+            return BigDecimal.ZERO;
+        }
+        return updated.subtract(previous[0]);
+    }
+}
@@ -0,0 +1,70 @@
+package com.earth2me.essentials.economy;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * Converts balances between {@link BigDecimal} and whole numbers of the smallest unit of money, for example cents
+ * with two decimals, so balances can be stored, compared and added as plain longs.
+ * <p>
+ * Amounts are rounded down to the configured amount of decimals. Arithmetic saturates at the range of a long
+ * instead of wrapping around, so an overflowing balance is caught by the max-money check.
+ */
+public final class FixedPointMoney {
+    private final int decimals;
+    private final long minUnits;
+    private final long maxUnits;
+
+    public FixedPointMoney(final int decimals, final BigDecimal minMoney, final BigDecimal maxMoney) {
+        if (decimals < 0 || decimals > 18) {
+            throw new IllegalArgumentException("Fixed point money supports 0 to 18 decimals, not " + decimals);
+        }
+        this.decimals = decimals;
+        this.minUnits = toUnits(minMoney);
+        this.maxUnits = toUnits(maxMoney);
+    }
+
+    public int getDecimals() {
+        return decimals;
+    }
+
+    public long getMinUnits() {
+        return minUnits;
+    }
+
+    public long getMaxUnits() {
+        return maxUnits;
+    }
+
+    /**
+     * @return the amount in units, or {@link Long#MAX_VALUE} or {@link Long#MIN_VALUE} if it does not fit in a long.
+     */
+    public long toUnits(final BigDecimal amount) {
+        final BigDecimal scaled = amount.setScale(decimals, RoundingMode.DOWN);
+        if (scaled.unscaledValue().bitLength() < 64) {
+            return scaled.unscaledValue().longValue();
+        }
+        return scaled.signum() < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+    }
+
+    public BigDecimal toDecimal(final long units) {
+        return BigDecimal.valueOf(units, decimals);
+    }
+
+    public long clamp(final long units) {
+        return Math.max(minUnits, Math.min(maxUnits, units));
+    }
+
+    public static long add(final long a, final long b) {
+        final long result = a + b;
+        // Both operands have the same sign and the result does not, so the sum overflowed
+        if (((a ^ result) & (b ^ result)) < 0) {
+            return a < 0 ? Long.MIN_VALUE : Long.MAX_VALUE;
+        }
+        return result;
+    }
+
+    public static long subtract(final long a, final long b) {
+        return add(a, b == Long.MIN_VALUE ? Long.MAX_VALUE : -b);
+    }
+}
@@ -0,0 +1,345 @@
+package com.earth2me.essentials.economy;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Local store of every balance change and transfer, indexed by account.
+ * <p>
+ * Records are appended to a single data file. Each record points back at the previous record of the same
+ * account, and the newest record of every account is kept in an index, so the history of one account can be
+ * read newest first, page by page, without reading the records of any other account. The index is written on
+ * shutdown and rebuilt from the data file if it is missing or out of date.
+ * <p>
+ * If the data file is corrupted anywhere but at its end, nothing more is appended to it, as new records would
+ * end up behind records which can not be read. The history stays read-only until the file is repaired or moved
+ * aside.
+ */
+public class TransactionHistory {
+    private static final Logger LOGGER = Logger.getLogger("Essentials");
+    private static final int DATA_MAGIC = 0x45535448; // ESTH
+    private static final int INDEX_MAGIC = 0x45535449; // ESTI
+    private static final int VERSION = 1;
+    private static final long HEADER_SIZE = 8;
+    private final File dataFile;
+    private final File indexFile;
+    private final ExecutorService writer = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "Essentials Transaction History");
+        thread.setDaemon(true);
+        return thread;
+    });
+    private final Map<UUID, Long> newest = new HashMap<>();
+    private final RandomAccessFile data;
+    private boolean readOnly;
+
+    public TransactionHistory(final File folder) throws IOException {
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Unable to create " + folder);
+        }
+        this.dataFile = new File(folder, "transactions.dat");
+        this.indexFile = new File(folder, "transactions.idx");
+        this.data = new RandomAccessFile(dataFile, "rw");
+        if (data.length() < HEADER_SIZE) {
+            data.setLength(0);
+            data.writeInt(DATA_MAGIC);
+            data.writeInt(VERSION);
+        } else if (data.readInt() != DATA_MAGIC || data.readInt() != VERSION) {
+            data.close();
+            throw new IOException(dataFile + " is not a transaction history file");
+        }
+        if (!loadIndex()) {
+            rebuildIndex();
+        }
+        // The index is only trusted if it was written after the last record, so it is removed until the next shutdown.
+        indexFile.delete();
+    }
+
+    /**
+     * Queues a record to be appended to the history.
+     */
+    public void record(final Record record) {
+        writer.execute(() -> {
+            try {
+                append(record);
+            } catch (final IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to write to the transaction history", e);
+            }
+        });
+    }
+
+    private synchronized void append(final Record record) throws IOException {
+        if (readOnly) {
+            return;
+        }
+        final long offset = data.length();
+        final Long previous = newest.get(record.account);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(96);
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(record.time);
+        out.writeLong(record.account.getMostSignificantBits());
+        out.writeLong(record.account.getLeastSignificantBits());
+        out.writeLong(previous == null ? -1 : previous);
+        out.writeByte(record.type.ordinal());
+        out.writeBoolean(record.counterparty != null);
+        if (record.counterparty != null) {
+            out.writeLong(record.counterparty.getMostSignificantBits());
+            out.writeLong(record.counterparty.getLeastSignificantBits());
+        }
+        out.writeUTF(record.detail == null ? "" : record.detail);
+        out.writeUTF(record.amount.toString());
+        out.writeUTF(record.balance == null ? "" : record.balance.toString());
+        data.seek(offset);
+        data.write(bytes.toByteArray());
+        newest.put(record.account, offset);
+    }
+
+    /**
+     * Reads the history of an account, newest first.
+     *
+     * @param account the UUID of the account
+     * @param since   the time of the oldest record to return
+     * @param skip    the amount of matching records to skip
+     * @param limit   the maximum amount of records to return
+     * @return the records
+     */
+    public synchronized List<Record> query(final UUID account, final long since, final int skip, final int limit) throws IOException {
+        final List<Record> result = new ArrayList<>(Math.min(limit, 64));
+        final Long start = newest.get(account);
+        long offset = start == null ? -1 : start;
+        int skipped = 0;
+        while (offset >= 0 && result.size() < limit) {
+            data.seek(offset);
+            final Record record = readRecord(data);
+            if (record.time < since) {
+                break;
+            }
+            if (skipped < skip) {
+                skipped++;
+            } else {
+                result.add(record);
+            }
+            offset = record.previous;
+        }
+        return result;
+    }
+
+    private static Record readRecord(final DataInput in) throws IOException {
+        final long time = in.readLong();
+        final UUID account = new UUID(in.readLong(), in.readLong());
+        final long previous = in.readLong();
+        final Type type = Type.values()[in.readByte()];
+        final UUID counterparty = in.readBoolean() ? new UUID(in.readLong(), in.readLong()) : null;
+        final String detail = in.readUTF();
+        final BigDecimal amount = new BigDecimal(in.readUTF());
+        final String balance = in.readUTF();
+        final Record record = new Record(time, account, type, counterparty, detail.isEmpty() ? null : detail, amount, balance.isEmpty() ? null : new BigDecimal(balance));
+        record.previous = previous;
+        return record;
+    }
+
+    private boolean loadIndex() {
+        if (!indexFile.exists()) {
+            return false;
+        }
+        try (final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+            if (in.readInt() != INDEX_MAGIC || in.readInt() != VERSION || in.readLong() != data.length()) {
+                return false;
+            }
+            final int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                newest.put(new UUID(in.readLong(), in.readLong()), in.readLong());
+            }
+            return true;
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read the transaction history index, rebuilding it", e);
+            newest.clear();
+            return false;
+        }
+    }
+
+    private void rebuildIndex() throws IOException {
+        newest.clear();
+        long offset = HEADER_SIZE;
+        final CountingStream counter = new CountingStream(new BufferedInputStream(new FileInputStream(dataFile)));
+        try (final DataInputStream in = new DataInputStream(counter)) {
+            in.readLong();
+            counter.count = 0;
+            while (offset < data.length()) {
+                final Record record = readRecord(in);
+                newest.put(record.account, offset);
+                offset += counter.count;
+                counter.count = 0;
+            }
+        } catch (final EOFException e) {
+            // A record which was only partially written before a crash is cut off.
+            LOGGER.warning("Truncating an incomplete record at the end of the transaction history");
+            data.setLength(offset);
+        } catch (final IOException | RuntimeException e) {
+            // Anything else is not a torn write, so the data is kept and only the records before it are indexed.
+            LOGGER.log(Level.SEVERE, "The transaction history is corrupted at offset " + offset + ", later records will not be shown"
+                + " and no new records will be written until " + dataFile + " is repaired or moved aside", e);
+            readOnly = true;
+        }
+    }
+
+    private synchronized void saveIndex() throws IOException {
+        try (final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile)))) {
+            out.writeInt(INDEX_MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(data.length());
+            out.writeInt(newest.size());
+            for (final Map.Entry<UUID, Long> entry : newest.entrySet()) {
+                out.writeLong(entry.getKey().getMostSignificantBits());
+                out.writeLong(entry.getKey().getLeastSignificantBits());
+                out.writeLong(entry.getValue());
+            }
+        }
+    }
+
+    /**
+     * Writes every queued record and the index, and closes the history.
+     */
+    public void close() {
+        writer.shutdown();
+        try {
+            if (!writer.awaitTermination(30, TimeUnit.SECONDS)) {
+                LOGGER.warning("Timed out waiting for the transaction history to be written");
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            try {
+                // Without an index, the corruption is found again on the next start
+                if (!readOnly) {
+                    saveIndex();
+                }
+                data.close();
+            } catch (final IOException e) {
+                LOGGER.log(Level.SEVERE, "Failed to close the transaction history", e);
+            }
+        }
+    }
+
+    public enum Type {
+        /**
+         * A balance change, with the cause of the change as detail.
+         */
+        BALANCE_UPDATE,
+        /**
+         * Money sent to another account, with the name of the receiver as detail.
+         */
+        SENT,
+        /**
+         * Money received from another account, with the name of the sender as detail.
+         */
+        RECEIVED
+    }
+
+    public static final class Record {
+        private final long time;
+        private final UUID account;
+        private final Type type;
+        private final UUID counterparty;
+        private final String detail;
+        private final BigDecimal amount;
+        private final BigDecimal balance;
+        private long previous = -1;
+
+        public Record(final long time, final UUID account, final Type type, final UUID counterparty, final String detail, final BigDecimal amount, final BigDecimal balance) {
+            this.time = time;
+            this.account = account;
+            this.type = type;
+            this.counterparty = counterparty;
+            this.detail = detail;
+            this.amount = amount;
+            this.balance = balance;
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public UUID getAccount() {
+            return account;
+        }
+
+        public Type getType() {
+            return type;
+        }
+
+        public UUID getCounterparty() {
+            return counterparty;
+        }
+
+        public String getDetail() {
+            return detail;
+        }
+
+        /**
+         * @return the change in balance, or the amount transferred.
+         */
+        public BigDecimal getAmount() {
+            return amount;
+        }
+
+        /**
+         * @return the balance after the change, or null for transfers.
+         */
+        public BigDecimal getBalance() {
+            return balance;
+        }
+    }
+
+    /**
+     * Counts the bytes read through it, so the offsets of records can be tracked while scanning the data file.
+     */
+    private static final class CountingStream extends FilterInputStream {
+        private long count;
+
+        private CountingStream(final InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            final int read = super.read();
+            if (read != -1) {
+                count++;
+            }
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] b, final int off, final int len) throws IOException {
+            final int read = super.read(b, off, len);
+            if (read > 0) {
+                count += read;
+            }
+            return read;
+        }
+    }
+}
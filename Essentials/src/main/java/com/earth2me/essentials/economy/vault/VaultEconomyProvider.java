@@ -4,6 +4,7 @@ import com.earth2me.essentials.Essentials;
 import com.earth2me.essentials.api.NoLoanPermittedException;
 import com.earth2me.essentials.api.UserDoesNotExistException;
 import com.earth2me.essentials.config.EssentialsUserConfiguration;
+import com.earth2me.essentials.config.storage.UserStorage;
 import com.earth2me.essentials.utils.NumberUtil;
 import com.google.common.base.Charsets;
 import net.ess3.api.MaxMoneyException;
@@ -11,7 +12,6 @@ import net.milkbowl.vault.economy.Economy;
 import net.milkbowl.vault.economy.EconomyResponse;
 import org.bukkit.OfflinePlayer;
 
-import java.io.File;
 import java.math.BigDecimal;
 import java.text.MessageFormat;
 import java.util.Collections;
@@ -104,7 +104,7 @@ public class VaultEconomyProvider implements Economy {
         try {
             return getDoubleValue(com.earth2me.essentials.api.Economy.getMoneyExact(playerName));
         } catch (UserDoesNotExistException e) {
-            createPlayerAccount(playerName);
+            // Balance lookups are read only, unknown players have the starting balance until their account is created
             return getDoubleValue(ess.getSettings().getStartingBalance());
         }
     }
@@ -114,7 +114,6 @@ public class VaultEconomyProvider implements Economy {
         try {
             return getDoubleValue(com.earth2me.essentials.api.Economy.getMoneyExact(player.getUniqueId()));
         } catch (UserDoesNotExistException e) {
-            createPlayerAccount(player);
             return getDoubleValue(ess.getSettings().getStartingBalance());
         }
     }
@@ -131,12 +130,52 @@ public class VaultEconomyProvider implements Economy {
 
     @Override
     public double getBalance(String playerName, String world) {
-        return getBalance(playerName);
+        final int currency = getCurrency(world);
+        if (currency == 0) {
+            return getBalance(playerName);
+        }
+        final UUID uuid = getUUID(playerName);
+        if (uuid == null) {
+            return getDoubleValue(ess.getSettings().getStartingBalance());
+        }
+        return getBalance(uuid, currency);
     }
 
     @Override
     public double getBalance(OfflinePlayer player, String world) {
-        return getBalance(player);
+        final int currency = getCurrency(world);
+        if (currency == 0) {
+            return getBalance(player);
+        }
+        try {
+            return getDoubleValue(com.earth2me.essentials.api.Economy.getMoneyExact(player.getUniqueId(), currency));
+        } catch (UserDoesNotExistException e) {
+            return getDoubleValue(ess.getSettings().getStartingBalance());
+        }
+    }
+
+    private double getBalance(final UUID uuid, final int currency) {
+        try {
+            return getDoubleValue(com.earth2me.essentials.api.Economy.getMoneyExact(uuid, currency));
+        } catch (UserDoesNotExistException e) {
+            return getDoubleValue(ess.getSettings().getStartingBalance());
+        }
+    }
+
+    private int getCurrency(final String worldName) {
+        return worldName == null ? 0 : ess.getSettings().getWorldCurrency(worldName);
+    }
+
+    private UUID getUUID(final String playerName) {
+        if (playerName == null) {
+            return null;
+        }
+        final UUID uuid = ess.getUserMap().getUUID(playerName);
+        if (uuid != null) {
+            return uuid;
+        }
+        final UUID npcUUID = UUID.nameUUIDFromBytes(("NPC:" + playerName).getBytes(Charsets.UTF_8));
+        return com.earth2me.essentials.api.Economy.playerExists(npcUUID) ? npcUUID : null;
     }
 
     @SuppressWarnings("deprecation")
@@ -160,12 +199,29 @@ public class VaultEconomyProvider implements Economy {
 
     @Override
     public boolean has(String playerName, String worldName, double amount) {
-        return has(playerName, amount);
+        final int currency = getCurrency(worldName);
+        if (currency == 0) {
+            return has(playerName, amount);
+        }
+        final UUID uuid = getUUID(playerName);
+        return uuid != null && has(uuid, currency, amount);
     }
 
     @Override
     public boolean has(OfflinePlayer player, String worldName, double amount) {
-        return has(player, amount);
+        final int currency = getCurrency(worldName);
+        if (currency == 0) {
+            return has(player, amount);
+        }
+        return has(player.getUniqueId(), currency, amount);
+    }
+
+    private boolean has(final UUID uuid, final int currency, final double amount) {
+        try {
+            return com.earth2me.essentials.api.Economy.hasEnough(uuid, currency, BigDecimal.valueOf(amount));
+        } catch (UserDoesNotExistException e) {
+            return false;
+        }
     }
 
     @SuppressWarnings("deprecation")
@@ -200,7 +256,7 @@ public class VaultEconomyProvider implements Economy {
         }
 
         try {
-            com.earth2me.essentials.api.Economy.subtract(player.getUniqueId(), BigDecimal.valueOf(amount));
+            ess.getEconomyTransactions().newBatch().subtract(player.getUniqueId(), BigDecimal.valueOf(amount)).commit();
             return new EconomyResponse(amount, getBalance(player), EconomyResponse.ResponseType.SUCCESS, null);
         } catch (UserDoesNotExistException e) {
             return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "User does not exist!");
@@ -213,12 +269,47 @@ public class VaultEconomyProvider implements Economy {
 
     @Override
     public EconomyResponse withdrawPlayer(String playerName, String worldName, double amount) {
-        return withdrawPlayer(playerName, amount);
+        final int currency = getCurrency(worldName);
+        if (currency == 0) {
+            return withdrawPlayer(playerName, amount);
+        }
+        if (playerName == null) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Player name cannot be null!");
+        }
+        final UUID uuid = getUUID(playerName);
+        if (uuid == null) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "User does not exist!");
+        }
+        return withdrawPlayer(uuid, currency, amount);
     }
 
     @Override
     public EconomyResponse withdrawPlayer(OfflinePlayer player, String worldName, double amount) {
-        return withdrawPlayer(player, amount);
+        final int currency = getCurrency(worldName);
+        if (currency == 0) {
+            return withdrawPlayer(player, amount);
+        }
+        if (player == null) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Player cannot be null!");
+        }
+        return withdrawPlayer(player.getUniqueId(), currency, amount);
+    }
+
+    private EconomyResponse withdrawPlayer(final UUID uuid, final int currency, final double amount) {
+        if (amount < 0) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Cannot withdraw negative funds!");
+        }
+
+        try {
+            com.earth2me.essentials.api.Economy.subtract(uuid, currency, BigDecimal.valueOf(amount));
+            return new EconomyResponse(amount, getBalance(uuid, currency), EconomyResponse.ResponseType.SUCCESS, null);
+        } catch (UserDoesNotExistException e) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "User does not exist!");
+        } catch (NoLoanPermittedException e) {
+            return new EconomyResponse(0, getBalance(uuid, currency), EconomyResponse.ResponseType.FAILURE, "Loan was not permitted!");
+        } catch (MaxMoneyException e) {
+            return new EconomyResponse(0, getBalance(uuid, currency), EconomyResponse.ResponseType.FAILURE, "User goes over maximum money limit!");
+        }
     }
 
     @SuppressWarnings("deprecation")
@@ -253,7 +344,7 @@ public class VaultEconomyProvider implements Economy {
         }
 
         try {
-            com.earth2me.essentials.api.Economy.add(player.getUniqueId(), BigDecimal.valueOf(amount));
+            ess.getEconomyTransactions().newBatch().add(player.getUniqueId(), BigDecimal.valueOf(amount)).commit();
             return new EconomyResponse(amount, getBalance(player), EconomyResponse.ResponseType.SUCCESS, null);
         } catch (UserDoesNotExistException e) {
             return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "User does not exist!");
@@ -266,12 +357,47 @@ public class VaultEconomyProvider implements Economy {
 
     @Override
     public EconomyResponse depositPlayer(String playerName, String worldName, double amount) {
-        return depositPlayer(playerName, amount);
+        final int currency = getCurrency(worldName);
+        if (currency == 0) {
+            return depositPlayer(playerName, amount);
+        }
+        if (playerName == null) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Player name can not be null.");
+        }
+        final UUID uuid = getUUID(playerName);
+        if (uuid == null) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "User does not exist!");
+        }
+        return depositPlayer(uuid, currency, amount);
     }
 
     @Override
     public EconomyResponse depositPlayer(OfflinePlayer player, String worldName, double amount) {
-        return depositPlayer(player, amount);
+        final int currency = getCurrency(worldName);
+        if (currency == 0) {
+            return depositPlayer(player, amount);
+        }
+        if (player == null) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Player can not be null.");
+        }
+        return depositPlayer(player.getUniqueId(), currency, amount);
+    }
+
+    private EconomyResponse depositPlayer(final UUID uuid, final int currency, final double amount) {
+        if (amount < 0) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "Cannot deposit negative funds");
+        }
+
+        try {
+            com.earth2me.essentials.api.Economy.add(uuid, currency, BigDecimal.valueOf(amount));
+            return new EconomyResponse(amount, getBalance(uuid, currency), EconomyResponse.ResponseType.SUCCESS, null);
+        } catch (UserDoesNotExistException e) {
+            return new EconomyResponse(0, 0, EconomyResponse.ResponseType.FAILURE, "User does not exist!");
+        } catch (NoLoanPermittedException e) {
+            return new EconomyResponse(0, getBalance(uuid, currency), EconomyResponse.ResponseType.FAILURE, "Loan was not permitted!");
+        } catch (MaxMoneyException e) {
+            return new EconomyResponse(0, getBalance(uuid, currency), EconomyResponse.ResponseType.FAILURE, "User goes over maximum money limit!");
+        }
     }
 
     @Override
@@ -292,18 +418,12 @@ public class VaultEconomyProvider implements Economy {
         // String based UUIDs are version 3 and are used for NPC and OfflinePlayers
         // Citizens uses v2 UUIDs, yeah I don't know either!
         if (player.getUniqueId().version() == 3 || player.getUniqueId().version() == 2) {
-            final File folder = new File(ess.getDataFolder(), "userdata");
-            if (!folder.exists()) {
-                if (!folder.mkdirs()) {
-                    throw new RuntimeException("Error while creating userdata directory!");
-                }
-            }
-            final File npcFile = new File(folder, player.getUniqueId() + ".yml");
-            if (npcFile.exists()) {
+            final UserStorage storage = ess.getUserMap().getStorage();
+            if (storage.exists(player.getUniqueId())) {
                 LOGGER.log(Level.SEVERE, MessageFormat.format(WARN_NPC_RECREATE_1, player.getName(), player.getUniqueId().toString()), new RuntimeException());
                 LOGGER.log(Level.SEVERE, WARN_NPC_RECREATE_2);
             }
-            final EssentialsUserConfiguration npcConfig = new EssentialsUserConfiguration(player.getName(), player.getUniqueId(), npcFile);
+            final EssentialsUserConfiguration npcConfig = new EssentialsUserConfiguration(player.getName(), player.getUniqueId(), storage);
             npcConfig.load();
             npcConfig.setProperty("npc", true);
             npcConfig.setProperty("lastAccountName", player.getName());
@@ -110,10 +110,9 @@ public class SimpleMessageRecipient implements IMessageRecipient {
                             // Dont spy on chats involving socialspy exempt players
                             && !senderUser.isAuthorized("essentials.chat.spy.exempt")
                             && recipientUser != null && !recipientUser.isAuthorized("essentials.chat.spy.exempt")) {
-                        for (final User onlineUser : ess.getOnlineUsers()) {
-                            if (onlineUser.isSocialSpyEnabled()
-                                    // Don't send socialspy messages to message sender/receiver to prevent spam
-                                    && !onlineUser.equals(senderUser)
+                        for (final User onlineUser : ess.getSpyRegistry().getSocialSpies()) {
+                            // Don't send socialspy messages to message sender/receiver to prevent spam
+                            if (!onlineUser.equals(senderUser)
                                     && !onlineUser.equals(recipient)) {
                                 if (senderUser.isMuted() && ess.getSettings().getSocialSpyListenMutedPlayers()) {
                                     onlineUser.sendMessage(tl("socialMutedSpyPrefix") + tl("socialSpyMsgFormat", getDisplayName(), recipient.getDisplayName(), message));
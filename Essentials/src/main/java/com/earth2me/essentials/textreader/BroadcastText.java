@@ -0,0 +1,36 @@
+package com.earth2me.essentials.textreader;
+
+import com.earth2me.essentials.User;
+import net.ess3.api.IEssentials;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A text shown to many players at once, such as a broadcast.
+ * <p>
+ * The keywords which are the same for every player are replaced once when the text is created, so each player
+ * only replaces the keywords which depend on them. A text without such keywords is rendered only once.
+ */
+public class BroadcastText {
+    private final transient IText input;
+    private final transient IEssentials ess;
+    private final transient boolean showPrivate;
+    private final transient KeywordTemplate template;
+    private final transient List<String> lines;
+
+    public BroadcastText(final IText input, final IEssentials ess, final boolean showPrivate) {
+        this.input = input;
+        this.ess = ess;
+        this.showPrivate = showPrivate;
+        this.template = KeywordReplacer.replaceShared(KeywordTemplate.of(input), ess, showPrivate);
+        this.lines = template.isLiteral() ? Collections.unmodifiableList(new KeywordReplacer(input, template, null, ess, showPrivate).getLines()) : null;
+    }
+
+    public List<String> getLines(final User user) {
+        if (lines != null) {
+            return lines;
+        }
+        return new KeywordReplacer(input, template, user, ess, showPrivate).getLines();
+    }
+}
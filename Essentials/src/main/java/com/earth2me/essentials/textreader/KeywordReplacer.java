@@ -20,15 +20,13 @@ import java.lang.management.ManagementFactory;
 import java.text.DateFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.List;
-import java.util.Locale;
 import java.util.Map;
 import java.util.logging.Level;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 import static com.earth2me.essentials.I18n.tl;
 
@@ -46,33 +44,38 @@ enum KeywordType {
     PLAYTIME(KeywordCachable.CACHEABLE),
     WORLD(KeywordCachable.CACHEABLE),
     WORLDNAME(KeywordCachable.CACHEABLE),
-    ONLINE(KeywordCachable.CACHEABLE),
-    UNIQUE(KeywordCachable.CACHEABLE),
-    WORLDS(KeywordCachable.CACHEABLE),
+    ONLINE(KeywordCachable.CACHEABLE, false, true),
+    UNIQUE(KeywordCachable.CACHEABLE, false, true),
+    WORLDS(KeywordCachable.CACHEABLE, false, true),
     PLAYERLIST(KeywordCachable.SUBVALUE, true),
-    TIME(KeywordCachable.CACHEABLE),
-    DATE(KeywordCachable.CACHEABLE),
+    TIME(KeywordCachable.CACHEABLE, false, true),
+    DATE(KeywordCachable.CACHEABLE, false, true),
     WORLDTIME12(KeywordCachable.CACHEABLE),
     WORLDTIME24(KeywordCachable.CACHEABLE),
     WORLDDATE(KeywordCachable.CACHEABLE),
     COORDS(KeywordCachable.CACHEABLE),
-    TPS(KeywordCachable.CACHEABLE),
-    UPTIME(KeywordCachable.CACHEABLE),
+    TPS(KeywordCachable.CACHEABLE, false, true),
+    UPTIME(KeywordCachable.CACHEABLE, false, true),
     IP(KeywordCachable.CACHEABLE, true),
     ADDRESS(KeywordCachable.CACHEABLE, true),
-    PLUGINS(KeywordCachable.CACHEABLE, true),
-    VERSION(KeywordCachable.CACHEABLE, true);
+    PLUGINS(KeywordCachable.CACHEABLE, true, true),
+    VERSION(KeywordCachable.CACHEABLE, true, true);
     private final KeywordCachable type;
     private final boolean isPrivate;
+    private final boolean isShared;
 
     KeywordType(final KeywordCachable type) {
-        this.type = type;
-        this.isPrivate = false;
+        this(type, false, false);
     }
 
     KeywordType(final KeywordCachable type, final boolean isPrivate) {
+        this(type, isPrivate, false);
+    }
+
+    KeywordType(final KeywordCachable type, final boolean isPrivate, final boolean isShared) {
         this.type = type;
         this.isPrivate = isPrivate;
+        this.isShared = isShared;
     }
 
     public KeywordCachable getType() {
@@ -82,6 +85,11 @@ enum KeywordType {
     public boolean isPrivate() {
         return isPrivate;
     }
+
+    // Shared keywords do not depend on the player reading the text
+    public boolean isShared() {
+        return isShared;
+    }
 }
 
 enum KeywordCachable {
@@ -92,8 +100,6 @@ enum KeywordCachable {
 
 public class KeywordReplacer implements IText {
     private static final Statistic PLAY_ONE_TICK = EnumUtil.getStatistic("PLAY_ONE_MINUTE", "PLAY_ONE_TICK");
-    private static final Pattern KEYWORD = Pattern.compile("\\{([^\\{\\}]+)\\}");
-    private static final Pattern KEYWORDSPLIT = Pattern.compile("\\:");
     private final transient IText input;
     private final transient List<String> replaced;
     private final transient IEssentials ess;
@@ -129,6 +135,37 @@ public class KeywordReplacer implements IText {
         replaceKeywords(sender);
     }
 
+    KeywordReplacer(final IText input, final KeywordTemplate template, final User user, final IEssentials ess, final boolean showPrivate) {
+        this.input = input;
+        this.replaced = new ArrayList<>(template.size());
+        this.ess = ess;
+        this.includePrivate = showPrivate;
+        this.replaceSpacesWithUnderscores = false;
+        final ExecuteTimer execTimer = new ExecuteTimer();
+        execTimer.start();
+        replaceKeywords(template, user, execTimer);
+    }
+
+    private KeywordReplacer(final IEssentials ess, final boolean showPrivate) {
+        this.input = null;
+        this.replaced = Collections.emptyList();
+        this.ess = ess;
+        this.includePrivate = showPrivate;
+        this.replaceSpacesWithUnderscores = false;
+    }
+
+    /**
+     * Replaces the keywords of the template which are the same for every player, and the private keywords if
+     * they are hidden, leaving only the keywords which have to be replaced for each player.
+     */
+    static KeywordTemplate replaceShared(final KeywordTemplate template, final IEssentials ess, final boolean showPrivate) {
+        final KeywordReplacer replacer = new KeywordReplacer(ess, showPrivate);
+        return template.resolve(segment -> {
+            final KeywordType keyword = segment.getKeyword();
+            return keyword.isShared() || (keyword.isPrivate() && !showPrivate) ? replacer.getValue(segment, null) : null;
+        });
+    }
+
     private void replaceKeywords(final CommandSource sender) {
         final ExecuteTimer execTimer = new ExecuteTimer();
         execTimer.start();
@@ -137,18 +174,22 @@ public class KeywordReplacer implements IText {
             user = ess.getUser(sender.getPlayer());
         }
         execTimer.mark("User Grab");
+        replaceKeywords(KeywordTemplate.of(input), user, execTimer);
+    }
 
-        for (int i = 0; i < input.getLines().size(); i++) {
-            String line = input.getLines().get(i);
-            final Matcher matcher = KEYWORD.matcher(line);
-
-            while (matcher.find()) {
-                final String fullMatch = matcher.group(0);
-                final String keywordMatch = matcher.group(1);
-                final String[] matchTokens = KEYWORDSPLIT.split(keywordMatch);
-                line = replaceLine(line, fullMatch, matchTokens, user);
+    private void replaceKeywords(final KeywordTemplate template, final User user, final ExecuteTimer execTimer) {
+        final StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < template.size(); i++) {
+            final KeywordTemplate.Segment[] segments = template.getLine(i);
+            if (segments.length == 1 && segments[0].isLiteral()) {
+                replaced.add(segments[0].getText());
+                continue;
+            }
+            builder.setLength(0);
+            for (final KeywordTemplate.Segment segment : segments) {
+                builder.append(segment.isLiteral() ? segment.getText() : getValue(segment, user));
             }
-            replaced.add(line);
+            replaced.add(builder.toString());
         }
 
         execTimer.mark("Text Replace");
@@ -158,237 +199,215 @@ public class KeywordReplacer implements IText {
         }
     }
 
-    private String replaceLine(String line, final String fullMatch, final String[] matchTokens, final User user) {
-        final String keyword = matchTokens[0];
-        try {
-            String replacer = null;
-            final KeywordType validKeyword = KeywordType.valueOf(keyword);
-            if (validKeyword.getType().equals(KeywordCachable.CACHEABLE) && keywordCache.containsKey(validKeyword)) {
-                replacer = keywordCache.get(validKeyword).toString();
-            } else if (validKeyword.getType().equals(KeywordCachable.SUBVALUE)) {
-                String subKeyword = "";
-                if (matchTokens.length > 1) {
-                    subKeyword = matchTokens[1].toLowerCase(Locale.ENGLISH);
-                }
+    private String getValue(final KeywordTemplate.Segment segment, final User user) {
+        final KeywordType validKeyword = segment.getKeyword();
+        if (validKeyword.isPrivate() && !includePrivate) {
+            return "";
+        }
+        if (validKeyword.getType().equals(KeywordCachable.CACHEABLE) && keywordCache.containsKey(validKeyword)) {
+            return keywordCache.get(validKeyword).toString();
+        }
 
-                if (keywordCache.containsKey(validKeyword)) {
-                    final Map<String, String> values = (Map<String, String>) keywordCache.get(validKeyword);
-                    if (values.containsKey(subKeyword)) {
-                        replacer = values.get(subKeyword);
+        String replacer = "";
+        switch (validKeyword) {
+            case PLAYER:
+            case DISPLAYNAME:
+                if (user != null) {
+                    replacer = user.getDisplayName();
+                }
+                break;
+            case USERNAME:
+                if (user != null) {
+                    replacer = user.getName();
+                }
+                break;
+            case NICKNAME:
+                if (user != null) {
+                    final String nickname = user.getFormattedNickname();
+                    replacer = nickname == null ? user.getName() : nickname;
+                }
+                break;
+            case PREFIX:
+                if (user != null) {
+                    final String prefix = FormatUtil.replaceFormat(ess.getPermissionsHandler().getPrefix(user.getBase()));
+                    replacer = prefix == null ? "" : prefix;
+                }
+                break;
+            case SUFFIX:
+                if (user != null) {
+                    final String suffix = FormatUtil.replaceFormat(ess.getPermissionsHandler().getSuffix(user.getBase()));
+                    replacer = suffix == null ? "" : suffix;
+                }
+                break;
+            case GROUP:
+                if (user != null) {
+                    replacer = user.getGroup();
+                }
+                break;
+            case BALANCE:
+                if (user != null) {
+                    replacer = NumberUtil.displayCurrency(user.getMoney(), ess);
+                }
+                break;
+            case MAILS:
+                if (user != null) {
+                    replacer = Integer.toString(user.getMailAmount());
+                }
+                break;
+            case PLAYTIME:
+                if (user != null) {
+                    final long playtimeMs = System.currentTimeMillis() - (user.getBase().getStatistic(PLAY_ONE_TICK) * 50L);
+                    replacer = DateUtil.formatDateDiff(playtimeMs);
+                }
+                break;
+            case WORLD:
+            case WORLDNAME:
+                if (user != null) {
+                    final Location location = user.getLocation();
+                    replacer = location == null || location.getWorld() == null ? "" : location.getWorld().getName();
+                }
+                break;
+            case ONLINE:
+                int playerHidden = 0;
+                for (final User u : ess.getOnlineUsers()) {
+                    if (u.isHidden()) {
+                        playerHidden++;
                     }
                 }
-            }
-
-            if (validKeyword.isPrivate() && !includePrivate) {
-                replacer = "";
-            }
-
-            if (replacer == null) {
-                replacer = "";
-                switch (validKeyword) {
-                    case PLAYER:
-                    case DISPLAYNAME:
-                        if (user != null) {
-                            replacer = user.getDisplayName();
-                        }
-                        break;
-                    case USERNAME:
-                        if (user != null) {
-                            replacer = user.getName();
-                        }
-                        break;
-                    case NICKNAME:
-                        if (user != null) {
-                            final String nickname = user.getFormattedNickname();
-                            replacer = nickname == null ? user.getName() : nickname;
-                        }
-                        break;
-                    case PREFIX:
-                        if (user != null) {
-                            final String prefix = FormatUtil.replaceFormat(ess.getPermissionsHandler().getPrefix(user.getBase()));
-                            replacer = prefix == null ? "" : prefix;
-                        }
-                        break;
-                    case SUFFIX:
-                        if (user != null) {
-                            final String suffix = FormatUtil.replaceFormat(ess.getPermissionsHandler().getSuffix(user.getBase()));
-                            replacer = suffix == null ? "" : suffix;
-                        }
-                        break;
-                    case GROUP:
-                        if (user != null) {
-                            replacer = user.getGroup();
-                        }
-                        break;
-                    case BALANCE:
-                        if (user != null) {
-                            replacer = NumberUtil.displayCurrency(user.getMoney(), ess);
-                        }
-                        break;
-                    case MAILS:
-                        if (user != null) {
-                            replacer = Integer.toString(user.getMailAmount());
-                        }
-                        break;
-                    case PLAYTIME:
-                        if (user != null) {
-                            final long playtimeMs = System.currentTimeMillis() - (user.getBase().getStatistic(PLAY_ONE_TICK) * 50L);
-                            replacer = DateUtil.formatDateDiff(playtimeMs);
-                        }
-                        break;
-                    case WORLD:
-                    case WORLDNAME:
-                        if (user != null) {
-                            final Location location = user.getLocation();
-                            replacer = location == null || location.getWorld() == null ? "" : location.getWorld().getName();
-                        }
-                        break;
-                    case ONLINE:
-                        int playerHidden = 0;
-                        for (final User u : ess.getOnlineUsers()) {
-                            if (u.isHidden()) {
-                                playerHidden++;
-                            }
-                        }
-                        replacer = Integer.toString(ess.getOnlinePlayers().size() - playerHidden);
-                        break;
-                    case UNIQUE:
-                        replacer = NumberFormat.getInstance().format(ess.getUserMap().getUniqueUsers());
-                        break;
-                    case WORLDS:
-                        final StringBuilder worldsBuilder = new StringBuilder();
-                        for (final World w : ess.getServer().getWorlds()) {
-                            if (worldsBuilder.length() > 0) {
-                                worldsBuilder.append(", ");
-                            }
-                            worldsBuilder.append(w.getName());
-                        }
-                        replacer = worldsBuilder.toString();
-                        break;
-                    case PLAYERLIST:
-                        final Map<String, String> outputList;
-                        if (keywordCache.containsKey(validKeyword)) {
-                            outputList = (Map<String, String>) keywordCache.get(validKeyword);
-                        } else {
-                            final boolean showHidden;
-                            if (user == null) {
-                                showHidden = true;
-                            } else {
-                                showHidden = user.isAuthorized("essentials.list.hidden") || user.canInteractVanished();
-                            }
-
-                            //First lets build the per group playerlist
-                            final Map<String, List<User>> playerList = PlayerList.getPlayerLists(ess, user, showHidden);
-                            outputList = new HashMap<>();
-                            for (final String groupName : playerList.keySet()) {
-                                final List<User> groupUsers = playerList.get(groupName);
-                                if (groupUsers != null && !groupUsers.isEmpty()) {
-                                    outputList.put(groupName, PlayerList.listUsers(ess, groupUsers, " "));
-                                }
-                            }
-
-                            //Now lets build the all user playerlist
-                            final StringBuilder playerlistBuilder = new StringBuilder();
-                            for (final Player p : ess.getOnlinePlayers()) {
-                                if (ess.getUser(p).isHidden()) {
-                                    continue;
-                                }
-                                if (playerlistBuilder.length() > 0) {
-                                    playerlistBuilder.append(", ");
-                                }
-                                playerlistBuilder.append(p.getDisplayName());
-                            }
-                            outputList.put("", playerlistBuilder.toString());
-                            keywordCache.put(validKeyword, outputList);
-                        }
+                replacer = Integer.toString(ess.getOnlinePlayers().size() - playerHidden);
+                break;
+            case UNIQUE:
+                replacer = NumberFormat.getInstance().format(ess.getUserMap().getUniqueUsers());
+                break;
+            case WORLDS:
+                final StringBuilder worldsBuilder = new StringBuilder();
+                for (final World w : ess.getServer().getWorlds()) {
+                    if (worldsBuilder.length() > 0) {
+                        worldsBuilder.append(", ");
+                    }
+                    worldsBuilder.append(w.getName());
+                }
+                replacer = worldsBuilder.toString();
+                break;
+            case PLAYERLIST:
+                final Map<String, String> outputList;
+                if (keywordCache.containsKey(validKeyword)) {
+                    outputList = (Map<String, String>) keywordCache.get(validKeyword);
+                } else {
+                    final boolean showHidden;
+                    if (user == null) {
+                        showHidden = true;
+                    } else {
+                        showHidden = user.isAuthorized("essentials.list.hidden") || user.canInteractVanished();
+                    }
 
-                        //Now thats all done, output the one we want and cache the rest.
-                        if (matchTokens.length == 1) {
-                            replacer = outputList.get("");
-                        } else if (outputList.containsKey(matchTokens[1].toLowerCase(Locale.ENGLISH))) {
-                            replacer = outputList.get(matchTokens[1].toLowerCase(Locale.ENGLISH));
-                        } else if (matchTokens.length > 2) {
-                            replacer = matchTokens[2];
+                    //First lets build the per group playerlist
+                    final Map<String, List<User>> playerList = PlayerList.getPlayerLists(ess, user, showHidden);
+                    outputList = new HashMap<>();
+                    for (final String groupName : playerList.keySet()) {
+                        final List<User> groupUsers = playerList.get(groupName);
+                        if (groupUsers != null && !groupUsers.isEmpty()) {
+                            outputList.put(groupName, PlayerList.listUsers(ess, groupUsers, " "));
                         }
+                    }
 
-                        keywordCache.put(validKeyword, outputList);
-                        break;
-                    case TIME:
-                        replacer = DateFormat.getTimeInstance(DateFormat.MEDIUM, ess.getI18n().getCurrentLocale()).format(new Date());
-                        break;
-                    case DATE:
-                        replacer = DateFormat.getDateInstance(DateFormat.MEDIUM, ess.getI18n().getCurrentLocale()).format(new Date());
-                        break;
-                    case WORLDTIME12:
-                        if (user != null) {
-                            replacer = DescParseTickFormat.format12(user.getWorld() == null ? 0 : user.getWorld().getTime());
-                        }
-                        break;
-                    case WORLDTIME24:
-                        if (user != null) {
-                            replacer = DescParseTickFormat.format24(user.getWorld() == null ? 0 : user.getWorld().getTime());
-                        }
-                        break;
-                    case WORLDDATE:
-                        if (user != null) {
-                            replacer = DateFormat.getDateInstance(DateFormat.MEDIUM, ess.getI18n().getCurrentLocale()).format(DescParseTickFormat.ticksToDate(user.getWorld() == null ? 0 : user.getWorld().getFullTime()));
-                        }
-                        break;
-                    case COORDS:
-                        if (user != null) {
-                            final Location location = user.getLocation();
-                            replacer = tl("coordsKeyword", location.getBlockX(), location.getBlockY(), location.getBlockZ());
-                        }
-                        break;
-                    case TPS:
-                        replacer = NumberUtil.formatDouble(ess.getTimer().getAverageTPS());
-                        break;
-                    case UPTIME:
-                        replacer = DateUtil.formatDateDiff(ManagementFactory.getRuntimeMXBean().getStartTime());
-                        break;
-                    case IP:
-                        if (user != null) {
-                            replacer = user.getBase().getAddress() == null || user.getBase().getAddress().getAddress() == null ? "" : user.getBase().getAddress().getAddress().toString();
+                    //Now lets build the all user playerlist
+                    final StringBuilder playerlistBuilder = new StringBuilder();
+                    for (final Player p : ess.getOnlinePlayers()) {
+                        if (ess.getUser(p).isHidden()) {
+                            continue;
                         }
-                        break;
-                    case ADDRESS:
-                        if (user != null) {
-                            replacer = user.getBase().getAddress() == null ? "" : user.getBase().getAddress().toString();
+                        if (playerlistBuilder.length() > 0) {
+                            playerlistBuilder.append(", ");
                         }
-                        break;
-                    case PLUGINS:
-                        final StringBuilder pluginlistBuilder = new StringBuilder();
-                        for (final Plugin p : ess.getServer().getPluginManager().getPlugins()) {
-                            if (pluginlistBuilder.length() > 0) {
-                                pluginlistBuilder.append(", ");
-                            }
-                            pluginlistBuilder.append(p.getDescription().getName());
-                        }
-                        replacer = pluginlistBuilder.toString();
-                        break;
-                    case VERSION:
-                        replacer = ess.getServer().getVersion();
-                        break;
-                    default:
-                        replacer = "N/A";
-                        break;
+                        playerlistBuilder.append(p.getDisplayName());
+                    }
+                    outputList.put("", playerlistBuilder.toString());
+                    keywordCache.put(validKeyword, outputList);
                 }
 
-                if (this.replaceSpacesWithUnderscores) {
-                    replacer = replacer.replaceAll("\\s", "_");
+                //Now thats all done, output the one we want and cache the rest.
+                if (segment.getSubKeyword() == null) {
+                    replacer = outputList.get("");
+                } else if (outputList.containsKey(segment.getSubKeyword())) {
+                    replacer = outputList.get(segment.getSubKeyword());
+                } else if (segment.getFallback() != null) {
+                    replacer = segment.getFallback();
                 }
-
-                //If this is just a regular keyword, lets throw it into the cache
-                if (validKeyword.getType().equals(KeywordCachable.CACHEABLE)) {
-                    keywordCache.put(validKeyword, replacer);
+                break;
+            case TIME:
+                replacer = DateFormat.getTimeInstance(DateFormat.MEDIUM, ess.getI18n().getCurrentLocale()).format(new Date());
+                break;
+            case DATE:
+                replacer = DateFormat.getDateInstance(DateFormat.MEDIUM, ess.getI18n().getCurrentLocale()).format(new Date());
+                break;
+            case WORLDTIME12:
+                if (user != null) {
+                    replacer = DescParseTickFormat.format12(user.getWorld() == null ? 0 : user.getWorld().getTime());
                 }
-            }
+                break;
+            case WORLDTIME24:
+                if (user != null) {
+                    replacer = DescParseTickFormat.format24(user.getWorld() == null ? 0 : user.getWorld().getTime());
+                }
+                break;
+            case WORLDDATE:
+                if (user != null) {
+                    replacer = DateFormat.getDateInstance(DateFormat.MEDIUM, ess.getI18n().getCurrentLocale()).format(DescParseTickFormat.ticksToDate(user.getWorld() == null ? 0 : user.getWorld().getFullTime()));
+                }
+                break;
+            case COORDS:
+                if (user != null) {
+                    final Location location = user.getLocation();
+                    replacer = tl("coordsKeyword", location.getBlockX(), location.getBlockY(), location.getBlockZ());
+                }
+                break;
+            case TPS:
+                replacer = NumberUtil.formatDouble(ess.getTimer().getAverageTPS());
+                break;
+            case UPTIME:
+                replacer = DateUtil.formatDateDiff(ManagementFactory.getRuntimeMXBean().getStartTime());
+                break;
+            case IP:
+                if (user != null) {
+                    replacer = user.getBase().getAddress() == null || user.getBase().getAddress().getAddress() == null ? "" : user.getBase().getAddress().getAddress().toString();
+                }
+                break;
+            case ADDRESS:
+                if (user != null) {
+                    replacer = user.getBase().getAddress() == null ? "" : user.getBase().getAddress().toString();
+                }
+                break;
+            case PLUGINS:
+                final StringBuilder pluginlistBuilder = new StringBuilder();
+                for (final Plugin p : ess.getServer().getPluginManager().getPlugins()) {
+                    if (pluginlistBuilder.length() > 0) {
+                        pluginlistBuilder.append(", ");
+                    }
+                    pluginlistBuilder.append(p.getDescription().getName());
+                }
+                replacer = pluginlistBuilder.toString();
+                break;
+            case VERSION:
+                replacer = ess.getServer().getVersion();
+                break;
+            default:
+                replacer = "N/A";
+                break;
+        }
 
-            line = line.replace(fullMatch, replacer);
-        } catch (final IllegalArgumentException ignored) {
+        if (replacer == null) {
+            replacer = "";
+        }
+        if (this.replaceSpacesWithUnderscores) {
+            replacer = replacer.replaceAll("\\s", "_");
         }
 
-        return line;
+        //If this is just a regular keyword, lets throw it into the cache
+        if (validKeyword.getType().equals(KeywordCachable.CACHEABLE)) {
+            keywordCache.put(validKeyword, replacer);
+        }
+        return replacer;
     }
 
     @Override
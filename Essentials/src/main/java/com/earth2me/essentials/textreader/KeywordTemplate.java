@@ -0,0 +1,185 @@
+package com.earth2me.essentials.textreader;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The lines of a text split once into literal text and keywords, so rendering it for a player only evaluates the
+ * keywords instead of searching every line for them again.
+ */
+final class KeywordTemplate {
+    private static final Pattern KEYWORD = Pattern.compile("\\{([^\\{\\}]+)\\}");
+    private static final Pattern KEYWORDSPLIT = Pattern.compile("\\:");
+    private static final Map<IText, KeywordTemplate> cache = new WeakHashMap<>();
+    private final List<String> source;
+    private final int size;
+    private final Segment[][] lines;
+
+    KeywordTemplate(final List<String> source) {
+        this.source = source;
+        this.size = source.size();
+        this.lines = new Segment[size][];
+        for (int i = 0; i < size; i++) {
+            lines[i] = compile(source.get(i));
+        }
+    }
+
+    /**
+     * Returns the compiled template of the given text, compiling it only if it was not compiled before or has
+     * changed since.
+     */
+    static KeywordTemplate of(final IText input) {
+        if (input instanceof TextInput) {
+            return ((TextInput) input).getTemplate();
+        }
+        synchronized (cache) {
+            KeywordTemplate template = cache.get(input);
+            if (template == null || template.source != input.getLines() || template.size != input.getLines().size()) {
+                template = new KeywordTemplate(input.getLines());
+                cache.put(input, template);
+            }
+            return template;
+        }
+    }
+
+    private KeywordTemplate(final Segment[][] lines) {
+        this.source = null;
+        this.size = lines.length;
+        this.lines = lines;
+    }
+
+    private static Segment[] compile(final String line) {
+        final Matcher matcher = KEYWORD.matcher(line);
+        List<Segment> segments = null;
+        int last = 0;
+        while (matcher.find()) {
+            final String[] tokens = KEYWORDSPLIT.split(matcher.group(1));
+            final KeywordType keyword;
+            try {
+                keyword = KeywordType.valueOf(tokens[0]);
+            } catch (final IllegalArgumentException ignored) {
+                // Not a keyword, so it stays part of the literal text
+                continue;
+            }
+            if (segments == null) {
+                segments = new ArrayList<>();
+            }
+            if (matcher.start() > last) {
+                segments.add(new Segment(line.substring(last, matcher.start())));
+            }
+            segments.add(new Segment(keyword, tokens));
+            last = matcher.end();
+        }
+        if (segments == null) {
+            return new Segment[] {new Segment(line)};
+        }
+        if (last < line.length()) {
+            segments.add(new Segment(line.substring(last)));
+        }
+        return segments.toArray(new Segment[0]);
+    }
+
+    /**
+     * Returns a copy of this template in which the keywords the given function returns a value for are replaced
+     * by that value.
+     */
+    KeywordTemplate resolve(final Function<Segment, String> values) {
+        final Segment[][] resolved = new Segment[size][];
+        final List<Segment> segments = new ArrayList<>();
+        final StringBuilder literal = new StringBuilder();
+        for (int i = 0; i < size; i++) {
+            segments.clear();
+            literal.setLength(0);
+            for (final Segment segment : lines[i]) {
+                final String value = segment.isLiteral() ? segment.getText() : values.apply(segment);
+                if (value != null) {
+                    literal.append(value);
+                    continue;
+                }
+                if (literal.length() > 0) {
+                    segments.add(new Segment(literal.toString()));
+                    literal.setLength(0);
+                }
+                segments.add(segment);
+            }
+            if (literal.length() > 0 || segments.isEmpty()) {
+                segments.add(new Segment(literal.toString()));
+            }
+            resolved[i] = segments.toArray(new Segment[0]);
+        }
+        return new KeywordTemplate(resolved);
+    }
+
+    /**
+     * @return true if this template has no keywords left.
+     */
+    boolean isLiteral() {
+        for (final Segment[] line : lines) {
+            if (line.length != 1 || !line[0].isLiteral()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Segment[] getLine(final int line) {
+        return lines[line];
+    }
+
+    static final class Segment {
+        private final String text;
+        private final KeywordType keyword;
+        private final String subKeyword;
+        private final String fallback;
+
+        private Segment(final String text) {
+            this.text = text;
+            this.keyword = null;
+            this.subKeyword = null;
+            this.fallback = null;
+        }
+
+        private Segment(final KeywordType keyword, final String[] tokens) {
+            this.text = null;
+            this.keyword = keyword;
+            this.subKeyword = tokens.length > 1 ? tokens[1].toLowerCase(Locale.ENGLISH) : null;
+            this.fallback = tokens.length > 2 ? tokens[2] : null;
+        }
+
+        boolean isLiteral() {
+            return keyword == null;
+        }
+
+        String getText() {
+            return text;
+        }
+
+        KeywordType getKeyword() {
+            return keyword;
+        }
+
+        /**
+         * @return the lower case second part of the keyword, such as the group in {PLAYERLIST:admins}, or null.
+         */
+        String getSubKeyword() {
+            return subKeyword;
+        }
+
+        /**
+         * @return the third part of the keyword, used when the sub keyword has no value, or null.
+         */
+        String getFallback() {
+            return fallback;
+        }
+    }
+}
@@ -31,6 +31,8 @@ public class TextInput implements IText {
     private final transient List<String> chapters;
     private final transient Map<String, Integer> bookmarks;
     private final transient long lastChange;
+    private final transient TextInput source;
+    private transient KeywordTemplate template;
 
     public TextInput(final CommandSource sender, final String filename, final boolean createFile, final IEssentials ess) throws IOException {
 
@@ -56,11 +58,13 @@ public class TextInput implements IText {
                     chapters = new ArrayList<>();
                     bookmarks = new HashMap<>();
                     cache.put(file.getName(), new SoftReference<>(this));
+                    source = this;
                     readFromfile = true;
                 } else {
                     lines = Collections.unmodifiableList(input.getLines());
                     chapters = Collections.unmodifiableList(input.getChapters());
                     bookmarks = Collections.unmodifiableMap(input.getBookmarks());
+                    source = input;
                     readFromfile = false;
                 }
             }
@@ -94,6 +98,7 @@ public class TextInput implements IText {
             lines = Collections.emptyList();
             chapters = Collections.emptyList();
             bookmarks = Collections.emptyMap();
+            source = this;
             if (createFile) {
                 try (final InputStream input = ess.getResource(filename + ".txt"); final OutputStream output = new FileOutputStream(file)) {
                     final byte[] buffer = new byte[1024];
@@ -108,6 +113,16 @@ public class TextInput implements IText {
         }
     }
 
+    // The compiled template is shared by every input read from the same cached file.
+    KeywordTemplate getTemplate() {
+        synchronized (source) {
+            if (source.template == null) {
+                source.template = new KeywordTemplate(source.lines);
+            }
+            return source.template;
+        }
+    }
+
     @Override
     public List<String> getLines() {
         return lines;
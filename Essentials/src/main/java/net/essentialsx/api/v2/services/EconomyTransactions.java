@@ -0,0 +1,61 @@
+package net.essentialsx.api.v2.services;
+
+import com.earth2me.essentials.api.NoLoanPermittedException;
+import com.earth2me.essentials.api.UserDoesNotExistException;
+import net.ess3.api.MaxMoneyException;
+
+import java.math.BigDecimal;
+import java.util.Map;
+import java.util.UUID;
+
+/**
+ * A class which allows applying many balance changes at once, for example when a shop or auction settles several
+ * trades together.
+ * <p>
+ * Note: Implementations of this class should be thread-safe and thus do not need to be called from the server thread.
+ */
+public interface EconomyTransactions {
+    /**
+     * Creates a new, empty batch of balance changes.
+     *
+     * @return The new batch.
+     */
+    Batch newBatch();
+
+    /**
+     * A set of balance changes which are applied together by {@link Batch#commit()}.
+     * <p>
+     * Changes to the same account are added up, so each account's balance is only updated, and its balance update event
+     * only fired, once per batch.
+     */
+    interface Batch {
+        /**
+         * Adds money to the balance of a user.
+         *
+         * @param uuid   The UUID of the user.
+         * @param amount The amount of money to add.
+         * @return This batch.
+         */
+        Batch add(UUID uuid, BigDecimal amount);
+
+        /**
+         * Subtracts money from the balance of a user.
+         *
+         * @param uuid   The UUID of the user.
+         * @param amount The amount of money to subtract.
+         * @return This batch.
+         */
+        Batch subtract(UUID uuid, BigDecimal amount);
+
+        /**
+         * Applies every change in this batch. Either all changes are applied, or none of them are if any exception is thrown.
+         * A batch can only be committed once.
+         *
+         * @return The new balance of every account touched by this batch.
+         * @throws UserDoesNotExistException If any of the users does not exist.
+         * @throws NoLoanPermittedException  If any of the users would end up with a balance they are not allowed to have.
+         * @throws MaxMoneyException         If any of the users would end up over the maximum amount of money.
+         */
+        Map<UUID, BigDecimal> commit() throws UserDoesNotExistException, NoLoanPermittedException, MaxMoneyException;
+    }
+}
@@ -0,0 +1,84 @@
+package com.earth2me.essentials;
+
+import junit.framework.TestCase;
+
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class BalanceLocksTest extends TestCase {
+    private static final int ACCOUNTS = 16;
+    private static final int THREADS = 8;
+    private static final int TRANSFERS = 20000;
+    private static final BigDecimal START = BigDecimal.valueOf(1000);
+
+    public void testConcurrentTransfers() throws Exception {
+        final BalanceLocks locks = new BalanceLocks(4);
+        final UUID[] accounts = new UUID[ACCOUNTS];
+        // Balances are read and written without any other synchronization, the locks alone have to keep them consistent
+        final BigDecimal[] values = new BigDecimal[ACCOUNTS];
+        for (int i = 0; i < ACCOUNTS; i++) {
+            accounts[i] = UUID.randomUUID();
+            values[i] = START;
+        }
+
+        final AtomicInteger completed = new AtomicInteger();
+        final CountDownLatch start = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        final Future<?>[] futures = new Future<?>[THREADS];
+        for (int t = 0; t < THREADS; t++) {
+            final long seed = t;
+            futures[t] = executor.submit(() -> {
+                final Random random = new Random(seed);
+                start.await();
+                for (int i = 0; i < TRANSFERS; i++) {
+                    final int from = random.nextInt(ACCOUNTS);
+                    final int to = random.nextInt(ACCOUNTS);
+                    if (from == to) {
+                        continue;
+                    }
+                    final BigDecimal amount = BigDecimal.valueOf(random.nextInt(50) + 1);
+                    try (BalanceLocks.Hold ignored = locks.lock(accounts[from], accounts[to])) {
+                        if (values[from].compareTo(amount) >= 0) {
+                            values[from] = values[from].subtract(amount);
+                            Thread.yield();
+                            values[to] = values[to].add(amount);
+                            completed.incrementAndGet();
+                        }
+                    }
+                }
+                return null;
+            });
+        }
+        start.countDown();
+        for (final Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        BigDecimal total = BigDecimal.ZERO;
+        for (final BigDecimal value : values) {
+            assertTrue(value.signum() >= 0);
+            total = total.add(value);
+        }
+        assertEquals(START.multiply(BigDecimal.valueOf(ACCOUNTS)), total);
+        assertTrue(completed.get() > 0);
+    }
+
+    public void testReentrantSameStripe() {
+        final BalanceLocks locks = new BalanceLocks(1);
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+        try (BalanceLocks.Hold outer = locks.lock(first, second)) {
+            try (BalanceLocks.Hold inner = locks.lock(second)) {
+                assertNotNull(inner);
+            }
+        }
+    }
+}
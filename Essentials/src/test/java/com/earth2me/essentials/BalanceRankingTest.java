@@ -0,0 +1,123 @@
+package com.earth2me.essentials;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BalanceRankingTest {
+
+    private static List<UUID> expectedOrder(final Map<UUID, BigDecimal> balances) {
+        final List<UUID> order = new ArrayList<>(balances.keySet());
+        order.sort(Comparator.comparing(balances::get, Comparator.reverseOrder()));
+        return order;
+    }
+
+    private static BigDecimal expectedTotal(final Map<UUID, BigDecimal> balances) {
+        return balances.values().stream().reduce(BigDecimal.ZERO, BigDecimal::add);
+    }
+
+    @Test
+    public void testPagingAndTotal() {
+        final BalanceRanking ranking = new BalanceRanking();
+        final Map<UUID, BigDecimal> balances = new HashMap<>();
+        final Random random = new Random(42);
+        for (int i = 0; i < 1000; i++) {
+            final UUID uuid = UUID.randomUUID();
+            // Distinct balances, so the expected order does not depend on the UUID tie breaker
+            final BigDecimal balance = BigDecimal.valueOf(i * 7L % 1000).add(new BigDecimal("0.5"));
+            balances.put(uuid, balance);
+            ranking.update(uuid, "user" + i, balance, false);
+        }
+
+        // Move, remove and exclude some of the users again
+        final List<UUID> uuids = new ArrayList<>(balances.keySet());
+        for (int i = 0; i < 200; i++) {
+            final UUID uuid = uuids.get(random.nextInt(uuids.size()));
+            if (!balances.containsKey(uuid)) {
+                continue;
+            }
+            switch (i % 3) {
+                case 0:
+                    final BigDecimal balance = BigDecimal.valueOf(1000 + i);
+                    balances.put(uuid, balance);
+                    ranking.update(uuid, "moved", balance, false);
+                    break;
+                case 1:
+                    balances.remove(uuid);
+                    ranking.remove(uuid);
+                    break;
+                default:
+                    balances.remove(uuid);
+                    ranking.update(uuid, "excluded", BigDecimal.TEN, true);
+                    break;
+            }
+        }
+
+        final List<UUID> order = expectedOrder(balances);
+        assertEquals(order.size(), ranking.size());
+        assertEquals(0, expectedTotal(balances).compareTo(ranking.getTotal()));
+
+        final List<UUID> paged = new ArrayList<>();
+        for (int offset = 0; offset < order.size(); offset += 17) {
+            final List<BalanceRanking.Ranked> page = ranking.getPage(offset, 17);
+            assertTrue(page.size() <= 17);
+            for (final BalanceRanking.Ranked ranked : page) {
+                paged.add(ranked.getUuid());
+                assertEquals(0, balances.get(ranked.getUuid()).compareTo(ranked.getBalance()));
+            }
+        }
+        assertEquals(order, paged);
+        assertTrue(ranking.getPage(order.size(), 10).isEmpty());
+        assertEquals(order, toUuids(ranking.getPage(0, Integer.MAX_VALUE)));
+    }
+
+    @Test
+    public void testRank() {
+        final BalanceRanking ranking = new BalanceRanking();
+        final Map<UUID, BigDecimal> balances = new HashMap<>();
+        for (int i = 0; i < 300; i++) {
+            final UUID uuid = UUID.randomUUID();
+            final BigDecimal balance = BigDecimal.valueOf(i % 50);
+            balances.put(uuid, balance);
+            ranking.update(uuid, null, balance, false);
+        }
+
+        for (final BigDecimal balance : balances.values()) {
+            final long above = balances.values().stream().filter(other -> other.compareTo(balance) > 0).count();
+            assertEquals(above, ranking.countAbove(balance));
+        }
+        assertEquals(0, ranking.countAbove(BigDecimal.valueOf(50)));
+        assertEquals(300, ranking.countAbove(BigDecimal.valueOf(-1)));
+    }
+
+    @Test
+    public void testSeedKeepsNewerBalances() {
+        final BalanceRanking ranking = new BalanceRanking();
+        final UUID uuid = UUID.randomUUID();
+        ranking.update(uuid, "notch", BigDecimal.valueOf(20), false);
+        ranking.seed(uuid, "notch", BigDecimal.valueOf(5), false);
+        assertEquals(0, BigDecimal.valueOf(20).compareTo(ranking.getPage(0, 1).get(0).getBalance()));
+
+        ranking.update(uuid, "notch", BigDecimal.valueOf(20), true);
+        assertEquals(0, ranking.size());
+        assertEquals(0, BigDecimal.ZERO.compareTo(ranking.getTotal()));
+    }
+
+    private static List<UUID> toUuids(final List<BalanceRanking.Ranked> page) {
+        final List<UUID> uuids = new ArrayList<>();
+        for (final BalanceRanking.Ranked ranked : page) {
+            uuids.add(ranked.getUuid());
+        }
+        return uuids;
+    }
+}
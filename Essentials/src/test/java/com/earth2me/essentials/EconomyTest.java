@@ -12,6 +12,13 @@ import org.junit.Assert;
 import org.junit.Test;
 
 import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 public class EconomyTest {
     private static final String NPCNAME = "npc1";
@@ -141,4 +148,53 @@ public class EconomyTest {
             Assert.assertEquals(I18n.tl("payMustBePositive"), e.getMessage());
         }
     }
+
+    @Test
+    public void testConcurrentBalanceChanges() throws Exception {
+        final User[] users = {ess.getUser(PLAYERNAME), ess.getUser(PLAYERNAME2)};
+        final BigDecimal start = BigDecimal.valueOf(1000);
+        for (final User user : users) {
+            user.setMoney(start);
+        }
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        final Future<?>[] futures = new Future<?>[4];
+        for (int t = 0; t < futures.length; t++) {
+            final long seed = t;
+            futures[t] = executor.submit(() -> {
+                final Random random = new Random(seed);
+                latch.await();
+                for (int i = 0; i < 250; i++) {
+                    final int from = random.nextInt(2);
+                    final User sender = users[from];
+                    final User receiver = users[1 - from];
+                    final BigDecimal amount = BigDecimal.valueOf(random.nextInt(100) + 1);
+                    if (random.nextBoolean()) {
+                        try {
+                            sender.payUser(receiver, amount);
+                        } catch (final ChargeException ignored) {
+                        }
+                    } else {
+                        try {
+                            Economy.subtract(sender, amount);
+                        } catch (final NoLoanPermittedException ignored) {
+                            continue;
+                        }
+                        Economy.add(receiver, amount);
+                    }
+                }
+                return null;
+            });
+        }
+        latch.countDown();
+        for (final Future<?> future : futures) {
+            future.get(60, TimeUnit.SECONDS);
+        }
+        executor.shutdown();
+
+        Assert.assertTrue(users[0].getMoney().signum() >= 0);
+        Assert.assertTrue(users[1].getMoney().signum() >= 0);
+        Assert.assertEquals(0, users[0].getMoney().add(users[1].getMoney()).compareTo(start.add(start)));
+    }
 }
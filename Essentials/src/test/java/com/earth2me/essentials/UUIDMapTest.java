@@ -0,0 +1,154 @@
+package com.earth2me.essentials;
+
+import net.ess3.api.IEssentials;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.UUID;
+import java.util.logging.Logger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UUIDMapTest {
+    private static final UUID NOTCH = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+    private static final UUID JEB = UUID.fromString("853c80ef-3c37-49fd-aa49-938b674adae6");
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private File dataFolder;
+
+    @Before
+    public void setUp() throws IOException {
+        // Failures are logged through the Bukkit logger
+        FakeServer.getServer();
+        dataFolder = folder.newFolder("Essentials");
+    }
+
+    private UUIDMap newMap(final UserIndex index) {
+        final ISettings settings = mock(ISettings.class);
+        final UserMap userMap = mock(UserMap.class);
+        when(userMap.getIndex()).thenReturn(index);
+        final IEssentials ess = mock(IEssentials.class);
+        when(ess.getDataFolder()).thenReturn(dataFolder);
+        when(ess.getSettings()).thenReturn(settings);
+        when(ess.getLogger()).thenReturn(Logger.getLogger("Essentials"));
+        when(ess.getUserMap()).thenReturn(userMap);
+        return new UUIDMap(ess);
+    }
+
+    private UserIndex load() {
+        final UserIndex index = new UserIndex(null);
+        newMap(index).loadAllUsers(index);
+        return index;
+    }
+
+    private void writeNames() throws IOException {
+        final UserIndex index = new UserIndex(null);
+        final UUIDMap map = newMap(index);
+        map.loadAllUsers(index);
+        index.putName("notch", NOTCH);
+        map.writeUUIDMap("notch", NOTCH);
+        index.putName("jeb_", JEB);
+        map.writeUUIDMap("jeb_", JEB);
+        index.putName("dinnerbone", NOTCH);
+        map.writeUUIDMap("dinnerbone", NOTCH);
+        index.removeName("dinnerbone");
+        map.removeUUIDMap("dinnerbone");
+        map.writePending();
+    }
+
+    @Test
+    public void testReplay() throws IOException {
+        writeNames();
+
+        final UserIndex index = load();
+        assertEquals(NOTCH, index.getUUID("notch"));
+        assertEquals(JEB, index.getUUID("jeb_"));
+        assertNull(index.getUUID("dinnerbone"));
+    }
+
+    @Test
+    public void testTruncatedRecord() throws IOException {
+        writeNames();
+        final File journal = new File(dataFolder, "usermap.bin");
+        final long complete = journal.length();
+        try (final DataOutputStream out = new DataOutputStream(new FileOutputStream(journal, true))) {
+            // A put record cut off in the middle of its UUID
+            out.writeByte('P');
+            out.writeUTF("grumm");
+            out.writeLong(1);
+        }
+
+        final UserIndex index = load();
+        assertEquals(NOTCH, index.getUUID("notch"));
+        assertEquals(JEB, index.getUUID("jeb_"));
+        assertNull(index.getUUID("grumm"));
+        // The journal was compacted without the incomplete record
+        assertTrue(journal.length() <= complete);
+        assertEquals(JEB, load().getUUID("jeb_"));
+    }
+
+    @Test
+    public void testBrokenJournal() throws IOException {
+        final File journal = new File(dataFolder, "usermap.bin");
+        try (final Writer writer = new FileWriter(journal)) {
+            writer.write("not a journal");
+        }
+
+        final UserIndex index = new UserIndex(null);
+        final UUIDMap map = newMap(index);
+        map.loadAllUsers(index);
+        assertTrue(new File(dataFolder, "usermap.bin.broken").exists());
+        assertTrue(journal.exists());
+
+        index.putName("notch", NOTCH);
+        map.writeUUIDMap("notch", NOTCH);
+        map.writePending();
+        assertEquals(NOTCH, load().getUUID("notch"));
+    }
+
+    @Test
+    public void testMissingJournal() throws IOException {
+        final UserIndex index = new UserIndex(null);
+        final UUIDMap map = newMap(index);
+        map.loadAllUsers(index);
+        final File journal = new File(dataFolder, "usermap.bin");
+        assertTrue(journal.delete());
+
+        index.putName("notch", NOTCH);
+        map.writeUUIDMap("notch", NOTCH);
+        map.writePending();
+        assertEquals(NOTCH, load().getUUID("notch"));
+    }
+
+    @Test
+    public void testLegacyConversion() throws IOException {
+        try (final Writer writer = new FileWriter(new File(dataFolder, "usermap.csv"))) {
+            writer.write("notch," + NOTCH + "\n");
+            writer.write("jeb_," + JEB + "\n");
+            writer.write("broken,line,here\n");
+            writer.write("invalid,not-a-uuid\n");
+        }
+
+        final UserIndex index = load();
+        assertEquals(NOTCH, index.getUUID("notch"));
+        assertEquals(JEB, index.getUUID("jeb_"));
+        assertEquals(2, index.getNameCount());
+        assertFalse(new File(dataFolder, "usermap.csv").exists());
+        assertTrue(new File(dataFolder, "usermap.csv.old").exists());
+        assertEquals(JEB, load().getUUID("jeb_"));
+    }
+}
@@ -0,0 +1,50 @@
+package com.earth2me.essentials;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.UUID;
+
+public class UserIndexTest extends TestCase {
+
+    public void testUsers() {
+        final UserIndex index = new UserIndex(null);
+        final Set<UUID> expected = new HashSet<>();
+        for (int i = 0; i < 5000; i++) {
+            final UUID uuid = UUID.randomUUID();
+            index.add(uuid);
+            expected.add(uuid);
+        }
+        final UUID removed = expected.iterator().next();
+        index.remove(removed);
+        expected.remove(removed);
+
+        assertEquals(expected.size(), index.size());
+        assertFalse(index.contains(removed));
+        assertEquals(expected, new HashSet<>(index.getUUIDs()));
+    }
+
+    public void testNamesAndHistory() {
+        final UserIndex index = new UserIndex(null);
+        final UUID first = UUID.randomUUID();
+        final UUID second = UUID.randomUUID();
+
+        assertNull(index.putName("notch", first));
+        assertNull(index.putName("jeb_", first));
+        assertEquals(first, index.putName("notch", second));
+        assertEquals(second, index.getUUID("notch"));
+        assertEquals(Arrays.asList("notch", "jeb_"), index.getHistory(first));
+        assertEquals(2, index.getNameCount());
+
+        assertEquals(first, index.removeName("jeb_"));
+        assertNull(index.getUUID("jeb_"));
+        assertEquals(1, index.getNameCount());
+        assertEquals(Arrays.asList("notch", "jeb_"), index.getHistory(first));
+
+        index.clear();
+        assertNull(index.getUUID("notch"));
+        assertNull(index.getHistory(first));
+    }
+}
@@ -0,0 +1,133 @@
+package com.earth2me.essentials;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class UserSummaryTest {
+    private ISettings settings;
+
+    @Before
+    public void setUp() {
+        settings = mock(ISettings.class);
+        when(settings.getStartingBalance()).thenReturn(BigDecimal.ZERO);
+        when(settings.getMaxMoney()).thenReturn(new BigDecimal("10000000000000"));
+        when(settings.getMinMoney()).thenReturn(new BigDecimal("-10000"));
+    }
+
+    private UserSummary read(final String... lines) throws Exception {
+        final String data = String.join("\n", lines);
+        return UserSummary.read(UUID.randomUUID(), () -> new BufferedReader(new StringReader(data)), settings);
+    }
+
+    @Test
+    public void testSummarizedKeys() throws Exception {
+        final UserSummary summary = read(
+            "money: '123.45'",
+            "last-account-name: notch",
+            "ip-address: 127.0.0.1",
+            "npc: false",
+            "muted: true",
+            "mute-reason: spam",
+            "timestamps:",
+            "  login: 100",
+            "  logout: 200",
+            "  mute: 300",
+            "  kits:",
+            "    tools: 400",
+            "powertools:",
+            "  stick: say hi");
+        assertEquals(new BigDecimal("123.45"), summary.getMoney());
+        assertEquals("notch", summary.getName());
+        assertEquals("127.0.0.1", summary.getLastLoginAddress());
+        assertTrue(summary.isMuted());
+        assertEquals("spam", summary.getMuteReason());
+        assertEquals(100, summary.getLastLogin());
+        assertEquals(200, summary.getLastLogout());
+        assertEquals(300, summary.getMuteTimeout());
+        assertEquals(0, summary.getHomeCount());
+    }
+
+    @Test
+    public void testMissingName() throws Exception {
+        assertNull(read("money: '1'").getName());
+    }
+
+    @Test
+    public void testHomesWithComments() throws Exception {
+        final UserSummary summary = read(
+            "homes:",
+            "  # a comment at the indent of the homes",
+            "  home:",
+            "    world: world",
+            "    x: 1.0",
+            "    # a nested comment",
+            "  base:",
+            "    world: world",
+            "# a top level comment",
+            "money: '5'");
+        assertEquals(2, summary.getHomeCount());
+        assertEquals(new BigDecimal("5"), summary.getMoney());
+    }
+
+    @Test
+    public void testBlockScalars() throws Exception {
+        final UserSummary summary = read(
+            "mute-reason: |",
+            "  # not a comment",
+            "  second line",
+            "homes:",
+            "  home:",
+            "    world: world",
+            "  note: >",
+            "    folded: text",
+            "  base:",
+            "    world: world",
+            "money: '7'");
+        assertEquals("# not a comment\nsecond line\n", summary.getMuteReason());
+        assertEquals(3, summary.getHomeCount());
+        assertEquals(new BigDecimal("7"), summary.getMoney());
+    }
+
+    @Test
+    public void testFlowMaps() throws Exception {
+        final UserSummary summary = read(
+            "homes: {home: {world: world, x: 1.0}, base: {world: world}}",
+            "timestamps: {login: 100,",
+            "  logout: 200, jail: 5}",
+            "money: '3'");
+        assertEquals(2, summary.getHomeCount());
+        assertEquals(100, summary.getLastLogin());
+        assertEquals(200, summary.getLastLogout());
+        assertEquals(new BigDecimal("3"), summary.getMoney());
+    }
+
+    @Test
+    public void testQuotedKeys() throws Exception {
+        final UserSummary summary = read(
+            "'money': '9'",
+            "\"last-account-name\": jeb_",
+            "homes:",
+            "  'my: home':",
+            "    world: world",
+            "  \"other\":",
+            "    world: world",
+            "npc: true");
+        assertEquals(new BigDecimal("9"), summary.getMoney());
+        assertEquals("jeb_", summary.getName());
+        assertEquals(2, summary.getHomeCount());
+        assertTrue(summary.isNPC());
+        assertFalse(summary.isMuted());
+    }
+}
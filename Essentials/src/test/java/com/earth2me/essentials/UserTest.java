@@ -1,5 +1,6 @@
 package com.earth2me.essentials;
 
+import com.earth2me.essentials.economy.FixedPointMoney;
 import junit.framework.TestCase;
 import net.ess3.api.MaxMoneyException;
 import org.bukkit.Location;
@@ -72,4 +73,32 @@ public class UserTest extends TestCase {
 
         assertEquals(user.getMoney(), i);
     }
+
+    public void testFixedPointMoneyReload() {
+        should("keep the balance when fixed point money is toggled while the user is loaded");
+        final User user = ess.getUser(base1);
+        final Settings settings = (Settings) ess.getSettings();
+        try {
+            user.setMoney(new BigDecimal("100.5"));
+            settings.setFixedPointMoney(new FixedPointMoney(2, settings.getMinMoney(), settings.getMaxMoney()));
+            user.giveMoney(new BigDecimal(10));
+            assertEquals(0, user.getMoney().compareTo(new BigDecimal("110.5")));
+
+            settings.setFixedPointMoney(new FixedPointMoney(0, settings.getMinMoney(), settings.getMaxMoney()));
+            user.takeMoney(new BigDecimal(10));
+            assertEquals(0, user.getMoney().compareTo(new BigDecimal("100")));
+
+            settings.setFixedPointMoney(null);
+            user.giveMoney(new BigDecimal("0.25"));
+            assertEquals(0, user.getMoney().compareTo(new BigDecimal("100.25")));
+
+            settings.setFixedPointMoney(new FixedPointMoney(2, settings.getMinMoney(), settings.getMaxMoney()));
+            assertTrue(user.canAfford(new BigDecimal("100.25")));
+            assertFalse(user.canAfford(new BigDecimal("100.26")));
+        } catch (final MaxMoneyException ex) {
+            fail();
+        } finally {
+            settings.setFixedPointMoney(null);
+        }
+    }
 }
@@ -0,0 +1,169 @@
+package com.earth2me.essentials;
+
+import com.earth2me.essentials.config.ConfigurateUtil;
+import com.earth2me.essentials.config.EssentialsConfiguration;
+import org.bukkit.Material;
+import org.bukkit.inventory.ItemStack;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.spongepowered.configurate.CommentedConfigurationNode;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class WorthTest {
+    private static final Material[] MATERIALS = {Material.STONE, Material.DIRT, Material.COBBLESTONE, Material.GRAVEL, Material.SAND, Material.GLASS, Material.OBSIDIAN};
+    private static final short[] DURABILITIES = {0, 1, 2, 3, 7};
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private File dataFolder;
+    private File worthFile;
+
+    @Before
+    public void setUp() throws IOException {
+        // setPrice checks the server version
+        FakeServer.getServer();
+        dataFolder = folder.newFolder("Essentials");
+        worthFile = new File(dataFolder, "worth.yml");
+    }
+
+    private void writeWorth(final String... lines) throws IOException {
+        Files.write(worthFile.toPath(), String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static ItemStack item(final Material material, final short durability) {
+        final ItemStack stack = mock(ItemStack.class);
+        when(stack.getType()).thenReturn(material);
+        when(stack.getDurability()).thenReturn(durability);
+        return stack;
+    }
+
+    /**
+     * The lookups Worth did against the config before the prices were compiled. A value which is not a number,
+     * such as the data values below an item, counts as missing.
+     */
+    private static BigDecimal configPrice(final EssentialsConfiguration config, final ItemStack itemStack) {
+        final String itemname = itemStack.getType().toString().toLowerCase(Locale.ENGLISH).replace("_", "");
+
+        BigDecimal result = configPrice(config, "worth." + itemname + "." + itemStack.getDurability());
+
+        if (result.signum() < 0) {
+            final CommentedConfigurationNode itemNameMatch = config.getSection("worth." + itemname);
+            if (itemNameMatch != null && ConfigurateUtil.getKeys(itemNameMatch).size() == 1) {
+                result = configPrice(config, "worth." + itemname + ".0");
+            }
+        }
+
+        if (result.signum() < 0) {
+            result = configPrice(config, "worth." + itemname + ".*");
+        }
+
+        if (result.signum() < 0) {
+            result = configPrice(config, "worth." + itemname);
+        }
+
+        return result.signum() < 0 ? null : result;
+    }
+
+    private static BigDecimal configPrice(final EssentialsConfiguration config, final String path) {
+        final CommentedConfigurationNode node = config.getSection(path);
+        if (node == null || node.isMap() || node.isList()) {
+            return BigDecimal.ONE.negate();
+        }
+        final BigDecimal price = config.getBigDecimal(path, BigDecimal.ONE.negate());
+        return price == null ? BigDecimal.ONE.negate() : price;
+    }
+
+    private void assertMatchesConfig(final Worth worth) {
+        final EssentialsConfiguration config = new EssentialsConfiguration(worthFile);
+        config.load();
+        for (final Material material : MATERIALS) {
+            for (final short durability : DURABILITIES) {
+                final ItemStack stack = item(material, durability);
+                assertEquals(material + ":" + durability, configPrice(config, stack), worth.getPrice(null, stack));
+            }
+        }
+    }
+
+    @Test
+    public void testTiers() throws IOException {
+        writeWorth(
+            "worth:",
+            // Plain price
+            "  stone: 1.5",
+            // Only data value 0
+            "  dirt:",
+            "    '0': 2",
+            // Exact data values, falling back to the wildcard
+            "  cobblestone:",
+            "    '0': 3",
+            "    '1': 4",
+            "    '2': -1",
+            "    '*': 5",
+            // Exact data values without a fallback
+            "  gravel:",
+            "    '1': 6",
+            "    '3': 7",
+            // A single data value other than 0
+            "  sand:",
+            "    '2': 8",
+            // Negative prices are missing
+            "  glass: -2");
+        final Worth worth = new Worth(dataFolder);
+
+        assertEquals(new BigDecimal("1.5"), worth.getPrice(null, item(Material.STONE, (short) 3)));
+        assertEquals(BigDecimal.valueOf(2), worth.getPrice(null, item(Material.DIRT, (short) 7)));
+        assertEquals(BigDecimal.valueOf(4), worth.getPrice(null, item(Material.COBBLESTONE, (short) 1)));
+        assertEquals(BigDecimal.valueOf(5), worth.getPrice(null, item(Material.COBBLESTONE, (short) 2)));
+        assertEquals(BigDecimal.valueOf(7), worth.getPrice(null, item(Material.GRAVEL, (short) 3)));
+        assertNull(worth.getPrice(null, item(Material.GRAVEL, (short) 0)));
+        assertNull(worth.getPrice(null, item(Material.SAND, (short) 0)));
+        assertNull(worth.getPrice(null, item(Material.GLASS, (short) 0)));
+        assertNull(worth.getPrice(null, item(Material.OBSIDIAN, (short) 0)));
+        assertMatchesConfig(worth);
+    }
+
+    @Test
+    public void testSetPriceAndReload() throws IOException {
+        writeWorth(
+            "worth:",
+            "  stone: 1",
+            "  dirt:",
+            "    '0': 2",
+            "  gravel:",
+            "    '1': 6");
+        final Worth worth = new Worth(dataFolder);
+
+        worth.setPrice(null, item(Material.STONE, (short) 0), 10);
+        worth.setPrice(null, item(Material.GRAVEL, (short) 0), 11);
+        worth.setPrice(null, item(Material.OBSIDIAN, (short) 0), 12);
+        assertEquals(0, BigDecimal.valueOf(10).compareTo(worth.getPrice(null, item(Material.STONE, (short) 0))));
+        assertEquals(0, BigDecimal.valueOf(11).compareTo(worth.getPrice(null, item(Material.GRAVEL, (short) 1))));
+        assertEquals(0, BigDecimal.valueOf(12).compareTo(worth.getPrice(null, item(Material.OBSIDIAN, (short) 0))));
+        EssentialsConfiguration.getSaveQueue().flushAll();
+        assertMatchesConfig(worth);
+
+        writeWorth(
+            "worth:",
+            "  sand:",
+            "    '0': 3",
+            "  cobblestone:",
+            "    '*': 4");
+        worth.reloadConfig();
+        assertNull(worth.getPrice(null, item(Material.STONE, (short) 0)));
+        assertEquals(BigDecimal.valueOf(3), worth.getPrice(null, item(Material.SAND, (short) 5)));
+        assertMatchesConfig(worth);
+    }
+}
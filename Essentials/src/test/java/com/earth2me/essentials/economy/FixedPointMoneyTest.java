@@ -0,0 +1,38 @@
+package com.earth2me.essentials.economy;
+
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static org.junit.Assert.assertEquals;
+
+public class FixedPointMoneyTest {
+    private final FixedPointMoney money = new FixedPointMoney(2, new BigDecimal("-10000"), new BigDecimal("10000000000000"));
+
+    @Test
+    public void testConversion() {
+        assertEquals(12345, money.toUnits(new BigDecimal("123.45")));
+        assertEquals(12345, money.toUnits(new BigDecimal("123.459")));
+        assertEquals(-12345, money.toUnits(new BigDecimal("-123.459")));
+        assertEquals(new BigDecimal("123.45"), money.toDecimal(12345));
+        assertEquals(-1000000, money.getMinUnits());
+        assertEquals(1000000000000000L, money.getMaxUnits());
+    }
+
+    @Test
+    public void testOverflow() {
+        assertEquals(Long.MAX_VALUE, money.toUnits(new BigDecimal("1e30")));
+        assertEquals(Long.MIN_VALUE, money.toUnits(new BigDecimal("-1e30")));
+        assertEquals(Long.MAX_VALUE, FixedPointMoney.add(Long.MAX_VALUE - 1, 2));
+        assertEquals(Long.MIN_VALUE, FixedPointMoney.add(Long.MIN_VALUE + 1, -2));
+        assertEquals(Long.MAX_VALUE, FixedPointMoney.subtract(0, Long.MIN_VALUE));
+        assertEquals(5, FixedPointMoney.subtract(8, 3));
+    }
+
+    @Test
+    public void testClamp() {
+        assertEquals(money.getMaxUnits(), money.clamp(Long.MAX_VALUE));
+        assertEquals(money.getMinUnits(), money.clamp(Long.MIN_VALUE));
+        assertEquals(42, money.clamp(42));
+    }
+}
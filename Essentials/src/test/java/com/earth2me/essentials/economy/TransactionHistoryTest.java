@@ -0,0 +1,155 @@
+package com.earth2me.essentials.economy;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.math.BigDecimal;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TransactionHistoryTest {
+    private static final UUID NOTCH = UUID.fromString("069a79f4-44e9-4726-a5be-fca90e38aaf5");
+    private static final UUID JEB = UUID.fromString("853c80ef-3c37-49fd-aa49-938b674adae6");
+    // time, account, previous, type, no counterparty, detail "a", amount "1" and an empty balance
+    private static final int RECORD_SIZE = 8 + 16 + 8 + 1 + 1 + 3 + 3 + 2;
+
+    @Rule
+    public final TemporaryFolder folder = new TemporaryFolder();
+    private File historyFolder;
+    private File dataFile;
+    private File indexFile;
+
+    @Before
+    public void setUp() throws IOException {
+        historyFolder = folder.newFolder("history");
+        dataFile = new File(historyFolder, "transactions.dat");
+        indexFile = new File(historyFolder, "transactions.idx");
+    }
+
+    private static TransactionHistory.Record record(final long time, final UUID account) {
+        return new TransactionHistory.Record(time, account, TransactionHistory.Type.BALANCE_UPDATE, null, "a", BigDecimal.ONE, null);
+    }
+
+    private void write(final TransactionHistory.Record... records) throws IOException {
+        final TransactionHistory history = new TransactionHistory(historyFolder);
+        for (final TransactionHistory.Record record : records) {
+            history.record(record);
+        }
+        history.close();
+    }
+
+    private List<TransactionHistory.Record> query(final UUID account, final long since, final int skip, final int limit) throws IOException {
+        final TransactionHistory history = new TransactionHistory(historyFolder);
+        try {
+            return history.query(account, since, skip, limit);
+        } finally {
+            history.close();
+        }
+    }
+
+    private static void assertTimes(final List<TransactionHistory.Record> records, final long... times) {
+        assertEquals(times.length, records.size());
+        for (int i = 0; i < times.length; i++) {
+            assertEquals(times[i], records.get(i).getTime());
+        }
+    }
+
+    @Test
+    public void testPaging() throws IOException {
+        for (int i = 1; i <= 10; i++) {
+            write(record(i, NOTCH), record(i, JEB));
+        }
+
+        assertTimes(query(NOTCH, 0, 0, 3), 10, 9, 8);
+        assertTimes(query(NOTCH, 0, 3, 3), 7, 6, 5);
+        assertTimes(query(NOTCH, 0, 9, 5), 1);
+        assertTimes(query(NOTCH, 0, 10, 5));
+        assertTimes(query(NOTCH, 8, 0, 10), 10, 9, 8);
+        assertTimes(query(NOTCH, 4, 2, 3), 8, 7, 6);
+        assertTimes(query(NOTCH, 4, 5, 10), 5, 4);
+        assertTimes(query(NOTCH, 11, 0, 10));
+        assertTimes(query(JEB, 0, 0, 2), 10, 9);
+        assertTimes(query(UUID.randomUUID(), 0, 0, 10));
+    }
+
+    @Test
+    public void testTruncatedRecord() throws IOException {
+        write(record(1, NOTCH), record(2, NOTCH));
+        final long complete = dataFile.length();
+        assertEquals(8 + 2 * RECORD_SIZE, complete);
+        try (final RandomAccessFile data = new RandomAccessFile(dataFile, "rw")) {
+            // The first half of a third record
+            data.seek(complete);
+            data.write(new byte[RECORD_SIZE / 2]);
+        }
+
+        assertTimes(query(NOTCH, 0, 0, 10), 2, 1);
+        assertEquals(complete, dataFile.length());
+
+        // New records are written after the cut off record
+        write(record(3, NOTCH));
+        assertTimes(query(NOTCH, 0, 0, 10), 3, 2, 1);
+    }
+
+    @Test
+    public void testCorruptedRecord() throws IOException {
+        write(record(1, NOTCH), record(2, JEB), record(3, NOTCH));
+        assertTrue(indexFile.delete());
+        try (final RandomAccessFile data = new RandomAccessFile(dataFile, "rw")) {
+            // An unknown type in the middle record
+            data.seek(8 + RECORD_SIZE + 32);
+            data.writeByte(0x7F);
+        }
+        final long length = dataFile.length();
+
+        final TransactionHistory history = new TransactionHistory(historyFolder);
+        assertTimes(history.query(NOTCH, 0, 0, 10), 1);
+        assertTimes(history.query(JEB, 0, 0, 10));
+        history.record(record(4, NOTCH));
+        history.close();
+
+        // Nothing is appended and no index is written, so the corruption is found again
+        assertEquals(length, dataFile.length());
+        assertFalse(indexFile.exists());
+        assertTimes(query(NOTCH, 0, 0, 10), 1);
+    }
+
+    @Test
+    public void testMissingIndex() throws IOException {
+        write(record(1, NOTCH), record(2, JEB), record(3, NOTCH));
+        assertTrue(indexFile.exists());
+        assertTrue(indexFile.delete());
+
+        assertTimes(query(NOTCH, 0, 0, 10), 3, 1);
+        assertTimes(query(JEB, 0, 0, 10), 2);
+    }
+
+    @Test
+    public void testStaleIndex() throws IOException {
+        write(record(1, NOTCH));
+        final File stale = new File(folder.getRoot(), "stale.idx");
+        Files.copy(indexFile.toPath(), stale.toPath());
+        write(record(2, NOTCH), record(3, JEB));
+
+        // An index written before the last records
+        Files.copy(stale.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        assertTimes(query(NOTCH, 0, 0, 10), 2, 1);
+        assertTimes(query(JEB, 0, 0, 10), 3);
+
+        // An index which can not be read
+        Files.write(indexFile.toPath(), new byte[]{1, 2, 3});
+        assertTimes(query(NOTCH, 0, 0, 10), 2, 1);
+        assertTimes(query(JEB, 0, 0, 10), 3);
+    }
+}
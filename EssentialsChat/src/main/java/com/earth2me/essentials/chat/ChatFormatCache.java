@@ -0,0 +1,145 @@
+package com.earth2me.essentials.chat;
+
+import com.earth2me.essentials.User;
+import com.earth2me.essentials.utils.FormatUtil;
+import net.ess3.api.IEssentials;
+import org.bukkit.entity.Player;
+import org.bukkit.event.EventHandler;
+import org.bukkit.event.EventPriority;
+import org.bukkit.event.Listener;
+import org.bukkit.event.player.PlayerChangedWorldEvent;
+import org.bukkit.event.player.PlayerQuitEvent;
+import org.bukkit.scoreboard.Team;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caches the chat format of each player with everything but their display name and message filled in.
+ * <p>
+ * Group formats are compiled once into literal text and slots. The format of a player is resolved again only
+ * when their world, team, name or nickname change. Their group, prefix and suffix come from the permissions
+ * plugin, which is the expensive part of a chat message, so these are looked up at most every few seconds.
+ */
+class ChatFormatCache implements Listener {
+    private static final long PERMISSIONS_REFRESH = TimeUnit.SECONDS.toMillis(5);
+    private static final int SLOTS = 10;
+    private final transient IEssentials ess;
+    private final transient Map<String, Template> templates = new ConcurrentHashMap<>();
+    private final transient Map<UUID, Entry> entries = new ConcurrentHashMap<>();
+
+    ChatFormatCache(final IEssentials ess) {
+        this.ess = ess;
+    }
+
+    String getFormat(final User user) {
+        final Player player = user.getBase();
+        final long now = System.currentTimeMillis();
+        final Entry entry = entries.get(player.getUniqueId());
+
+        final String[] values = new String[SLOTS];
+        final long refresh;
+        if (entry != null && now < entry.refresh) {
+            values[0] = entry.values[0];
+            values[6] = entry.values[6];
+            values[7] = entry.values[7];
+            refresh = entry.refresh;
+        } else {
+            values[0] = user.getGroup();
+            values[6] = FormatUtil.replaceFormat(ess.getPermissionsHandler().getPrefix(player));
+            values[7] = FormatUtil.replaceFormat(ess.getPermissionsHandler().getSuffix(player));
+            refresh = now + PERMISSIONS_REFRESH;
+        }
+
+        final String world = user.getWorld().getName();
+        final Team team = player.getScoreboard().getPlayerTeam(player);
+        final String username = user.getName();
+        final String nickname = user.getFormattedNickname();
+        values[1] = ess.getSettings().getWorldAlias(world);
+        values[2] = world.substring(0, 1).toUpperCase(Locale.ENGLISH);
+        values[3] = team == null ? "" : team.getPrefix();
+        values[4] = team == null ? "" : team.getSuffix();
+        values[5] = team == null ? "" : team.getDisplayName();
+        values[8] = username;
+        values[9] = nickname == null ? username : nickname;
+
+        final String groupFormat = ess.getSettings().getChatFormat(values[0]);
+        final String format;
+        if (entry != null && entry.groupFormat.equals(groupFormat) && Arrays.equals(entry.values, values)) {
+            format = entry.format;
+            if (entry.refresh == refresh) {
+                return format;
+            }
+        } else {
+            format = templates.computeIfAbsent(groupFormat, Template::new).resolve(values);
+        }
+        entries.put(player.getUniqueId(), new Entry(groupFormat, values, format, refresh));
+        return format;
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerChangedWorld(final PlayerChangedWorldEvent event) {
+        entries.remove(event.getPlayer().getUniqueId());
+    }
+
+    @EventHandler(priority = EventPriority.MONITOR)
+    public void onPlayerQuit(final PlayerQuitEvent event) {
+        entries.remove(event.getPlayer().getUniqueId());
+    }
+
+    private static final class Entry {
+        private final String groupFormat;
+        private final String[] values;
+        private final String format;
+        private final long refresh;
+
+        private Entry(final String groupFormat, final String[] values, final String format, final long refresh) {
+            this.groupFormat = groupFormat;
+            this.values = values;
+            this.format = format;
+            this.refresh = refresh;
+        }
+    }
+
+    /**
+     * A group format split into literal text and the slots {0} to {9} left in it by the settings.
+     */
+    private static final class Template {
+        private final String[] literals;
+        private final int[] slots;
+
+        private Template(final String format) {
+            final List<String> literals = new ArrayList<>();
+            final List<Integer> slots = new ArrayList<>();
+            int last = 0;
+            int index = format.indexOf('{');
+            while (index != -1 && index + 2 < format.length()) {
+                final char slot = format.charAt(index + 1);
+                if (slot >= '0' && slot <= '9' && format.charAt(index + 2) == '}') {
+                    literals.add(format.substring(last, index));
+                    slots.add(slot - '0');
+                    last = index + 3;
+                }
+                index = format.indexOf('{', index + 1);
+            }
+            literals.add(format.substring(last));
+            this.literals = literals.toArray(new String[0]);
+            this.slots = slots.stream().mapToInt(Integer::intValue).toArray();
+        }
+
+        private String resolve(final String[] values) {
+            final StringBuilder builder = new StringBuilder(literals[0]);
+            for (int i = 0; i < slots.length; i++) {
+                final String value = values[slots[i]];
+                builder.append(value == null ? "" : value).append(literals[i + 1]);
+            }
+            return builder.toString();
+        }
+    }
+}
@@ -5,7 +5,6 @@ import net.ess3.api.IEssentials;
 import net.ess3.api.events.LocalChatSpyEvent;
 import org.bukkit.Location;
 import org.bukkit.Server;
-import org.bukkit.World;
 import org.bukkit.entity.Player;
 import org.bukkit.event.EventHandler;
 import org.bukkit.event.EventPriority;
@@ -33,15 +32,14 @@ public class EssentialsChatPlayerListenerNormal extends EssentialsChatPlayer {
         }
 
         // This file should handle detection of the local chat features; if local chat is enabled, we need to handle it here
-        long radius = ess.getSettings().getChatRadius();
+        final long radius = ess.getSettings().getChatRadius();
         if (radius < 1) {
             return;
         }
-        radius *= radius;
 
         final ChatStore chatStore = getChatStore(event);
         final User user = chatStore.getUser();
-        chatStore.setRadius(radius);
+        chatStore.setRadius(radius * radius);
 
         if (event.getMessage().length() > 1 && chatStore.getType().length() > 0) {
             final StringBuilder permission = new StringBuilder();
@@ -61,7 +59,6 @@ public class EssentialsChatPlayerListenerNormal extends EssentialsChatPlayer {
         }
 
         final Location loc = user.getLocation();
-        final World world = loc.getWorld();
 
         if (!charge(event, chatStore)) {
             return;
@@ -82,27 +79,18 @@ public class EssentialsChatPlayerListenerNormal extends EssentialsChatPlayer {
         final String format = event.getFormat();
         event.setFormat(tl("chatTypeLocal").concat(event.getFormat()));
 
+        final Set<Player> nearby = new HashSet<>(ess.getPlayerGrid().getPlayersInRadius(loc, radius));
+        for (final User spy : ess.getSpyRegistry().getLocalChatSpies()) {
+            final Player spyPlayer = spy.getBase();
+            if (!nearby.contains(spyPlayer) && !spyPlayer.equals(event.getPlayer()) && outList.contains(spyPlayer)) {
+                spyList.add(spyPlayer);
+            }
+        }
         final Iterator<Player> it = outList.iterator();
         while (it.hasNext()) {
             final Player onlinePlayer = it.next();
-            final User onlineUser = ess.getUser(onlinePlayer);
-            if (!onlineUser.equals(user)) {
-                boolean abort = false;
-                final Location playerLoc = onlineUser.getLocation();
-                if (playerLoc.getWorld() != world) {
-                    abort = true;
-                } else {
-                    final double delta = playerLoc.distanceSquared(loc);
-                    if (delta > chatStore.getRadius()) {
-                        abort = true;
-                    }
-                }
-                if (abort) {
-                    if (onlineUser.isAuthorized("essentials.chat.spy")) {
-                        spyList.add(onlinePlayer);
-                    }
-                    it.remove();
-                }
+            if (!onlinePlayer.equals(event.getPlayer()) && !nearby.contains(onlinePlayer)) {
+                it.remove();
             }
         }
 